@@ -31,9 +31,14 @@ import java.util.TreeMap;
 
 public class Bookmark implements Comparable<Bookmark> {
 
+	/**
+	 * Timestamp of a bookmark without time information (an empty timestamp in the dataset).
+	 */
+	public final static long NO_TIMESTAMP = Long.MIN_VALUE;
+	
 	private int userID;
 	private int resID;
-	private String timestamp;
+	private long timestamp; // in seconds
 	private String title;
 	private String description;
 	private List<Integer> tags;
@@ -41,7 +46,12 @@ public class Bookmark implements Comparable<Bookmark> {
 	private double rating; 
 	private List<Integer> categories;
 	
-	public Bookmark(int userID, int wikiID, String timestamp, String title, String description) {
+	// set for bookmarks materialized from a BookmarkStore, which provides the title and description on demand
+	private BookmarkStore store = null;
+	private int storeIndex = -1;
+	private boolean readOnly = false;
+	
+	public Bookmark(int userID, int wikiID, long timestamp, String title, String description) {
 		this.userID = userID;
 		this.resID = wikiID;
 		this.timestamp = timestamp;
@@ -53,18 +63,45 @@ public class Bookmark implements Comparable<Bookmark> {
 		this.tags = new ArrayList<Integer>();
 	}
 	
+	Bookmark(int userID, int wikiID, long timestamp, BookmarkStore store, int storeIndex) {
+		this(userID, wikiID, timestamp, null, null);
+		this.store = store;
+		this.storeIndex = storeIndex;
+	}
+	
+	/**
+	 * Creates a copy of the bookmark with its own tag and category lists.
+	 */
+	public Bookmark(Bookmark data) {
+		this(data.userID, data.resID, data.timestamp, data.title, data.description);
+		this.rating = data.rating;
+		this.tags.addAll(data.tags);
+		this.categories.addAll(data.categories);
+		this.store = data.store;
+		this.storeIndex = data.storeIndex;
+	}
+	
+	// an element of a store's list view - the lists have to be read-only as well
+	Bookmark(int userID, int wikiID, long timestamp, double rating, List<Integer> tags, List<Integer> categories, BookmarkStore store, int storeIndex) {
+		this(userID, wikiID, timestamp, store, storeIndex);
+		this.rating = rating;
+		this.tags = tags;
+		this.categories = categories;
+		this.readOnly = true;
+	}
+	
 	@Override
 	public int compareTo(Bookmark data) {
-		//return (Long.parseLong(getTimestamp()) <= Long.parseLong(data.getTimestamp()) ? - 1 : 1);
+		//return (this.timestamp <= data.timestamp ? - 1 : 1);
 		if (this.userID < data.getUserID()) {
 			return -1;
 		} else if (this.userID > data.userID) {
 			return 1;
 		} else {
-			if (!this.timestamp.isEmpty() && !data.timestamp.isEmpty()) {
-				if (Long.parseLong(this.timestamp) < Long.parseLong(data.timestamp)) { // < 
+			if (this.timestamp != NO_TIMESTAMP && data.timestamp != NO_TIMESTAMP) {
+				if (this.timestamp < data.timestamp) { // < 
 					return -1;
-				} else if (Long.parseLong(this.timestamp) > Long.parseLong(data.timestamp)) { // >
+				} else if (this.timestamp > data.timestamp) { // >
 					return 1;
 				}
 			}
@@ -74,22 +111,31 @@ public class Bookmark implements Comparable<Bookmark> {
 	
 	// Getter -------------------------------------------------------------------------
 	public String getTitle() {
+		if (this.title == null && this.store != null) {
+			this.title = this.store.getTitle(this.storeIndex);
+		}
 		return title;
 	}
 
 	public void setTitle(String title) {
+		checkWritable();
 		this.title = title;
 	}
 
 	public String getDescription() {
+		if (this.description == null && this.store != null) {
+			this.description = this.store.getDescription(this.storeIndex);
+		}
 		return description;
 	}
 	
 	public void setDescription(String description) {
+		checkWritable();
 		this.description = description;
 	}
 	
 	public void setUserID(int userID) {
+		checkWritable();
 		this.userID = userID;
 	}
 	
@@ -98,6 +144,7 @@ public class Bookmark implements Comparable<Bookmark> {
 	}
 	
 	public void setWikiID(int wikiID) {
+		checkWritable();
 		this.resID = wikiID;
 	}
 	
@@ -105,15 +152,27 @@ public class Bookmark implements Comparable<Bookmark> {
 		return this.resID;
 	}
 	
-	public String getTimestamp() {
+	public long getTimestamp() {
 		return this.timestamp;
 	}
 	
+	public boolean hasTimestamp() {
+		return this.timestamp != NO_TIMESTAMP;
+	}
+	
+	/**
+	 * Returns the timestamp as it is written to a dataset, i.e., an empty string if there is none.
+	 */
+	public String getTimestampString() {
+		return (this.timestamp != NO_TIMESTAMP ? Long.toString(this.timestamp) : "");
+	}
+	
 	public double getRating() {
 		return this.rating;
 	}
 	
 	public void setRating(double rating) {
+		checkWritable();
 		this.rating = rating;
 	}
 	
@@ -122,6 +181,7 @@ public class Bookmark implements Comparable<Bookmark> {
 	}
 	
 	public void setTags(List<Integer> tags) {
+		checkWritable();
 		this.tags = tags;
 	}
 	
@@ -129,8 +189,21 @@ public class Bookmark implements Comparable<Bookmark> {
 		return this.tags;
 	}
 	
+	private void checkWritable() {
+		if (this.readOnly) {
+			throw new UnsupportedOperationException("bookmark of a read-only BookmarkStore view");
+		}
+	}
+	
 	// Statics ----------------------------------------------------------------------------------
 	
+	/**
+	 * Parses a timestamp of a dataset - an empty one yields NO_TIMESTAMP.
+	 */
+	public static long parseTimestamp(String timestamp) throws NumberFormatException {
+		return (timestamp.isEmpty() ? NO_TIMESTAMP : Long.parseLong(timestamp));
+	}
+	
 	public static Bookmark getUserData(List<Bookmark> lines, int userID, int resID) {
 		Bookmark returnData = null;
 		for (Bookmark data : lines) {
@@ -145,6 +218,13 @@ public class Bookmark implements Comparable<Bookmark> {
 		return returnData;
 	}
 	
+	/**
+	 * Same as getUserData(index.getBookmarks(), userID, resID) but only scans the user's bookmarks.
+	 */
+	public static Bookmark getUserData(BookmarkIndex index, int userID, int resID) {
+		return getUserData(index.getUserBookmarks(userID), userID, resID);
+	}
+	
 	public static Bookmark getResData(List<Bookmark> lines, int userID, int resID) {
 		Bookmark returnData = null;
 		for (Bookmark data : lines) {
@@ -159,12 +239,19 @@ public class Bookmark implements Comparable<Bookmark> {
 		return returnData;
 	}
 	
+	/**
+	 * Same as getResData(index.getBookmarks(), userID, resID) but only scans the resource's bookmarks.
+	 */
+	public static Bookmark getResData(BookmarkIndex index, int userID, int resID) {
+		return getResData(index.getResourceBookmarks(resID), userID, resID);
+	}
+	
 	public static Bookmark getLastData(List<Bookmark> lines, Set<Integer> ids) {
 		long maxTimestamp = Long.MAX_VALUE;
 		Bookmark returnData = null;
 		for (Bookmark data : lines) {
 			if (ids.contains(data.userID)) {
-				long timestamp = Long.parseLong(data.timestamp);
+				long timestamp = data.timestamp;
 				if (timestamp < maxTimestamp) {
 					maxTimestamp = timestamp;
 					returnData = data;
@@ -184,6 +271,10 @@ public class Bookmark implements Comparable<Bookmark> {
 		return new ArrayList<Integer>(resourceList);
 	}
 	
+	public static List<Integer> getResourcesFromUser(BookmarkIndex trainIndex, int userID) {
+		return getResourcesFromUser(trainIndex.getUserBookmarks(userID), userID);
+	}
+	
 
 	public static Map<Integer, Double> getResourcesFromUserWithBLL(List<Bookmark> trainData, List<Bookmark> testData, int userID, List<Map<Integer, Double>> bllValues) {
 		Map<Integer, Double> resourceMap = new LinkedHashMap<Integer, Double>();
@@ -209,13 +300,28 @@ public class Bookmark implements Comparable<Bookmark> {
 		return resourceMap;
 	}
 	
+	public static Map<Integer, Double> getResourcesFromUserWithBLL(BookmarkIndex trainIndex, int userID, List<Map<Integer, Double>> bllValues) {
+		return getResourcesFromUserWithBLL(trainIndex.getUserBookmarks(userID), null, userID, bllValues);
+	}
+	
+	/**
+	 * Same as the list version on the bookmarks of the indexes - a null testIndex means no test data.
+	 */
+	public static Map<Integer, Double> getResourcesFromUserWithRec(BookmarkIndex trainIndex, BookmarkIndex testIndex, int userID, Double dValue, boolean sorting) {
+		return getResourcesFromUserWithRec(trainIndex.getUserBookmarks(userID), testIndex != null ? testIndex.getUserBookmarks(userID) : null,
+				userID, dValue, sorting);
+	}
+	
 	public static Map<Integer, Double> getResourcesFromUserWithRec(List<Bookmark> trainData, List<Bookmark> testData, int userID, Double dValue, boolean sorting) {
 		Map<Integer, Double> resourceMap = new LinkedHashMap<Integer, Double>();
 		long refTimestamp = Utilities.getBaselineTimestamp(testData, userID, false);
 		for (Bookmark data : trainData) {		
 			if (data.userID == userID) {
 				if (dValue != null) {
-					long timestamp = Long.parseLong(data.getTimestamp());
+					if (data.timestamp == NO_TIMESTAMP) {
+						continue; // no recency, as in ActCalculator.getArtifactMaps
+					}
+					long timestamp = data.timestamp;
 					Double rec = Math.pow(refTimestamp - timestamp + 1.0, dValue.doubleValue() * (-1.0));
 					if (!rec.isInfinite() && !rec.isNaN()) {
 						//resourceMap.put(data.resID, Math.log(rec.doubleValue() + 1.0));
@@ -240,4 +346,4 @@ public class Bookmark implements Comparable<Bookmark> {
 			return resourceMap;
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,167 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Posting lists of a bookmark list: for every user and every resource the positions of its bookmarks in ascending
+ * order (CSR layout, the positions of user u are userPositions[userOffsets[u]] until userOffsets[u + 1]).
+ * The postings are list views in the order of the list, so a helper that scans the whole list for one user or
+ * resource yields the same result on a posting in O(posting length).
+ * The index is a snapshot of the IDs - it has to be built again after the list was sorted or changed.
+ */
+public class BookmarkIndex {
+
+	private final List<Bookmark> bookmarks;
+	private final int[] userOffsets;
+	private final int[] userPositions;
+	private final int[] resOffsets;
+	private final int[] resPositions;
+
+	public BookmarkIndex(List<Bookmark> bookmarks) {
+		this.bookmarks = bookmarks;
+		int size = bookmarks.size();
+		int[] userIDs = new int[size];
+		int[] resIDs = new int[size];
+		int i = 0;
+		BookmarkStore.Cursor cursor = BookmarkStore.cursorOf(bookmarks);
+		if (cursor != null) {
+			while (cursor.next()) {
+				userIDs[i] = cursor.getUserID();
+				resIDs[i++] = cursor.getWikiID();
+			}
+		} else {
+			for (Bookmark data : bookmarks) {
+				userIDs[i] = data.getUserID();
+				resIDs[i++] = data.getWikiID();
+			}
+		}
+		this.userOffsets = getOffsets(userIDs);
+		this.userPositions = getPositions(userIDs, this.userOffsets);
+		this.resOffsets = getOffsets(resIDs);
+		this.resPositions = getPositions(resIDs, this.resOffsets);
+	}
+
+	// counts the bookmarks per ID - offsets[id + 1] - offsets[id] afterwards
+	private static int[] getOffsets(int[] ids) {
+		int max = -1;
+		for (int id : ids) {
+			max = Math.max(max, id);
+		}
+		int[] offsets = new int[max + 2];
+		for (int id : ids) {
+			if (id >= 0) {
+				offsets[id + 1]++;
+			}
+		}
+		for (int id = 0; id <= max; id++) {
+			offsets[id + 1] += offsets[id];
+		}
+		return offsets;
+	}
+
+	private static int[] getPositions(int[] ids, int[] offsets) {
+		int[] next = new int[offsets.length - 1];
+		System.arraycopy(offsets, 0, next, 0, next.length);
+		int[] positions = new int[offsets[offsets.length - 1]];
+		for (int pos = 0; pos < ids.length; pos++) {
+			if (ids[pos] >= 0) {
+				positions[next[ids[pos]]++] = pos;
+			}
+		}
+		return positions;
+	}
+
+	public int size() {
+		return this.bookmarks.size();
+	}
+
+	public List<Bookmark> getBookmarks() {
+		return this.bookmarks;
+	}
+
+	/**
+	 * Returns the bookmarks of the user in the order of the list - an empty list for unknown users.
+	 */
+	public List<Bookmark> getUserBookmarks(int userID) {
+		return getPosting(this.userOffsets, this.userPositions, userID);
+	}
+
+	/**
+	 * Returns the bookmarks of the resource in the order of the list - an empty list for unknown resources.
+	 */
+	public List<Bookmark> getResourceBookmarks(int resID) {
+		return getPosting(this.resOffsets, this.resPositions, resID);
+	}
+
+	public int getUserBookmarkCount(int userID) {
+		return (userID >= 0 && userID < this.userOffsets.length - 1 ? this.userOffsets[userID + 1] - this.userOffsets[userID] : 0);
+	}
+
+	public int getResourceBookmarkCount(int resID) {
+		return (resID >= 0 && resID < this.resOffsets.length - 1 ? this.resOffsets[resID + 1] - this.resOffsets[resID] : 0);
+	}
+
+	private List<Bookmark> getPosting(int[] offsets, int[] positions, int id) {
+		if (id < 0 || id >= offsets.length - 1 || offsets[id] == offsets[id + 1]) {
+			return Collections.emptyList();
+		}
+		return new Posting(positions, offsets[id], offsets[id + 1]);
+	}
+
+	/**
+	 * Approximate number of bytes the index occupies on the heap (without the bookmarks).
+	 */
+	public long getMemoryUsage() {
+		return 32 + (16 + 4L * this.userOffsets.length) + (16 + 4L * this.userPositions.length)
+				+ (16 + 4L * this.resOffsets.length) + (16 + 4L * this.resPositions.length);
+	}
+
+	private class Posting extends AbstractList<Bookmark> implements RandomAccess {
+
+		private final int[] positions;
+		private final int start;
+		private final int end;
+
+		Posting(int[] positions, int start, int end) {
+			this.positions = positions;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Bookmark get(int index) {
+			if (index < 0 || index >= this.end - this.start) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+			}
+			return BookmarkIndex.this.bookmarks.get(this.positions[this.start + index]);
+		}
+
+		@Override
+		public int size() {
+			return this.end - this.start;
+		}
+	}
+}
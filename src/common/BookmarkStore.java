@@ -0,0 +1,485 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Columnar storage of bookmarks: one primitive array per attribute and the tags and categories in CSR form (the
+ * values of bookmark i are at offsets[i] until offsets[i + 1]). This takes about 30 bytes per bookmark plus 4 bytes
+ * per tag assignment instead of a Bookmark object with two ArrayLists of boxed Integers.
+ * Titles and descriptions are not part of the columns: they are either kept in a TextRegion or loaded from the
+ * source file on first access via a TextLoader.
+ * Algorithms should iterate with a Cursor; asList() is a read-only List<Bookmark> view for the existing code which
+ * creates a Bookmark object on every get. Helpers that get such a view (or a subList of it) can use cursorOf to
+ * iterate the store directly.
+ */
+public class BookmarkStore {
+
+	/**
+	 * Loads the titles and descriptions of all bookmarks of a store (title of bookmark i at 2 * i, description at
+	 * 2 * i + 1) - e.g., by reading the source file again.
+	 */
+	public interface TextLoader {
+		TextRegion loadTexts(BookmarkStore store) throws Exception;
+	}
+
+	private int size = 0;
+	private int[] users;
+	private int[] resources;
+	private long[] timestamps;
+	private double[] ratings;
+	private int[] lines;
+	private int[] tagOffsets;
+	private int[] tags;
+	private int[] categoryOffsets;
+	private int[] categories;
+
+	private TextLoader textLoader = null;
+	private volatile TextRegion texts = null;
+
+	public BookmarkStore() {
+		this(16, 64);
+	}
+
+	public BookmarkStore(int capacity, int tagCapacity) {
+		capacity = Math.max(capacity, 1);
+		this.users = new int[capacity];
+		this.resources = new int[capacity];
+		this.timestamps = new long[capacity];
+		this.ratings = new double[capacity];
+		this.lines = new int[capacity];
+		this.tagOffsets = new int[capacity + 1];
+		this.tags = new int[Math.max(tagCapacity, 1)];
+		this.categoryOffsets = new int[capacity + 1];
+		this.categories = new int[4];
+	}
+
+	/**
+	 * Creates a store with the bookmarks of the list - their titles and descriptions are copied to a TextRegion.
+	 */
+	public static BookmarkStore of(List<Bookmark> bookmarks) {
+		int tagCount = 0;
+		for (Bookmark data : bookmarks) {
+			tagCount += data.getTags().size();
+		}
+		BookmarkStore store = new BookmarkStore(bookmarks.size(), tagCount);
+		TextRegion texts = new TextRegion();
+		for (Bookmark data : bookmarks) {
+			store.add(data, -1);
+			texts.add(data.getTitle());
+			texts.add(data.getDescription());
+		}
+		store.texts = texts;
+		return store;
+	}
+
+	/**
+	 * Creates a store that uses the given columns (e.g., read from a binary dataset) - they are not copied.
+	 */
+	public static BookmarkStore of(int[] users, int[] resources, long[] timestamps, double[] ratings, int[] lines,
+			int[] tagOffsets, int[] tags, int[] categoryOffsets, int[] categories) {
+		int size = users.length;
+		if (resources.length != size || timestamps.length != size || ratings.length != size || lines.length != size
+				|| tagOffsets.length != size + 1 || tagOffsets[size] > tags.length
+				|| categoryOffsets.length != size + 1 || categoryOffsets[size] > categories.length) {
+			throw new IllegalArgumentException("columns of different length");
+		}
+		BookmarkStore store = new BookmarkStore(1, 1);
+		store.size = size;
+		store.users = users;
+		store.resources = resources;
+		store.timestamps = timestamps;
+		store.ratings = ratings;
+		store.lines = lines;
+		store.tagOffsets = tagOffsets;
+		store.tags = tags;
+		store.categoryOffsets = categoryOffsets;
+		store.categories = categories;
+		return store;
+	}
+	
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Appends a bookmark and returns its index. The line is the bookmark's line in the source file (-1 if unknown).
+	 */
+	public int add(int userID, int resID, long timestamp, double rating, int[] tags, int tagCount, int[] categories, int categoryCount, int line) {
+		if (this.size + 1 == this.tagOffsets.length) {
+			int capacity = this.size + Math.max(this.size >> 1, 16);
+			this.users = Arrays.copyOf(this.users, capacity);
+			this.resources = Arrays.copyOf(this.resources, capacity);
+			this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+			this.ratings = Arrays.copyOf(this.ratings, capacity);
+			this.lines = Arrays.copyOf(this.lines, capacity);
+			this.tagOffsets = Arrays.copyOf(this.tagOffsets, capacity + 1);
+			this.categoryOffsets = Arrays.copyOf(this.categoryOffsets, capacity + 1);
+		}
+		int index = this.size;
+		this.users[index] = userID;
+		this.resources[index] = resID;
+		this.timestamps[index] = timestamp;
+		this.ratings[index] = rating;
+		this.lines[index] = line;
+		this.tags = append(this.tags, this.tagOffsets[index], tags, tagCount);
+		this.tagOffsets[index + 1] = this.tagOffsets[index] + tagCount;
+		this.categories = append(this.categories, this.categoryOffsets[index], categories, categoryCount);
+		this.categoryOffsets[index + 1] = this.categoryOffsets[index] + categoryCount;
+		this.size++;
+		return index;
+	}
+
+	public int add(Bookmark data, int line) {
+		int[] tags = toArray(data.getTags());
+		int[] categories = toArray(data.getCategories());
+		return add(data.getUserID(), data.getWikiID(), data.getTimestamp(), data.getRating(), tags, tags.length, categories, categories.length, line);
+	}
+
+	private static int[] append(int[] values, int size, int[] newValues, int count) {
+		if (size + count > values.length) {
+			values = Arrays.copyOf(values, Math.max(size + count, values.length + (values.length >> 1)));
+		}
+		System.arraycopy(newValues, 0, values, size, count);
+		return values;
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Returns a copy of the store that can be changed independently - the texts are shared.
+	 */
+	public BookmarkStore copy() {
+		BookmarkStore copy = of(Arrays.copyOf(this.users, this.size), Arrays.copyOf(this.resources, this.size),
+				Arrays.copyOf(this.timestamps, this.size), Arrays.copyOf(this.ratings, this.size), Arrays.copyOf(this.lines, this.size),
+				Arrays.copyOf(this.tagOffsets, this.size + 1), Arrays.copyOf(this.tags, this.tagOffsets[this.size]),
+				Arrays.copyOf(this.categoryOffsets, this.size + 1), Arrays.copyOf(this.categories, this.categoryOffsets[this.size]));
+		copy.textLoader = this.textLoader;
+		copy.texts = this.texts;
+		return copy;
+	}
+	
+	public void trimToSize() {
+		this.users = Arrays.copyOf(this.users, this.size);
+		this.resources = Arrays.copyOf(this.resources, this.size);
+		this.timestamps = Arrays.copyOf(this.timestamps, this.size);
+		this.ratings = Arrays.copyOf(this.ratings, this.size);
+		this.lines = Arrays.copyOf(this.lines, this.size);
+		this.tagOffsets = Arrays.copyOf(this.tagOffsets, this.size + 1);
+		this.tags = Arrays.copyOf(this.tags, this.tagOffsets[this.size]);
+		this.categoryOffsets = Arrays.copyOf(this.categoryOffsets, this.size + 1);
+		this.categories = Arrays.copyOf(this.categories, this.categoryOffsets[this.size]);
+	}
+
+	// Columns ----------------------------------------------------------------------------------
+
+	public int getUserID(int index) {
+		return this.users[checkIndex(index)];
+	}
+
+	public int getWikiID(int index) {
+		return this.resources[checkIndex(index)];
+	}
+
+	public long getTimestamp(int index) {
+		return this.timestamps[checkIndex(index)];
+	}
+
+	public double getRating(int index) {
+		return this.ratings[checkIndex(index)];
+	}
+
+	public int getLine(int index) {
+		return this.lines[checkIndex(index)];
+	}
+
+	public int getTagCount(int index) {
+		checkIndex(index);
+		return this.tagOffsets[index + 1] - this.tagOffsets[index];
+	}
+
+	public int getTag(int index, int i) {
+		return this.tags[this.tagOffsets[checkIndex(index)] + i];
+	}
+
+	public int getCategoryCount(int index) {
+		checkIndex(index);
+		return this.categoryOffsets[index + 1] - this.categoryOffsets[index];
+	}
+
+	public int getCategory(int index, int i) {
+		return this.categories[this.categoryOffsets[checkIndex(index)] + i];
+	}
+
+	/**
+	 * Returns the number of tag assignments of all bookmarks.
+	 */
+	public int getTagAssignmentsCount() {
+		return this.tagOffsets[this.size];
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.size);
+		}
+		return index;
+	}
+
+	// Texts ------------------------------------------------------------------------------------
+
+	public void setTextLoader(TextLoader textLoader) {
+		this.textLoader = textLoader;
+		this.texts = null;
+	}
+
+	public String getTitle(int index) {
+		return getText(2 * checkIndex(index));
+	}
+
+	public String getDescription(int index) {
+		return getText(2 * checkIndex(index) + 1);
+	}
+
+	private String getText(int textIndex) {
+		TextRegion texts = getTexts();
+		return (texts != null && textIndex < texts.size() ? texts.get(textIndex) : "");
+	}
+
+	private TextRegion getTexts() {
+		TextRegion texts = this.texts;
+		if (texts == null && this.textLoader != null) {
+			synchronized (this) {
+				texts = this.texts;
+				if (texts == null) {
+					try {
+						texts = this.textLoader.loadTexts(this);
+					} catch (Exception e) {
+						e.printStackTrace();
+						texts = new TextRegion();
+					}
+					this.texts = texts;
+				}
+			}
+		}
+		return texts;
+	}
+
+	// Views ------------------------------------------------------------------------------------
+
+	public Cursor cursor() {
+		return new Cursor(0, this.size);
+	}
+
+	/**
+	 * Returns a cursor over the bookmarks of the list if it is a view of a store (asList() or a subList of it) and
+	 * null otherwise.
+	 */
+	public static Cursor cursorOf(List<Bookmark> bookmarks) {
+		if (bookmarks instanceof BookmarkList) {
+			return ((BookmarkList)bookmarks).cursor();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a new Bookmark object with the values of the bookmark that can be changed independently of the store -
+	 * its title and description are only loaded if they are used.
+	 */
+	public Bookmark getBookmark(int index) {
+		Bookmark data = new Bookmark(getUserID(index), getWikiID(index), getTimestamp(index), this, index);
+		data.setRating(getRating(index));
+		for (int i = 0; i < getTagCount(index); i++) {
+			data.getTags().add(getTag(index, i));
+		}
+		for (int i = 0; i < getCategoryCount(index); i++) {
+			data.getCategories().add(getCategory(index, i));
+		}
+		return data;
+	}
+
+	// the elements of the list views: they share the tag and category columns and cannot be changed, as the
+	// changes would be lost with the object
+	private Bookmark getReadOnlyBookmark(int index) {
+		return new Bookmark(getUserID(index), getWikiID(index), getTimestamp(index), getRating(index),
+				new IntList(this.tags, this.tagOffsets[index], this.tagOffsets[index + 1]),
+				new IntList(this.categories, this.categoryOffsets[index], this.categoryOffsets[index + 1]), this, index);
+	}
+
+	/**
+	 * Returns a read-only list view of the bookmarks: every get creates a Bookmark object whose setters and lists
+	 * throw an UnsupportedOperationException. Code that sorts or changes the bookmarks has to copy them with
+	 * getBookmark first.
+	 */
+	public List<Bookmark> asList() {
+		return new BookmarkList(0, -1);
+	}
+
+	/**
+	 * Approximate number of bytes the columns (without texts) occupy on the heap.
+	 */
+	public long getMemoryUsage() {
+		return 64 + (16 + 4L * this.users.length) + (16 + 4L * this.resources.length) + (16 + 8L * this.timestamps.length)
+				+ (16 + 8L * this.ratings.length) + (16 + 4L * this.lines.length) + (16 + 4L * this.tagOffsets.length)
+				+ (16 + 4L * this.tags.length) + (16 + 4L * this.categoryOffsets.length) + (16 + 4L * this.categories.length);
+	}
+
+	/**
+	 * Iterates the bookmarks without creating objects: call next() before reading the first one. A cursor can also
+	 * be positioned on any bookmark with moveTo.
+	 */
+	public class Cursor {
+
+		private int index;
+		private final int end;
+
+		private Cursor(int start, int end) {
+			this.index = start - 1;
+			this.end = end;
+		}
+
+		public boolean next() {
+			if (this.index + 1 < this.end) {
+				this.index++;
+				return true;
+			}
+			return false;
+		}
+
+		public void moveTo(int index) {
+			this.index = checkIndex(index);
+		}
+
+		public int getIndex() {
+			return this.index;
+		}
+
+		public int getUserID() {
+			return BookmarkStore.this.users[this.index];
+		}
+
+		public int getWikiID() {
+			return BookmarkStore.this.resources[this.index];
+		}
+
+		public long getTimestamp() {
+			return BookmarkStore.this.timestamps[this.index];
+		}
+
+		public boolean hasTimestamp() {
+			return BookmarkStore.this.timestamps[this.index] != Bookmark.NO_TIMESTAMP;
+		}
+
+		public double getRating() {
+			return BookmarkStore.this.ratings[this.index];
+		}
+
+		public int getTagCount() {
+			return BookmarkStore.this.tagOffsets[this.index + 1] - BookmarkStore.this.tagOffsets[this.index];
+		}
+
+		public int getTag(int i) {
+			return BookmarkStore.this.tags[BookmarkStore.this.tagOffsets[this.index] + i];
+		}
+
+		public int getCategoryCount() {
+			return BookmarkStore.this.categoryOffsets[this.index + 1] - BookmarkStore.this.categoryOffsets[this.index];
+		}
+
+		public int getCategory(int i) {
+			return BookmarkStore.this.categories[BookmarkStore.this.categoryOffsets[this.index] + i];
+		}
+	}
+
+	// the bookmarks [start, end) of the store - an end of -1 follows the size of the store (asList), a subList has a
+	// fixed end
+	private class BookmarkList extends AbstractList<Bookmark> implements RandomAccess {
+
+		private final int start;
+		private final int end;
+
+		BookmarkList(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		Cursor cursor() {
+			return new Cursor(this.start, this.start + size());
+		}
+
+		@Override
+		public Bookmark get(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+			}
+			return getReadOnlyBookmark(this.start + index);
+		}
+
+		@Override
+		public int size() {
+			return (this.end < 0 ? BookmarkStore.this.size : this.end) - this.start;
+		}
+
+		@Override
+		public List<Bookmark> subList(int fromIndex, int toIndex) {
+			if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+				throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size());
+			}
+			return new BookmarkList(this.start + fromIndex, this.start + toIndex);
+		}
+	}
+
+	// read-only view of the values [start, end) of a column
+	private static class IntList extends AbstractList<Integer> implements RandomAccess {
+
+		private final int[] values;
+		private final int start;
+		private final int end;
+
+		IntList(int[] values, int start, int end) {
+			this.values = values;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Integer get(int index) {
+			if (index < 0 || index >= this.end - this.start) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+			}
+			return this.values[this.start + index];
+		}
+
+		@Override
+		public int size() {
+			return this.end - this.start;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bidirectional dictionary between names (user, resource, tag or category strings) and dense IDs 0..size-1.
+ * Both directions are O(1). Lookups never lock and can run concurrently to add, which is synchronized - an ID is
+ * only handed out to readers after its name is visible.
+ */
+public class IdDictionary {
+
+	private final ConcurrentHashMap<String, Integer> ids;
+	private volatile String[] names;
+	private volatile int size;
+	private final List<String> listView;
+
+	public IdDictionary() {
+		this(16);
+	}
+
+	public IdDictionary(int capacity) {
+		this.ids = new ConcurrentHashMap<String, Integer>(Math.max(capacity, 16));
+		this.names = new String[Math.max(capacity, 16)];
+		this.size = 0;
+		this.listView = new ListView();
+	}
+
+	public IdDictionary(List<String> names) {
+		this(names.size());
+		for (String name : names) {
+			add(name);
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the ID of the name or -1 if it is unknown.
+	 */
+	public int getID(String name) {
+		Integer id = (name != null ? this.ids.get(name) : null);
+		return (id != null ? id.intValue() : -1);
+	}
+
+	public boolean contains(String name) {
+		return getID(name) != -1;
+	}
+
+	public String getName(int id) {
+		if (id < 0 || id >= this.size) {
+			throw new IndexOutOfBoundsException("ID: " + id + ", size: " + this.size);
+		}
+		return this.names[id];
+	}
+
+	/**
+	 * Returns the ID of the name - a new one if the name is not contained yet.
+	 */
+	public int add(String name) {
+		Integer id = this.ids.get(name);
+		if (id != null) {
+			return id.intValue();
+		}
+		synchronized (this) {
+			id = this.ids.get(name);
+			if (id != null) {
+				return id.intValue();
+			}
+			int newID = this.size;
+			String[] newNames = this.names;
+			if (newID == newNames.length) {
+				newNames = Arrays.copyOf(newNames, newID + (newID >> 1));
+			}
+			newNames[newID] = name;
+			this.names = newNames;
+			this.size = newID + 1;
+			this.ids.put(name, newID);
+			return newID;
+		}
+	}
+
+	/**
+	 * Returns a read-only list view of the names by ID, its indexOf and contains are hash lookups.
+	 */
+	public List<String> asList() {
+		return this.listView;
+	}
+
+	private class ListView extends AbstractList<String> implements RandomAccess {
+
+		@Override
+		public String get(int index) {
+			return getName(index);
+		}
+
+		@Override
+		public int size() {
+			return IdDictionary.this.size;
+		}
+
+		@Override
+		public int indexOf(Object o) {
+			return (o instanceof String ? getID((String)o) : -1);
+		}
+
+		@Override
+		public int lastIndexOf(Object o) {
+			return indexOf(o);
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return indexOf(o) != -1;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * MinHash/LSH index over the feature sets of profiles (e.g., the tags of the users or resources) for finding
+ * approximately the k candidates most similar to a target profile. Every profile gets bands * rows MinHash values,
+ * the rows of a band are hashed into one bucket key per band. Candidates sharing a bucket with the target in at least
+ * one band are scored exactly with the functions of Utilities.getNeighbors, the others get a similarity of 0. A
+ * candidate with a Jaccard similarity of J is found with a probability of 1 - (1 - J^rows)^bands, so more bands raise
+ * the recall and more rows the precision (and speed). The result has the shape of ProfileIndex.getMostSimilar. The
+ * index is immutable and can be searched concurrently.
+ */
+public class MinHashIndex {
+
+	private final static long SEED = 42L;
+
+	private final List<Map<Integer, Double>> profiles;
+	private final Similarity sim;
+	private final int bands;
+	private final int rows;
+	private final long[] seeds;
+	// the candidates in the given order and the position of every profile in it (or -1)
+	private final int[] candidates;
+	private final int[] positions;
+	// the positions in bucket i of band b are bucketMembers[b][bucketOffsets[b][i], bucketOffsets[b][i + 1]), sorted by key
+	private final long[][] bucketKeys;
+	private final int[][] bucketOffsets;
+	private final int[][] bucketMembers;
+
+	private final ThreadLocal<Searcher> searcher = new ThreadLocal<Searcher>() {
+		@Override
+		protected Searcher initialValue() {
+			return new Searcher();
+		}
+	};
+
+	public MinHashIndex(List<Map<Integer, Double>> profiles, Collection<Integer> candidates, Similarity sim, int bands, int rows) {
+		if (bands <= 0 || rows <= 0) {
+			throw new IllegalArgumentException("bands and rows must be positive: " + bands + ", " + rows);
+		}
+		this.profiles = profiles;
+		this.sim = sim;
+		this.bands = bands;
+		this.rows = rows;
+		this.seeds = new long[bands * rows];
+		Random random = new Random(SEED);
+		for (int i = 0; i < this.seeds.length; i++) {
+			this.seeds[i] = random.nextLong();
+		}
+		this.candidates = new int[candidates.size()];
+		int maxID = profiles.size() - 1;
+		int pos = 0;
+		for (Integer id : candidates) {
+			this.candidates[pos++] = id;
+			maxID = Math.max(maxID, id);
+		}
+		this.positions = new int[maxID + 1];
+		Arrays.fill(this.positions, -1);
+		for (pos = 0; pos < this.candidates.length; pos++) {
+			this.positions[this.candidates[pos]] = pos;
+		}
+
+		// the band keys of all candidates with features
+		long[][] keys = new long[bands][this.candidates.length];
+		boolean[] hashed = new boolean[this.candidates.length];
+		int hashedCount = 0;
+		long[] minHashes = new long[this.seeds.length];
+		long[] bandKeys = new long[bands];
+		for (pos = 0; pos < this.candidates.length; pos++) {
+			int id = this.candidates[pos];
+			Map<Integer, Double> profile = (id < profiles.size() ? profiles.get(id) : null);
+			if (getBandKeys(profile, minHashes, bandKeys)) {
+				hashed[pos] = true;
+				hashedCount++;
+				for (int b = 0; b < bands; b++) {
+					keys[b][pos] = bandKeys[b];
+				}
+			}
+		}
+		this.bucketKeys = new long[bands][];
+		this.bucketOffsets = new int[bands][];
+		this.bucketMembers = new int[bands][];
+		for (int b = 0; b < bands; b++) {
+			long[] sortedKeys = new long[hashedCount];
+			int i = 0;
+			for (pos = 0; pos < this.candidates.length; pos++) {
+				if (hashed[pos]) {
+					sortedKeys[i++] = keys[b][pos];
+				}
+			}
+			Arrays.sort(sortedKeys);
+			int bucketCount = 0;
+			for (i = 0; i < hashedCount; i++) {
+				if (i == 0 || sortedKeys[i] != sortedKeys[i - 1]) {
+					sortedKeys[bucketCount++] = sortedKeys[i];
+				}
+			}
+			long[] uniqueKeys = Arrays.copyOf(sortedKeys, bucketCount);
+			int[] offsets = new int[bucketCount + 1];
+			for (pos = 0; pos < this.candidates.length; pos++) {
+				if (hashed[pos]) {
+					offsets[Arrays.binarySearch(uniqueKeys, keys[b][pos]) + 1]++;
+				}
+			}
+			for (i = 0; i < bucketCount; i++) {
+				offsets[i + 1] += offsets[i];
+			}
+			int[] next = Arrays.copyOf(offsets, bucketCount);
+			int[] members = new int[hashedCount];
+			for (pos = 0; pos < this.candidates.length; pos++) {
+				if (hashed[pos]) {
+					members[next[Arrays.binarySearch(uniqueKeys, keys[b][pos])]++] = pos;
+				}
+			}
+			this.bucketKeys[b] = uniqueKeys;
+			this.bucketOffsets[b] = offsets;
+			this.bucketMembers[b] = members;
+			keys[b] = null;
+		}
+	}
+
+	public int size() {
+		return this.profiles.size();
+	}
+
+	public int getCandidateCount() {
+		return this.candidates.length;
+	}
+
+	public int getBands() {
+		return this.bands;
+	}
+
+	public int getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Writes the k candidates most similar to the target (as far as found) with their similarities in descending order
+	 * to the given arrays (of at least k elements) and returns their number. The excluded candidates (may be null) get 0.
+	 */
+	public int search(Map<Integer, Double> target, Collection<Integer> excluded, int k, int[] ids, double[] scores) {
+		return this.searcher.get().search(target, excluded, k, ids, scores);
+	}
+
+	/**
+	 * Returns the k candidates most similar to the target (as far as found) with their similarities in descending order.
+	 */
+	public Map<Integer, Double> getMostSimilar(Map<Integer, Double> target, Collection<Integer> excluded, int k) {
+		k = Math.min(Math.max(k, 0), this.candidates.length);
+		int[] ids = new int[k];
+		double[] scores = new double[k];
+		int count = search(target, excluded, k, ids, scores);
+		Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>(count * 2);
+		for (int i = 0; i < count; i++) {
+			resultMap.put(ids[i], scores[i]);
+		}
+		return resultMap;
+	}
+
+	/**
+	 * Returns the number of candidates sharing a bucket with the target, i.e., the ones scored exactly by a search.
+	 */
+	public int getBucketCandidateCount(Map<Integer, Double> target) {
+		return this.searcher.get().collect(target);
+	}
+
+	/**
+	 * Approximate number of bytes the index occupies on the heap (without the profiles).
+	 */
+	public long getMemoryUsage() {
+		long bytes = 64 + (16 + 8L * this.seeds.length) + (16 + 4L * this.candidates.length) + (16 + 4L * this.positions.length);
+		for (int b = 0; b < this.bands; b++) {
+			bytes += (16 + 8L * this.bucketKeys[b].length) + (16 + 4L * this.bucketOffsets[b].length) + (16 + 4L * this.bucketMembers[b].length);
+		}
+		return bytes;
+	}
+
+	// computes the band keys of the profile - false if it has no features
+	private boolean getBandKeys(Map<Integer, Double> profile, long[] minHashes, long[] bandKeys) {
+		if (profile == null || profile.isEmpty()) {
+			return false;
+		}
+		Arrays.fill(minHashes, Long.MAX_VALUE);
+		for (Integer feature : profile.keySet()) {
+			for (int i = 0; i < this.seeds.length; i++) {
+				long hash = mix(feature.longValue() ^ this.seeds[i]);
+				if (hash < minHashes[i]) {
+					minHashes[i] = hash;
+				}
+			}
+		}
+		for (int b = 0; b < this.bands; b++) {
+			long key = 0L;
+			for (int r = 0; r < this.rows; r++) {
+				key = mix(key ^ minHashes[b * this.rows + r]);
+			}
+			bandKeys[b] = key;
+		}
+		return true;
+	}
+
+	// the finalizer of MurmurHash3 - spreads the bits of the value over the whole hash
+	private static long mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+		value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return value ^ (value >>> 33);
+	}
+
+	// per-thread state of a search - the candidates found are marked with the current generation
+	private class Searcher {
+
+		private final int[] marks = new int[candidates.length];
+		private final int[] excludedMarks = new int[candidates.length];
+		private final int[] found = new int[candidates.length];
+		private final long[] minHashes = new long[seeds.length];
+		private final long[] bandKeys = new long[bands];
+		private int generation = 0;
+		private TopKSelector selector = new TopKSelector(0);
+
+		private int nextGeneration() {
+			if (this.generation == Integer.MAX_VALUE) {
+				Arrays.fill(this.marks, 0);
+				Arrays.fill(this.excludedMarks, 0);
+				this.generation = 0;
+			}
+			return ++this.generation;
+		}
+
+		// marks the candidates sharing a bucket with the target and returns their number
+		int collect(Map<Integer, Double> target) {
+			int generation = nextGeneration();
+			if (!getBandKeys(target, this.minHashes, this.bandKeys)) {
+				return 0;
+			}
+			int foundCount = 0;
+			for (int b = 0; b < bands; b++) {
+				int bucket = Arrays.binarySearch(bucketKeys[b], this.bandKeys[b]);
+				if (bucket < 0) {
+					continue;
+				}
+				int[] members = bucketMembers[b];
+				for (int i = bucketOffsets[b][bucket]; i < bucketOffsets[b][bucket + 1]; i++) {
+					int pos = members[i];
+					if (this.marks[pos] != generation) {
+						this.marks[pos] = generation;
+						this.found[foundCount++] = pos;
+					}
+				}
+			}
+			return foundCount;
+		}
+
+		int search(Map<Integer, Double> target, Collection<Integer> excluded, int k, int[] ids, double[] scores) {
+			int n = candidates.length;
+			int foundCount = collect(target);
+			int generation = this.generation;
+			if (this.selector.getLimit() != k) {
+				this.selector = new TopKSelector(k);
+			}
+			this.selector.clear();
+			if (excluded != null) {
+				for (Integer id : excluded) {
+					if (id >= 0 && id < positions.length && positions[id] != -1) {
+						this.excludedMarks[positions[id]] = generation;
+					}
+				}
+			}
+			if (k > 0) {
+				// the candidates found are re-ranked exactly
+				for (int i = 0; i < foundCount; i++) {
+					int pos = this.found[i];
+					if (this.excludedMarks[pos] != generation) {
+						this.selector.offer(n - 1 - pos, getSimilarity(target, candidates[pos]));
+					}
+				}
+			}
+			// the best candidates with a similarity of 0 are the last ones
+			int zeros = 0;
+			for (int pos = n - 1; pos >= 0 && zeros < k; pos--) {
+				if (this.marks[pos] != generation || this.excludedMarks[pos] == generation) {
+					this.selector.offer(n - 1 - pos, 0.0);
+					zeros++;
+				}
+			}
+			int count = this.selector.getSorted(ids, scores);
+			for (int i = 0; i < count; i++) {
+				ids[i] = candidates[n - 1 - ids[i]];
+			}
+			return count;
+		}
+
+		// the same values as in Utilities.getNeighbors
+		private double getSimilarity(Map<Integer, Double> target, int id) {
+			Map<Integer, Double> profile = profiles.get(id);
+			double value = (sim == Similarity.JACCARD ? Utilities.getJaccardFloatSim(target, profile) : Utilities.getCosineFloatSim(target, profile));
+			return (Double.isInfinite(value) || Double.isNaN(value) ? 0.0 : value);
+		}
+	}
+}
@@ -0,0 +1,434 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted feature -> (profile, weight) index over profiles (e.g., the tag maps of the users) for finding the k
+ * candidates most similar to a target profile. Only the postings of the target's features are touched, so
+ * candidates without a shared feature cost nothing. The postings are scanned term-at-a-time with MaxScore pruning:
+ * once the features left cannot lift a new candidate above the k-th best partial score, the rest is only looked up
+ * for the candidates that can still make it. The survivors are scored with the same functions as
+ * Utilities.getNeighbors, so the result equals the first k entries of a full pass sorted with DoubleMapComparator:
+ * the candidates in the order given (equal similarities go to the later one) with a similarity of 0 for excluded
+ * candidates and those without a shared feature. NaN and infinite similarities count as 0. Pruning needs
+ * non-negative weights and is switched off for cosine otherwise. The index is immutable and can be searched
+ * concurrently; features have to be non-negative.
+ */
+public class ProfileIndex {
+
+	// margin for the differences between the accumulated and the exactly computed cosine similarities
+	private final static double EPSILON = 1e-9;
+	// a lookup (binary search) or a threshold update per candidate costs about as much as scanning this many postings
+	private final static int COST_FACTOR = 4;
+	// the threshold of the essential terms is taken over this many candidates per result (touched first) at most -
+	// the k-th best of a sample is a lower bound of the k-th best of all
+	private final static int SAMPLE_FACTOR = 16;
+
+	private final List<Map<Integer, Double>> profiles;
+	private final Similarity sim;
+	private final boolean pruning;
+	// the candidates in the given order and the position of every profile in it (or -1)
+	private final int[] candidates;
+	private final int[] positions;
+	// the features of profile p in ascending order are profileFeatures[profileOffsets[p], profileOffsets[p + 1]),
+	// with weights normalized to a length of 1 for cosine (1 for Jaccard)
+	private final int[] profileOffsets;
+	private final int[] profileFeatures;
+	private final double[] profileWeights;
+	// the profiles having feature f are postingIDs[featureOffsets[f], featureOffsets[f + 1]), maxWeights[f] is the highest weight
+	private final int[] featureOffsets;
+	private final int[] postingIDs;
+	private final double[] postingWeights;
+	private final double[] maxWeights;
+	
+	private final ThreadLocal<Searcher> searcher = new ThreadLocal<Searcher>() {
+		@Override
+		protected Searcher initialValue() {
+			return new Searcher();
+		}
+	};
+
+	public ProfileIndex(List<Map<Integer, Double>> profiles, Collection<Integer> candidates, Similarity sim) {
+		this.profiles = profiles;
+		this.sim = sim;
+		int profileCount = profiles.size();
+		this.candidates = new int[candidates.size()];
+		int maxID = profileCount - 1;
+		int pos = 0;
+		for (Integer id : candidates) {
+			this.candidates[pos++] = id;
+			maxID = Math.max(maxID, id);
+		}
+		this.positions = new int[maxID + 1];
+		Arrays.fill(this.positions, -1);
+		for (pos = 0; pos < this.candidates.length; pos++) {
+			this.positions[this.candidates[pos]] = pos;
+		}
+
+		this.profileOffsets = new int[profileCount + 1];
+		for (int p = 0; p < profileCount; p++) {
+			this.profileOffsets[p + 1] = this.profileOffsets[p] + profiles.get(p).size();
+		}
+		this.profileFeatures = new int[this.profileOffsets[profileCount]];
+		this.profileWeights = new double[this.profileFeatures.length];
+		boolean negative = false;
+		int maxFeature = -1;
+		for (int p = 0; p < profileCount; p++) {
+			SparseVector profile = new SparseVector(profiles.get(p));
+			double norm = (sim == Similarity.JACCARD ? 0.0 : profile.norm());
+			int offset = this.profileOffsets[p];
+			for (int i = 0; i < profile.size(); i++) {
+				double weight = profile.getValueAt(i);
+				negative |= (weight < 0.0);
+				this.profileFeatures[offset + i] = profile.getKeyAt(i);
+				this.profileWeights[offset + i] = (sim == Similarity.JACCARD ? 1.0 : (norm > 0.0 ? weight / norm : 0.0));
+				maxFeature = Math.max(maxFeature, profile.getKeyAt(i));
+			}
+		}
+		this.pruning = (sim == Similarity.JACCARD || !negative);
+
+		this.featureOffsets = new int[maxFeature + 2];
+		for (int feature : this.profileFeatures) {
+			this.featureOffsets[feature + 1]++;
+		}
+		for (int f = 0; f <= maxFeature; f++) {
+			this.featureOffsets[f + 1] += this.featureOffsets[f];
+		}
+		int[] next = Arrays.copyOf(this.featureOffsets, maxFeature + 1);
+		this.postingIDs = new int[this.profileFeatures.length];
+		this.postingWeights = new double[this.profileFeatures.length];
+		this.maxWeights = new double[maxFeature + 1];
+		for (int p = 0; p < profileCount; p++) {
+			for (int i = this.profileOffsets[p]; i < this.profileOffsets[p + 1]; i++) {
+				int feature = this.profileFeatures[i];
+				this.postingIDs[next[feature]] = p;
+				this.postingWeights[next[feature]++] = this.profileWeights[i];
+				this.maxWeights[feature] = Math.max(this.maxWeights[feature], this.profileWeights[i]);
+			}
+		}
+	}
+
+	public int size() {
+		return this.profiles.size();
+	}
+
+	public int getCandidateCount() {
+		return this.candidates.length;
+	}
+
+	/**
+	 * Writes the k candidates most similar to the target with their similarities in descending order to the given
+	 * arrays (of at least k elements) and returns their number. The excluded candidates (may be null) get 0.
+	 */
+	public int search(Map<Integer, Double> target, Collection<Integer> excluded, int k, int[] ids, double[] scores) {
+		return this.searcher.get().search(target, excluded, k, ids, scores);
+	}
+
+	/**
+	 * Returns the k candidates most similar to the target with their similarities in descending order.
+	 */
+	public Map<Integer, Double> getMostSimilar(Map<Integer, Double> target, Collection<Integer> excluded, int k) {
+		k = Math.min(Math.max(k, 0), this.candidates.length);
+		int[] ids = new int[k];
+		double[] scores = new double[k];
+		int count = search(target, excluded, k, ids, scores);
+		Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>(count * 2);
+		for (int i = 0; i < count; i++) {
+			resultMap.put(ids[i], scores[i]);
+		}
+		return resultMap;
+	}
+
+	/**
+	 * Sets the marks of all profiles (candidates or not) sharing a feature with the given profile.
+	 */
+	public void markCoProfiles(int id, boolean[] marks) {
+		if (id < 0 || id >= this.profileOffsets.length - 1) {
+			return;
+		}
+		for (int i = this.profileOffsets[id]; i < this.profileOffsets[id + 1]; i++) {
+			int feature = this.profileFeatures[i];
+			for (int j = this.featureOffsets[feature]; j < this.featureOffsets[feature + 1]; j++) {
+				marks[this.postingIDs[j]] = true;
+			}
+		}
+	}
+
+	// the weight of the feature in the profile or 0
+	private double getWeight(int id, int feature) {
+		int index = Arrays.binarySearch(this.profileFeatures, this.profileOffsets[id], this.profileOffsets[id + 1], feature);
+		return (index >= 0 ? this.profileWeights[index] : 0.0);
+	}
+
+	private int getProfileSize(int id) {
+		return this.profileOffsets[id + 1] - this.profileOffsets[id];
+	}
+
+	/**
+	 * Approximate number of bytes the index occupies on the heap (without the profiles).
+	 */
+	public long getMemoryUsage() {
+		return 64 + (16 + 4L * this.candidates.length) + (16 + 4L * this.positions.length)
+				+ (16 + 4L * this.profileOffsets.length) + (16 + 4L * this.profileFeatures.length) + (16 + 8L * this.profileWeights.length)
+				+ (16 + 4L * this.featureOffsets.length) + (16 + 4L * this.postingIDs.length) + (16 + 8L * this.postingWeights.length)
+				+ (16 + 8L * this.maxWeights.length);
+	}
+
+	// per-thread state of a search - the candidates touched are marked with the current generation
+	private class Searcher {
+
+		private final int[] marks = new int[candidates.length];
+		private final int[] excludedMarks = new int[candidates.length];
+		private final int[] liveMarks = new int[candidates.length];
+		private final double[] accumulators = new double[candidates.length];
+		private final int[] touched = new int[candidates.length];
+		private int generation = 0;
+		// the features of the target, their query weights and upper bounds in the order they are processed
+		private int[] terms = new int[16];
+		private double[] queryWeights = new double[16];
+		private double[] bounds = new double[16];
+		private double[] rest = new double[17];
+		private long[] restPostings = new long[17];
+		private TopKSelector selector = new TopKSelector(0);
+		private TopKSelector thresholdSelector = new TopKSelector(0);
+		private int[] thresholdIDs = new int[0];
+		private double[] thresholdScores = new double[0];
+
+		int search(Map<Integer, Double> target, Collection<Integer> excluded, int k, int[] ids, double[] scores) {
+			int n = candidates.length;
+			if (this.generation == Integer.MAX_VALUE) {
+				Arrays.fill(this.marks, 0);
+				Arrays.fill(this.excludedMarks, 0);
+				Arrays.fill(this.liveMarks, 0);
+				this.generation = 0;
+			}
+			int generation = ++this.generation;
+			if (this.selector.getLimit() != k) {
+				this.selector = new TopKSelector(k);
+				this.thresholdSelector = new TopKSelector(k);
+				this.thresholdIDs = new int[k];
+				this.thresholdScores = new double[k];
+			}
+			this.selector.clear();
+			if (excluded != null) {
+				for (Integer id : excluded) {
+					if (id >= 0 && id < positions.length && positions[id] != -1) {
+						this.excludedMarks[positions[id]] = generation;
+					}
+				}
+			}
+
+			int touchedCount = 0;
+			int termCount = (target != null ? prepareTerms(target) : 0);
+			if (termCount > 0 && k > 0) {
+				int targetSize = target.size();
+				// essential terms: scanned completely as long as a new candidate can still reach the threshold. The
+				// threshold costs a pass over a sample of the candidates, so it is only raised if the postings left cost
+				// more, the best accumulated score could exceed the bound and the gap to the bound has halved since the last try
+				int sampleLimit = Math.max(SAMPLE_FACTOR * k, 1024);
+				double threshold = Double.NEGATIVE_INFINITY;
+				double nextTry = Double.POSITIVE_INFINITY;
+				double maxScore = 0.0;
+				int t = 0;
+				for (; t < termCount; t++) {
+					int sample = Math.min(touchedCount, sampleLimit);
+					if (pruning && touchedCount >= k && this.restPostings[t] > COST_FACTOR * sample) {
+						double newBound = (sim == Similarity.JACCARD ? this.rest[t] / targetSize : this.rest[t]);
+						double maxLowerBound = (sim == Similarity.JACCARD ? maxScore / targetSize : maxScore);
+						if (newBound < maxLowerBound - EPSILON && newBound < nextTry) {
+							threshold = Math.max(threshold, getThreshold(sample, targetSize, k));
+							nextTry = threshold + (newBound - threshold) / 2.0;
+						}
+						if (newBound < threshold - EPSILON) {
+							break;
+						}
+					}
+					int feature = this.terms[t];
+					double queryWeight = this.queryWeights[t];
+					for (int j = featureOffsets[feature]; j < featureOffsets[feature + 1]; j++) {
+						int id = postingIDs[j];
+						int pos = (id < positions.length ? positions[id] : -1);
+						if (pos == -1 || this.excludedMarks[pos] == generation) {
+							continue;
+						}
+						if (this.marks[pos] != generation) {
+							this.marks[pos] = generation;
+							this.accumulators[pos] = 0.0;
+							this.touched[touchedCount++] = pos;
+						}
+						double score = (this.accumulators[pos] += queryWeight * postingWeights[j]);
+						if (score > maxScore) {
+							maxScore = score;
+						}
+					}
+				}
+				// non-essential terms: only added for the candidates that can still reach the threshold, by a scan of the
+				// posting or by a lookup per candidate - whatever is shorter
+				int live = touchedCount;
+				if (t < termCount) {
+					live = 0;
+					for (int i = 0; i < touchedCount; i++) {
+						int pos = this.touched[i];
+						double upperBound = (sim == Similarity.JACCARD ?
+								(this.accumulators[pos] + this.rest[t]) / Math.max(targetSize, getProfileSize(candidates[pos])) : this.accumulators[pos] + this.rest[t]);
+						if (upperBound >= threshold - EPSILON) {
+							this.liveMarks[pos] = generation;
+							this.touched[live++] = pos;
+						}
+					}
+					for (int r = t; r < termCount; r++) {
+						int feature = this.terms[r];
+						double queryWeight = this.queryWeights[r];
+						if (featureOffsets[feature + 1] - featureOffsets[feature] <= COST_FACTOR * live) {
+							for (int j = featureOffsets[feature]; j < featureOffsets[feature + 1]; j++) {
+								int id = postingIDs[j];
+								int pos = (id < positions.length ? positions[id] : -1);
+								if (pos != -1 && this.liveMarks[pos] == generation) {
+									this.accumulators[pos] += queryWeight * postingWeights[j];
+								}
+							}
+						} else {
+							for (int i = 0; i < live; i++) {
+								int pos = this.touched[i];
+								this.accumulators[pos] += queryWeight * getWeight(candidates[pos], feature);
+							}
+						}
+					}
+				}
+				// the candidates within the margin of the k-th best are scored exactly
+				double finalThreshold = getThreshold(live, targetSize, k);
+				for (int i = 0; i < live; i++) {
+					int pos = this.touched[i];
+					if (getScore(pos, targetSize) >= finalThreshold - EPSILON) {
+						this.selector.offer(n - 1 - pos, getSimilarity(target, pos, targetSize));
+					}
+				}
+			}
+			// the best candidates with a similarity of 0 are the last ones
+			int zeros = 0;
+			for (int pos = n - 1; pos >= 0 && zeros < k; pos--) {
+				if (this.marks[pos] != generation || this.excludedMarks[pos] == generation) {
+					this.selector.offer(n - 1 - pos, 0.0);
+					zeros++;
+				}
+			}
+			int count = this.selector.getSorted(ids, scores);
+			for (int i = 0; i < count; i++) {
+				ids[i] = candidates[n - 1 - ids[i]];
+			}
+			return count;
+		}
+
+		// collects the target's features known to the index - ordered by upper bound (cosine) or posting length (Jaccard)
+		private int prepareTerms(Map<Integer, Double> target) {
+			int termCount = 0;
+			double norm = 0.0;
+			for (Map.Entry<Integer, Double> entry : target.entrySet()) {
+				double weight = entry.getValue().doubleValue();
+				norm += weight * weight;
+				int feature = entry.getKey().intValue();
+				if (feature < 0 || feature >= maxWeights.length || featureOffsets[feature] == featureOffsets[feature + 1]) {
+					continue;
+				}
+				if (termCount == this.terms.length) {
+					this.terms = Arrays.copyOf(this.terms, termCount * 2);
+					this.queryWeights = Arrays.copyOf(this.queryWeights, termCount * 2);
+					this.bounds = Arrays.copyOf(this.bounds, termCount * 2);
+					this.rest = Arrays.copyOf(this.rest, termCount * 2 + 1);
+					this.restPostings = Arrays.copyOf(this.restPostings, termCount * 2 + 1);
+				}
+				this.terms[termCount] = feature;
+				this.queryWeights[termCount++] = weight;
+			}
+			norm = Math.sqrt(norm);
+			for (int t = 0; t < termCount; t++) {
+				if (sim == Similarity.JACCARD) {
+					this.queryWeights[t] = 1.0;
+					this.bounds[t] = -(featureOffsets[this.terms[t] + 1] - featureOffsets[this.terms[t]]);
+				} else {
+					this.queryWeights[t] = (norm > 0.0 ? this.queryWeights[t] / norm : 0.0);
+					this.bounds[t] = this.queryWeights[t] * maxWeights[this.terms[t]];
+				}
+			}
+			// insertion sort by descending bounds
+			for (int t = 1; t < termCount; t++) {
+				int term = this.terms[t];
+				double queryWeight = this.queryWeights[t];
+				double bound = this.bounds[t];
+				int s = t - 1;
+				while (s >= 0 && this.bounds[s] < bound) {
+					this.terms[s + 1] = this.terms[s];
+					this.queryWeights[s + 1] = this.queryWeights[s];
+					this.bounds[s + 1] = this.bounds[s];
+					s--;
+				}
+				this.terms[s + 1] = term;
+				this.queryWeights[s + 1] = queryWeight;
+				this.bounds[s + 1] = bound;
+			}
+			this.rest[termCount] = 0.0;
+			this.restPostings[termCount] = 0;
+			for (int t = termCount - 1; t >= 0; t--) {
+				if (sim == Similarity.JACCARD) {
+					this.bounds[t] = 1.0;
+				}
+				this.rest[t] = this.rest[t + 1] + this.bounds[t];
+				this.restPostings[t] = this.restPostings[t + 1] + featureOffsets[this.terms[t] + 1] - featureOffsets[this.terms[t]];
+			}
+			return termCount;
+		}
+
+		// the accumulated similarity - a lower bound while terms are missing
+		private double getScore(int pos, int targetSize) {
+			if (sim == Similarity.JACCARD) {
+				double shared = this.accumulators[pos];
+				return shared / (targetSize + getProfileSize(candidates[pos]) - shared);
+			}
+			return this.accumulators[pos];
+		}
+
+		// the k-th best score of the first candidates touched or -infinity if there are less than k
+		private double getThreshold(int touchedCount, int targetSize, int k) {
+			if (touchedCount < k) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			this.thresholdSelector.clear();
+			for (int i = 0; i < touchedCount; i++) {
+				this.thresholdSelector.offer(i, getScore(this.touched[i], targetSize));
+			}
+			this.thresholdSelector.getSorted(this.thresholdIDs, this.thresholdScores);
+			return this.thresholdScores[k - 1];
+		}
+
+		// the same values as in Utilities.getNeighbors - Jaccard is exact on the shared feature count
+		private double getSimilarity(Map<Integer, Double> target, int pos, int targetSize) {
+			double value = (sim == Similarity.JACCARD ? (double)(int)this.accumulators[pos] / (double)(targetSize + getProfileSize(candidates[pos]) - (int)this.accumulators[pos])
+					: Utilities.getCosineFloatSim(target, profiles.get(candidates[pos])));
+			return (Double.isInfinite(value) || Double.isNaN(value) ? 0.0 : value);
+		}
+	}
+}
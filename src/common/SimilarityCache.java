@@ -0,0 +1,195 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the similarities of profile pairs (e.g., resource to resource) that are computed again and again
+ * for different users. A pair is keyed by its two IDs packed into a long, the smaller ID first, and its similarity is
+ * always computed in that order, so the values do not depend on the order of the call or on the cache's state. The
+ * entries are spread over segments with a lock and an LRU order each, so concurrent lookups rarely wait on each other.
+ * A capacity of 0 disables the cache: the similarities are then computed on every call. The default capacity applies
+ * to the calculators using the cache and is a process-wide setting like the DatasetCache.
+ */
+public class SimilarityCache {
+
+	public final static int DEFAULT_CAPACITY = 1 << 18;
+	private final static int SEGMENTS = 16;
+
+	private static volatile int defaultCapacity = DEFAULT_CAPACITY;
+
+	private final Similarity sim;
+	private final Segment[] segments;
+
+	public SimilarityCache(Similarity sim) {
+		this(sim, defaultCapacity);
+	}
+
+	public SimilarityCache(Similarity sim, int capacity) {
+		this.sim = sim;
+		if (capacity > 0) {
+			this.segments = new Segment[SEGMENTS];
+			for (int i = 0; i < SEGMENTS; i++) {
+				this.segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS);
+			}
+		} else {
+			this.segments = null;
+		}
+	}
+
+	public static int getDefaultCapacity() {
+		return defaultCapacity;
+	}
+
+	/**
+	 * Sets the capacity of the caches created afterwards - 0 disables them.
+	 */
+	public static void setDefaultCapacity(int capacity) {
+		defaultCapacity = Math.max(capacity, 0);
+	}
+
+	/**
+	 * Returns the similarity of the profiles of the two IDs (cosine for all measures but JACCARD, NaN for empty ones).
+	 */
+	public double getSimilarity(int id1, Map<Integer, Double> profile1, int id2, Map<Integer, Double> profile2) {
+		if (id1 > id2) {
+			return getSimilarity(id2, profile2, id1, profile1);
+		}
+		if (this.segments == null) {
+			return computeSimilarity(profile1, profile2);
+		}
+		long key = ((long)id1 << 32) | (id2 & 0xFFFFFFFFL);
+		Segment segment = this.segments[(int)((key * 0x9E3779B97F4A7C15L) >>> 60)];
+		Double value;
+		synchronized (segment) {
+			value = segment.get(key);
+			if (value != null) {
+				segment.hits++;
+			} else {
+				segment.misses++;
+			}
+		}
+		if (value == null) {
+			value = computeSimilarity(profile1, profile2);
+			synchronized (segment) {
+				segment.put(key, value);
+			}
+		}
+		return value.doubleValue();
+	}
+
+	private double computeSimilarity(Map<Integer, Double> profile1, Map<Integer, Double> profile2) {
+		return (this.sim == Similarity.JACCARD ? Utilities.getJaccardFloatSim(profile1, profile2) : Utilities.getCosineFloatSim(profile1, profile2));
+	}
+
+	public boolean isEnabled() {
+		return this.segments != null;
+	}
+
+	public int size() {
+		int size = 0;
+		if (this.segments != null) {
+			for (Segment segment : this.segments) {
+				synchronized (segment) {
+					size += segment.size();
+				}
+			}
+		}
+		return size;
+	}
+
+	public long getHitCount() {
+		long hits = 0;
+		if (this.segments != null) {
+			for (Segment segment : this.segments) {
+				synchronized (segment) {
+					hits += segment.hits;
+				}
+			}
+		}
+		return hits;
+	}
+
+	public long getMissCount() {
+		long misses = 0;
+		if (this.segments != null) {
+			for (Segment segment : this.segments) {
+				synchronized (segment) {
+					misses += segment.misses;
+				}
+			}
+		}
+		return misses;
+	}
+
+	/**
+	 * Returns the share of the lookups answered from the cache (0 if there were none).
+	 */
+	public double getHitRate() {
+		long hits = getHitCount();
+		long lookups = hits + getMissCount();
+		return (lookups > 0 ? (double)hits / lookups : 0.0);
+	}
+
+	/**
+	 * Returns the size and hit rate for the logs.
+	 */
+	public String getStatistics() {
+		if (this.segments == null) {
+			return "disabled";
+		}
+		return size() + " pairs, " + getHitCount() + " hits, " + getMissCount() + " misses (hit rate " + getHitRate() + ")";
+	}
+
+	public void clear() {
+		if (this.segments != null) {
+			for (Segment segment : this.segments) {
+				synchronized (segment) {
+					segment.clear();
+					segment.hits = 0;
+					segment.misses = 0;
+				}
+			}
+		}
+	}
+
+	// the entries of a segment in access order - the least recently used one is dropped beyond the capacity
+	private static class Segment extends LinkedHashMap<Long, Double> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+		private long hits = 0;
+		private long misses = 0;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Double> eldest) {
+			return size() > this.capacity;
+		}
+	}
+}
@@ -0,0 +1,438 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact int -> double vector used for user and resource profiles (e.g., tag -> weight).
+ * The keys are stored sorted in an int array with the values in a parallel double array, which takes 12 bytes per
+ * entry instead of the boxed keys, values and nodes of a LinkedHashMap. The primitive methods (getKeyAt, getValueAt,
+ * add, dot, norm, ...) should be used in hot paths, the Map view only exists to keep the map based code working.
+ * Iteration is in ascending key order. Adding a new key costs O(size), so build large vectors from a map instead.
+ * The squared norm is cached until the next modification, so cosine and Jaccard similarities (cosine, jaccard) are a
+ * single merge pass over the sorted keys without allocations.
+ */
+public class SparseVector extends AbstractMap<Integer, Double> {
+
+	private int[] keys;
+	private double[] values;
+	private int size;
+	// the sum of the squared values or -1 if not computed since the last modification
+	private volatile double squaredNorm = -1.0;
+
+	public SparseVector() {
+		this(4);
+	}
+
+	public SparseVector(int capacity) {
+		this.keys = new int[Math.max(capacity, 1)];
+		this.values = new double[this.keys.length];
+		this.size = 0;
+	}
+
+	/**
+	 * Creates a vector from already sorted and distinct keys; the arrays are used directly, not copied (and must not be
+	 * changed afterwards).
+	 */
+	public SparseVector(int[] sortedKeys, double[] values, int size) {
+		this.keys = sortedKeys;
+		this.values = values;
+		this.size = size;
+	}
+
+	public SparseVector(Map<Integer, ? extends Number> map) {
+		this(map.size());
+		int i = 0;
+		for (Integer key : map.keySet()) {
+			this.keys[i++] = key.intValue();
+		}
+		Arrays.sort(this.keys, 0, i);
+		this.size = i;
+		for (i = 0; i < this.size; i++) {
+			Number val = map.get(this.keys[i]);
+			this.values[i] = (val != null ? val.doubleValue() : 0.0);
+		}
+	}
+
+	/**
+	 * Returns the given map as a sparse vector - the map itself if it already is one.
+	 */
+	public static SparseVector valueOf(Map<Integer, ? extends Number> map) {
+		if (map == null) {
+			return null;
+		}
+		if (map instanceof SparseVector) {
+			return (SparseVector)map;
+		}
+		return new SparseVector(map);
+	}
+
+	// Primitive access ---------------------------------------------------------------------------
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	public int getKeyAt(int index) {
+		return this.keys[index];
+	}
+
+	public double getValueAt(int index) {
+		return this.values[index];
+	}
+
+	public void setValueAt(int index, double value) {
+		this.values[index] = value;
+		this.squaredNorm = -1.0;
+	}
+
+	/**
+	 * Returns the position of the key or (-(insertion point) - 1) if it is not contained.
+	 */
+	public int indexOf(int key) {
+		return Arrays.binarySearch(this.keys, 0, this.size, key);
+	}
+
+	public double get(int key, double defaultValue) {
+		int index = indexOf(key);
+		return (index >= 0 ? this.values[index] : defaultValue);
+	}
+
+	public boolean contains(int key) {
+		return indexOf(key) >= 0;
+	}
+
+	public void set(int key, double value) {
+		int index = indexOf(key);
+		if (index >= 0) {
+			this.values[index] = value;
+			this.squaredNorm = -1.0;
+		} else {
+			insert(-index - 1, key, value);
+		}
+	}
+
+	/**
+	 * Adds the value to the entry of the key (the entry is created if it does not exist yet).
+	 */
+	public void add(int key, double value) {
+		int index = indexOf(key);
+		if (index >= 0) {
+			this.values[index] += value;
+			this.squaredNorm = -1.0;
+		} else {
+			insert(-index - 1, key, value);
+		}
+	}
+
+	private void insert(int index, int key, double value) {
+		if (this.size == this.keys.length) {
+			int capacity = Math.max(4, this.keys.length + (this.keys.length >> 1));
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+		System.arraycopy(this.keys, index, this.keys, index + 1, this.size - index);
+		System.arraycopy(this.values, index, this.values, index + 1, this.size - index);
+		this.keys[index] = key;
+		this.values[index] = value;
+		this.size++;
+		this.squaredNorm = -1.0;
+	}
+
+	private void removeAt(int index) {
+		System.arraycopy(this.keys, index + 1, this.keys, index, this.size - index - 1);
+		System.arraycopy(this.values, index + 1, this.values, index, this.size - index - 1);
+		this.size--;
+		this.squaredNorm = -1.0;
+	}
+
+	public void trimToSize() {
+		if (this.size < this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, this.size);
+			this.values = Arrays.copyOf(this.values, this.size);
+		}
+	}
+
+	public double sum() {
+		double sum = 0.0;
+		for (int i = 0; i < this.size; i++) {
+			sum += this.values[i];
+		}
+		return sum;
+	}
+
+	public double norm() {
+		return Math.sqrt(squaredNorm());
+	}
+
+	/**
+	 * Returns the sum of the squared values (cached).
+	 */
+	public double squaredNorm() {
+		double squaredNorm = this.squaredNorm;
+		if (squaredNorm < 0.0) {
+			squaredNorm = 0.0;
+			for (int i = 0; i < this.size; i++) {
+				squaredNorm += this.values[i] * this.values[i];
+			}
+			this.squaredNorm = squaredNorm;
+		}
+		return squaredNorm;
+	}
+
+	public void scale(double factor) {
+		for (int i = 0; i < this.size; i++) {
+			this.values[i] *= factor;
+		}
+		this.squaredNorm = -1.0;
+	}
+
+	public double dot(SparseVector other) {
+		double scalar = 0.0;
+		int i = 0, j = 0;
+		while (i < this.size && j < other.size) {
+			int key = this.keys[i], otherKey = other.keys[j];
+			if (key == otherKey) {
+				scalar += this.values[i++] * other.values[j++];
+			} else if (key < otherKey) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return scalar;
+	}
+
+	/**
+	 * Returns the number of keys both vectors contain.
+	 */
+	public int intersectionSize(SparseVector other) {
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < this.size && j < other.size) {
+			int key = this.keys[i], otherKey = other.keys[j];
+			if (key == otherKey) {
+				count++;
+				i++;
+				j++;
+			} else if (key < otherKey) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Same as Utilities.getCosineFloatSim (NaN if a vector has a norm of 0).
+	 */
+	public double cosine(SparseVector other) {
+		return dot(other) / Math.sqrt(squaredNorm() * other.squaredNorm());
+	}
+
+	/**
+	 * Same as Utilities.getJaccardFloatSim on the keys (NaN if both vectors are empty).
+	 */
+	public double jaccard(SparseVector other) {
+		int intersection = intersectionSize(other);
+		return (double)intersection / (double)(this.size + other.size - intersection);
+	}
+
+	/**
+	 * Returns a new vector holding weight * this + otherWeight * other.
+	 */
+	public SparseVector merge(SparseVector other, double weight, double otherWeight) {
+		SparseVector result = new SparseVector(this.size + other.size);
+		int i = 0, j = 0, n = 0;
+		while (i < this.size || j < other.size) {
+			int key = (i < this.size ? this.keys[i] : Integer.MAX_VALUE);
+			int otherKey = (j < other.size ? other.keys[j] : Integer.MAX_VALUE);
+			if (j >= other.size || (i < this.size && key < otherKey)) {
+				result.keys[n] = key;
+				result.values[n++] = weight * this.values[i++];
+			} else if (i >= this.size || otherKey < key) {
+				result.keys[n] = otherKey;
+				result.values[n++] = otherWeight * other.values[j++];
+			} else {
+				result.keys[n] = key;
+				result.values[n++] = weight * this.values[i++] + otherWeight * other.values[j++];
+			}
+		}
+		result.size = n;
+		return result;
+	}
+
+	public SparseVector copy() {
+		return new SparseVector(Arrays.copyOf(this.keys, this.size), Arrays.copyOf(this.values, this.size), this.size);
+	}
+
+	/**
+	 * Approximate number of bytes the vector occupies on the heap.
+	 */
+	public long getMemoryUsage() {
+		return 32 + (16 + 4L * this.keys.length) + (16 + 8L * this.values.length);
+	}
+
+	// Map view -----------------------------------------------------------------------------------
+
+	@Override
+	public Double get(Object key) {
+		if (key instanceof Integer) {
+			int index = indexOf(((Integer)key).intValue());
+			if (index >= 0) {
+				return this.values[index];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return (key instanceof Integer) && indexOf(((Integer)key).intValue()) >= 0;
+	}
+
+	@Override
+	public Double put(Integer key, Double value) {
+		int index = indexOf(key.intValue());
+		if (index >= 0) {
+			double oldValue = this.values[index];
+			this.values[index] = value.doubleValue();
+			this.squaredNorm = -1.0;
+			return oldValue;
+		}
+		insert(-index - 1, key.intValue(), value.doubleValue());
+		return null;
+	}
+
+	@Override
+	public Double remove(Object key) {
+		if (key instanceof Integer) {
+			int index = indexOf(((Integer)key).intValue());
+			if (index >= 0) {
+				double oldValue = this.values[index];
+				removeAt(index);
+				return oldValue;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void clear() {
+		this.size = 0;
+		this.squaredNorm = -1.0;
+	}
+
+	@Override
+	public Set<Map.Entry<Integer, Double>> entrySet() {
+		return new AbstractSet<Map.Entry<Integer, Double>>() {
+			@Override
+			public Iterator<Map.Entry<Integer, Double>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return SparseVector.this.size;
+			}
+		};
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<Integer, Double>> {
+
+		private int next = 0;
+		private int last = -1;
+
+		@Override
+		public boolean hasNext() {
+			return this.next < SparseVector.this.size;
+		}
+
+		@Override
+		public Map.Entry<Integer, Double> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			this.last = this.next++;
+			return new Entry(this.last);
+		}
+
+		@Override
+		public void remove() {
+			if (this.last < 0) {
+				throw new IllegalStateException();
+			}
+			removeAt(this.last);
+			this.next = this.last;
+			this.last = -1;
+		}
+	}
+
+	private class Entry implements Map.Entry<Integer, Double> {
+
+		private final int index;
+
+		private Entry(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Integer getKey() {
+			return SparseVector.this.keys[this.index];
+		}
+
+		@Override
+		public Double getValue() {
+			return SparseVector.this.values[this.index];
+		}
+
+		@Override
+		public Double setValue(Double value) {
+			double oldValue = SparseVector.this.values[this.index];
+			SparseVector.this.values[this.index] = value.doubleValue();
+			SparseVector.this.squaredNorm = -1.0;
+			return oldValue;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+			return getKey().equals(e.getKey()) && getValue().equals(e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ getValue().hashCode();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only store for many short texts (e.g., titles and descriptions of bookmarks). The texts are kept UTF-8
+ * encoded in large byte pages instead of one String object each, a text is decoded again on every get.
+ */
+public class TextRegion {
+
+	private final static Charset UTF_8 = Charset.forName("UTF-8");
+	private final static int PAGE_SIZE = 1 << 24;
+
+	private final List<byte[]> pages = new ArrayList<byte[]>();
+	private int pageSize = 0; // bytes used in the last page
+	private long[] offsets = new long[16]; // page index << 32 | offset within the page
+	private int[] lengths = new int[16];
+	private int size = 0;
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Appends the text and returns its index.
+	 */
+	public int add(String text) {
+		byte[] bytes = (text != null ? text.getBytes(UTF_8) : new byte[0]);
+		if (this.pages.isEmpty() || this.pageSize + bytes.length > this.pages.get(this.pages.size() - 1).length) {
+			this.pages.add(new byte[Math.max(PAGE_SIZE, bytes.length)]);
+			this.pageSize = 0;
+		}
+		if (this.size == this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+			this.lengths = Arrays.copyOf(this.lengths, this.size * 2);
+		}
+		System.arraycopy(bytes, 0, this.pages.get(this.pages.size() - 1), this.pageSize, bytes.length);
+		this.offsets[this.size] = ((long)(this.pages.size() - 1) << 32) | this.pageSize;
+		this.lengths[this.size] = bytes.length;
+		this.pageSize += bytes.length;
+		return this.size++;
+	}
+
+	public String get(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.size);
+		}
+		long offset = this.offsets[index];
+		return new String(this.pages.get((int)(offset >>> 32)), (int)offset, this.lengths[index], UTF_8);
+	}
+
+	/**
+	 * Approximate number of bytes the region occupies on the heap.
+	 */
+	public long getMemoryUsage() {
+		long bytes = 64 + (16 + 8L * this.offsets.length) + (16 + 4L * this.lengths.length);
+		for (byte[] page : this.pages) {
+			bytes += 16 + page.length;
+		}
+		return bytes;
+	}
+}
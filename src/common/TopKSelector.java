@@ -0,0 +1,185 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Selects the k best scored IDs out of a stream of (id, score) pairs.
+ * The candidates are kept in a primitive min-heap of size k, so a selection over n candidates costs O(n log k)
+ * and allocates nothing per candidate. Equal scores are ordered by the smaller ID, NaN scores rank last.
+ * An instance is not thread-safe but can be reused via clear().
+ */
+public class TopKSelector {
+
+	private final int k;
+	private final int[] ids;
+	private final double[] scores;
+	private int size;
+
+	public TopKSelector(int k) {
+		this.k = Math.max(k, 0);
+		this.ids = new int[this.k];
+		this.scores = new double[this.k];
+		this.size = 0;
+	}
+
+	public void clear() {
+		this.size = 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getLimit() {
+		return this.k;
+	}
+
+	public void offer(int id, double score) {
+		if (this.size < this.k) {
+			this.ids[this.size] = id;
+			this.scores[this.size] = score;
+			siftUp(this.ids, this.scores, this.size++);
+		} else if (this.k > 0 && isWorse(this.scores[0], this.ids[0], score, id)) {
+			this.ids[0] = id;
+			this.scores[0] = score;
+			siftDown(this.ids, this.scores, 0, this.size);
+		}
+	}
+
+	public void offerAll(Map<Integer, Double> map) {
+		for (Map.Entry<Integer, Double> entry : map.entrySet()) {
+			offer(entry.getKey().intValue(), entry.getValue().doubleValue());
+		}
+	}
+
+	/**
+	 * Returns the selected IDs from the best to the worst one; the selector itself is left untouched.
+	 */
+	public int[] getSortedIDs() {
+		int[] sortedIDs = new int[this.size];
+		sort(sortedIDs, null);
+		return sortedIDs;
+	}
+
+	/**
+	 * Writes the selected IDs and their scores in descending order to the given arrays (of at least size() elements)
+	 * and returns their number; the selector itself is left untouched.
+	 */
+	public int getSorted(int[] sortedIDs, double[] sortedScores) {
+		sort(sortedIDs, sortedScores);
+		return this.size;
+	}
+
+	/**
+	 * Returns the selected IDs with their scores in descending order; the selector itself is left untouched.
+	 */
+	public Map<Integer, Double> getSortedMap() {
+		int[] sortedIDs = new int[this.size];
+		double[] sortedScores = new double[this.size];
+		sort(sortedIDs, sortedScores);
+		Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>(this.size * 2);
+		for (int i = 0; i < sortedIDs.length; i++) {
+			resultMap.put(sortedIDs[i], sortedScores[i]);
+		}
+		return resultMap;
+	}
+
+	// heapsort on a copy of the heap - the worst element is always at the root
+	private void sort(int[] sortedIDs, double[] sortedScores) {
+		int[] heapIDs = new int[this.size];
+		double[] heapScores = new double[this.size];
+		System.arraycopy(this.ids, 0, heapIDs, 0, this.size);
+		System.arraycopy(this.scores, 0, heapScores, 0, this.size);
+		for (int n = this.size; n > 0; n--) {
+			sortedIDs[n - 1] = heapIDs[0];
+			if (sortedScores != null) {
+				sortedScores[n - 1] = heapScores[0];
+			}
+			heapIDs[0] = heapIDs[n - 1];
+			heapScores[0] = heapScores[n - 1];
+			siftDown(heapIDs, heapScores, 0, n - 1);
+		}
+	}
+
+	// Statics ----------------------------------------------------------------------------------
+
+	/**
+	 * Returns the k best entries of the given map in descending order of their values.
+	 */
+	public static Map<Integer, Double> select(Map<Integer, Double> map, int k) {
+		TopKSelector selector = new TopKSelector(Math.min(k, map.size()));
+		selector.offerAll(map);
+		return selector.getSortedMap();
+	}
+
+	/**
+	 * Returns true if (score1, id1) ranks behind (score2, id2).
+	 */
+	public static boolean isWorse(double score1, int id1, double score2, int id2) {
+		if (score1 != score2) {
+			if (Double.isNaN(score1)) {
+				return !Double.isNaN(score2) || id1 > id2;
+			}
+			return Double.isNaN(score2) ? false : score1 < score2;
+		}
+		return id1 > id2;
+	}
+
+	private static void siftUp(int[] ids, double[] scores, int pos) {
+		int id = ids[pos];
+		double score = scores[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!isWorse(score, id, scores[parent], ids[parent])) {
+				break;
+			}
+			ids[pos] = ids[parent];
+			scores[pos] = scores[parent];
+			pos = parent;
+		}
+		ids[pos] = id;
+		scores[pos] = score;
+	}
+
+	private static void siftDown(int[] ids, double[] scores, int pos, int size) {
+		int id = ids[pos];
+		double score = scores[pos];
+		int half = size >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < size && isWorse(scores[right], ids[right], scores[child], ids[child])) {
+				child = right;
+			}
+			if (!isWorse(scores[child], ids[child], score, id)) {
+				break;
+			}
+			ids[pos] = ids[child];
+			scores[pos] = scores[child];
+			pos = child;
+		}
+		ids[pos] = id;
+		scores[pos] = score;
+	}
+}
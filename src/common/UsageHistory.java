@@ -0,0 +1,220 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package common;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact usage history of one user (or resource): for each tag the number of usages, the oldest usage and the most
+ * recent usages. With that the base-level activation can be evaluated for any point in time instead of baking it in
+ * at a fixed baseline timestamp. Usages beyond the recent ones are approximated as evenly spread between the oldest
+ * and the last kept usage (Petrov, 2006), which is exact as long as a tag was used at most recentLimit times.
+ * The tags are sorted, so an evaluation costs O(#tags * recentLimit) and yields a SparseVector.
+ */
+public class UsageHistory {
+
+	public final static int DEFAULT_RECENT_LIMIT = 3;
+
+	private final int recentLimit;
+	private int[] tags;
+	private int[] counts;
+	private long[] oldest;
+	private long[] recent; // recentLimit slots per tag, most recent first
+	private int size;
+
+	public UsageHistory() {
+		this(DEFAULT_RECENT_LIMIT, 4);
+	}
+
+	public UsageHistory(int recentLimit, int capacity) {
+		this.recentLimit = Math.max(recentLimit, 1);
+		capacity = Math.max(capacity, 1);
+		this.tags = new int[capacity];
+		this.counts = new int[capacity];
+		this.oldest = new long[capacity];
+		this.recent = new long[capacity * this.recentLimit];
+		this.size = 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getRecentLimit() {
+		return this.recentLimit;
+	}
+
+	public int getTagAt(int index) {
+		return this.tags[index];
+	}
+
+	public int getCountAt(int index) {
+		return this.counts[index];
+	}
+
+	public long getOldestAt(int index) {
+		return this.oldest[index];
+	}
+
+	/**
+	 * Returns the i-th most recent usage of the tag at the given index (i < min(count, recentLimit)).
+	 */
+	public long getRecentAt(int index, int i) {
+		return this.recent[index * this.recentLimit + i];
+	}
+
+	public void addUsage(List<Integer> tags, long timestamp) {
+		for (Integer tag : tags) {
+			addUsage(tag.intValue(), timestamp);
+		}
+	}
+
+	public void addUsage(int tag, long timestamp) {
+		int index = Arrays.binarySearch(this.tags, 0, this.size, tag);
+		if (index < 0) {
+			index = -index - 1;
+			insert(index, tag, timestamp);
+		}
+		int count = this.counts[index]++;
+		if (count == 0 || timestamp < this.oldest[index]) {
+			this.oldest[index] = timestamp;
+		}
+		// keep the recentLimit most recent usages in descending order
+		int base = index * this.recentLimit;
+		int pos = Math.min(count, this.recentLimit);
+		if (pos == this.recentLimit) {
+			if (timestamp <= this.recent[base + pos - 1]) {
+				return;
+			}
+			pos--;
+		}
+		while (pos > 0 && this.recent[base + pos - 1] < timestamp) {
+			this.recent[base + pos] = this.recent[base + pos - 1];
+			pos--;
+		}
+		this.recent[base + pos] = timestamp;
+	}
+
+	/**
+	 * Sets the complete state of a tag - used to restore a history, the tags have to be set in ascending order.
+	 */
+	public void setTag(int tag, int count, long oldest, long[] recent) {
+		insert(this.size, tag, oldest);
+		this.counts[this.size - 1] = count;
+		System.arraycopy(recent, 0, this.recent, (this.size - 1) * this.recentLimit, Math.min(recent.length, this.recentLimit));
+	}
+
+	private void insert(int index, int tag, long timestamp) {
+		if (this.size == this.tags.length) {
+			int capacity = this.size + Math.max(this.size >> 1, 4);
+			this.tags = Arrays.copyOf(this.tags, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+			this.oldest = Arrays.copyOf(this.oldest, capacity);
+			this.recent = Arrays.copyOf(this.recent, capacity * this.recentLimit);
+		}
+		System.arraycopy(this.tags, index, this.tags, index + 1, this.size - index);
+		System.arraycopy(this.counts, index, this.counts, index + 1, this.size - index);
+		System.arraycopy(this.oldest, index, this.oldest, index + 1, this.size - index);
+		System.arraycopy(this.recent, index * this.recentLimit, this.recent, (index + 1) * this.recentLimit, (this.size - index) * this.recentLimit);
+		this.tags[index] = tag;
+		this.counts[index] = 0;
+		this.oldest[index] = timestamp;
+		this.size++;
+	}
+
+	public void trimToSize() {
+		if (this.size < this.tags.length) {
+			this.tags = Arrays.copyOf(this.tags, this.size);
+			this.counts = Arrays.copyOf(this.counts, this.size);
+			this.oldest = Arrays.copyOf(this.oldest, this.size);
+			this.recent = Arrays.copyOf(this.recent, this.size * this.recentLimit);
+		}
+	}
+
+	public UsageHistory copy() {
+		UsageHistory copy = new UsageHistory(this.recentLimit, this.size + 1);
+		System.arraycopy(this.tags, 0, copy.tags, 0, this.size);
+		System.arraycopy(this.counts, 0, copy.counts, 0, this.size);
+		System.arraycopy(this.oldest, 0, copy.oldest, 0, this.size);
+		System.arraycopy(this.recent, 0, copy.recent, 0, this.size * this.recentLimit);
+		copy.size = this.size;
+		return copy;
+	}
+
+	/**
+	 * Returns the base-level activation of the tag at the given index at the given time (in seconds).
+	 */
+	public double getActivationAt(int index, long timestamp, double dVal) {
+		int count = this.counts[index];
+		int kept = Math.min(count, this.recentLimit);
+		int base = index * this.recentLimit;
+		double act = 0.0;
+		for (int i = 0; i < kept; i++) {
+			act += Math.pow(getAge(timestamp, this.recent[base + i]), dVal * -1.0);
+		}
+		if (count > kept) {
+			double lastAge = getAge(timestamp, this.recent[base + kept - 1]);
+			double oldestAge = getAge(timestamp, this.oldest[index]);
+			if (oldestAge <= lastAge) {
+				act += (count - kept) * Math.pow(oldestAge, dVal * -1.0);
+			} else if (dVal == 1.0) {
+				act += (count - kept) * (Math.log(oldestAge) - Math.log(lastAge)) / (oldestAge - lastAge);
+			} else {
+				act += (count - kept) * (Math.pow(oldestAge, 1.0 - dVal) - Math.pow(lastAge, 1.0 - dVal))
+						/ ((1.0 - dVal) * (oldestAge - lastAge));
+			}
+		}
+		return act;
+	}
+
+	/**
+	 * Returns the activations of all tags at the given time - normalized to a sum of 1 if requested.
+	 */
+	public SparseVector getActivations(long timestamp, double dVal, boolean normalize) {
+		int[] keys = Arrays.copyOf(this.tags, this.size);
+		double[] values = new double[this.size];
+		double denom = 0.0;
+		for (int i = 0; i < this.size; i++) {
+			values[i] = getActivationAt(i, timestamp, dVal);
+			denom += values[i];
+		}
+		if (normalize && denom > 0.0) {
+			for (int i = 0; i < this.size; i++) {
+				values[i] /= denom;
+			}
+		}
+		return new SparseVector(keys, values, this.size);
+	}
+
+	// usages from the future (e.g., clock skew) count as the most recent ones
+	private static double getAge(long timestamp, long usage) {
+		return Math.max(timestamp - usage, 0L) + 1.0;
+	}
+
+	/**
+	 * Approximate number of bytes the history occupies on the heap.
+	 */
+	public long getMemoryUsage() {
+		return 40 + (16 + 4L * this.tags.length) + (16 + 4L * this.counts.length) + (16 + 8L * this.oldest.length)
+				+ (16 + 8L * this.recent.length);
+	}
+}
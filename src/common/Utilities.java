@@ -66,6 +66,10 @@ public class Utilities {
 	}
 	
 	public static List<Map<Integer, Integer>> getUserMaps(List<Bookmark> userLines) {
+		BookmarkStore.Cursor cursor = BookmarkStore.cursorOf(userLines);
+		if (cursor != null) {
+			return getCountMaps(cursor, false, false);
+		}
 		List<Map<Integer, Integer>> userMaps = new ArrayList<Map<Integer, Integer>>();
 		for (Bookmark data : userLines) {
 			int userID = data.getUserID();
@@ -79,6 +83,10 @@ public class Utilities {
 	}
 	
 	public static List<Map<Integer, Integer>> getResMaps(List<Bookmark> userLines) {
+		BookmarkStore.Cursor cursor = BookmarkStore.cursorOf(userLines);
+		if (cursor != null) {
+			return getCountMaps(cursor, true, false);
+		}
 		List<Map<Integer, Integer>> resMaps = new ArrayList<Map<Integer, Integer>>();
 		for (Bookmark data : userLines) {
 			int resID = data.getWikiID();
@@ -92,6 +100,10 @@ public class Utilities {
 	}
 	
 	public static List<Map<Integer, Integer>> getUserTopics(List<Bookmark> userLines) {
+		BookmarkStore.Cursor cursor = BookmarkStore.cursorOf(userLines);
+		if (cursor != null) {
+			return getCountMaps(cursor, false, true);
+		}
 		List<Map<Integer, Integer>> userMaps = new ArrayList<Map<Integer, Integer>>();
 		for (Bookmark data : userLines) {
 			int userID = data.getUserID();
@@ -105,6 +117,10 @@ public class Utilities {
 	}
 	
 	public static List<Map<Integer, Integer>> getResTopics(List<Bookmark> userLines) {
+		BookmarkStore.Cursor cursor = BookmarkStore.cursorOf(userLines);
+		if (cursor != null) {
+			return getCountMaps(cursor, true, true);
+		}
 		List<Map<Integer, Integer>> resMaps = new ArrayList<Map<Integer, Integer>>();
 		for (Bookmark data : userLines) {
 			int resID = data.getWikiID();
@@ -246,6 +262,10 @@ public class Utilities {
 		return userList;
 	}
 	
+	public static Set<Integer> getUsersByResource(BookmarkIndex index, int resID) {
+		return getUsersByResource(index.getResourceBookmarks(resID), resID);
+	}
+	
 	public static List<Set<Integer>> getUserResourceLists(List<Bookmark> userLines) {
 		List<Set<Integer>> userLists = new ArrayList<Set<Integer>>();
 		for (Bookmark data : userLines) {
@@ -267,27 +287,72 @@ public class Utilities {
 		List<Map<Integer, Double>> relMaps = new ArrayList<Map<Integer, Double>>();
 		for (Map<Integer, Integer> m : maps) {
 			double count = getMapCount(m);
-			Map<Integer, Double> relM = new LinkedHashMap<Integer, Double>();
-			for (Map.Entry<Integer, Integer> entry : m.entrySet()) {
-				relM.put(entry.getKey(), (double)entry.getValue().intValue() / count);
+			SparseVector relM = new SparseVector(m);
+			for (int i = 0; i < relM.size(); i++) {
+				relM.setValueAt(i, relM.getValueAt(i) / count);
 			}
 			relMaps.add(relM);
 		}
 		return relMaps;
 	}
 	
-	public static List<Map<Integer, Double>> getDoubleTagMaps(List<Bookmark> userLines, boolean resource) {
-		List<Map<Integer, Integer>> maps = (resource ? getResMaps(userLines) : getUserMaps(userLines));
+	/**
+	 * Same as getRelativeTagMaps(store.asList(), resource) without creating a Bookmark object per line.
+	 */
+	public static List<Map<Integer, Double>> getRelativeTagMaps(BookmarkStore store, boolean resource) {
+		return getRelativeMaps(getCountMaps(store.cursor(), resource, false));
+	}
+	
+	/**
+	 * Same as getRelativeTopicMaps(store.asList(), resource) without creating a Bookmark object per line.
+	 */
+	public static List<Map<Integer, Double>> getRelativeTopicMaps(BookmarkStore store, boolean resource) {
+		return getRelativeMaps(getCountMaps(store.cursor(), resource, true));
+	}
+	
+	// the maps of getUserMaps, getResMaps, getUserTopics and getResTopics for the bookmarks of the cursor
+	private static List<Map<Integer, Integer>> getCountMaps(BookmarkStore.Cursor cursor, boolean resource, boolean topics) {
+		List<Map<Integer, Integer>> maps = new ArrayList<Map<Integer, Integer>>();
+		while (cursor.next()) {
+			int id = (resource ? cursor.getWikiID() : cursor.getUserID());
+			Map<Integer, Integer> map;
+			if (id >= maps.size()) {
+				map = new LinkedHashMap<Integer, Integer>();
+				maps.add(map);
+			} else {
+				map = maps.get(id);
+			}
+			int count = (topics ? cursor.getCategoryCount() : cursor.getTagCount());
+			for (int i = 0; i < count; i++) {
+				int key = (topics ? cursor.getCategory(i) : cursor.getTag(i));
+				Integer val = map.get(key);
+				map.put(key, val != null ? val.intValue() + 1 : 1);
+			}
+		}
+		return maps;
+	}
+	
+	private static List<Map<Integer, Double>> getRelativeMaps(List<Map<Integer, Integer>> maps) {
 		List<Map<Integer, Double>> relMaps = new ArrayList<Map<Integer, Double>>();
 		for (Map<Integer, Integer> m : maps) {
-			Map<Integer, Double> relM = new LinkedHashMap<Integer, Double>();
-			for (Map.Entry<Integer, Integer> entry : m.entrySet()) {
-				relM.put(entry.getKey(), entry.getValue().doubleValue());
+			double count = getMapCount(m);
+			SparseVector relM = new SparseVector(m);
+			for (int i = 0; i < relM.size(); i++) {
+				relM.setValueAt(i, relM.getValueAt(i) / count);
 			}
 			relMaps.add(relM);
 		}
 		return relMaps;
 	}
+	
+	public static List<Map<Integer, Double>> getDoubleTagMaps(List<Bookmark> userLines, boolean resource) {
+		List<Map<Integer, Integer>> maps = (resource ? getResMaps(userLines) : getUserMaps(userLines));
+		List<Map<Integer, Double>> relMaps = new ArrayList<Map<Integer, Double>>();
+		for (Map<Integer, Integer> m : maps) {
+			relMaps.add(new SparseVector(m));
+		}
+		return relMaps;
+	}
 
 	
 	public static List<Map<Integer, Double>> getRelativeTopicMaps(List<Bookmark> userLines, boolean resource) {
@@ -295,9 +360,9 @@ public class Utilities {
 		List<Map<Integer, Double>> relMaps = new ArrayList<Map<Integer, Double>>();
 		for (Map<Integer, Integer> m : maps) {
 			double count = getMapCount(m);
-			Map<Integer, Double> relM = new LinkedHashMap<Integer, Double>();
-			for (Map.Entry<Integer, Integer> entry : m.entrySet()) {
-				relM.put(entry.getKey(), (double)entry.getValue().intValue() / count);
+			SparseVector relM = new SparseVector(m);
+			for (int i = 0; i < relM.size(); i++) {
+				relM.setValueAt(i, relM.getValueAt(i) / count);
 			}
 			relMaps.add(relM);
 		}
@@ -309,9 +374,9 @@ public class Utilities {
 		List<Map<Integer, Double>> relMaps = new ArrayList<Map<Integer, Double>>();
 		for (Map<Integer, Integer> m : maps) {
 			double denom = getMapDenom(m);
-			Map<Integer, Double> relM = new LinkedHashMap<Integer, Double>();
-			for (Map.Entry<Integer, Integer> entry : m.entrySet()) {
-				relM.put(entry.getKey(), Math.exp((double)entry.getValue().intValue()) / denom);
+			SparseVector relM = new SparseVector(m);
+			for (int i = 0; i < relM.size(); i++) {
+				relM.setValueAt(i, Math.exp(relM.getValueAt(i)) / denom);
 			}
 			relMaps.add(relM);
 		}
@@ -344,12 +409,12 @@ public class Utilities {
 				values = valueMaps.get(id);
 			}
 			
-			Map<Integer, Double> e = null;
+			SparseVector e = null;
 			if (id >= entities.size()) {
-				e = new LinkedHashMap<Integer, Double>();
+				e = new SparseVector();
 				entities.add(e);
 			} else {
-				e = entities.get(id);
+				e = (SparseVector)entities.get(id);
 			}
 			double val = 1.0;
 			if (values != null) {
@@ -361,8 +426,10 @@ public class Utilities {
 					}
 				}
 			}
-			Double oldVal = e.get(entityID);
-			e.put(entityID, oldVal != null ? oldVal.doubleValue() + val : val);
+			e.add(entityID, val);
+		}
+		for (Map<Integer, Double> e : entities) {
+			((SparseVector)e).trimToSize();
 		}
 		return entities;
 	}
@@ -428,6 +495,9 @@ public class Utilities {
 	}
 	
 	public static double getJaccardFloatSim(Map<Integer, Double> targetMap, Map<Integer, Double> nMap) {
+		if (targetMap instanceof SparseVector && nMap instanceof SparseVector) {
+			return ((SparseVector)targetMap).jaccard((SparseVector)nMap);
+		}
 		Set<Integer> unionSet = new HashSet<Integer>(targetMap.keySet());
 		Set<Integer> intersectSet = new HashSet<Integer>(targetMap.keySet());
 		unionSet.addAll(nMap.keySet());
@@ -458,6 +528,9 @@ public class Utilities {
 	}
 	
 	public static double getCosineFloatSim(Map<Integer, Double> targetMap, Map<Integer, Double> nMap) {
+		if (targetMap instanceof SparseVector && nMap instanceof SparseVector) {
+			return ((SparseVector)targetMap).cosine((SparseVector)nMap);
+		}
         Set<Integer> both = new HashSet<Integer>(targetMap.keySet());
         both.retainAll(nMap.keySet());
         double scalar = 0.0, norm1 = 0.0, norm2 = 0.0;
@@ -477,7 +550,7 @@ public class Utilities {
 			for (Bookmark data : testLines) {
 				int id = resource ? data.getWikiID() : data.getUserID();
 				if (id == refID) {
-					long timestamp = Long.parseLong(data.getTimestamp());
+					long timestamp = data.getTimestamp();
 					if (timestamp > maxTimestamp) {
 						maxTimestamp = timestamp;
 					}
@@ -488,12 +561,22 @@ public class Utilities {
 		return System.currentTimeMillis() / 1000;
 	}
 	
+	/**
+	 * Same as the list version on the bookmarks of the index - a null testIndex means no test data.
+	 */
+	public static long getBaselineTimestamp(BookmarkIndex testIndex, int refID, boolean resource) {
+		if (testIndex == null) {
+			return getBaselineTimestamp((List<Bookmark>)null, refID, resource);
+		}
+		return getBaselineTimestamp(resource ? testIndex.getResourceBookmarks(refID) : testIndex.getUserBookmarks(refID), refID, resource);
+	}
+	
 	public static long getBaselineTimestampEff(List<Bookmark> testLines, int refID) {
 		if (testLines != null) {
 			for (int i = testLines.size() - 1; i >= 0; i--) {
 				Bookmark data = testLines.get(i);
 				if (data.getUserID() == refID) {
-					return Long.parseLong(data.getTimestamp());
+					return data.getTimestamp();
 				}
 			}
 			return -1;
@@ -576,6 +659,13 @@ public class Utilities {
 		return sortedNeighbors;
 	}
 	
+	/**
+	 * Same as the list version, the users of the resource are taken from its posting.
+	 */
+	public static Map<Integer, Double> getNeighbors(int userID, int resID, Map<Integer, Double> allNeighbors, List<Map<Integer, Double>> userMaps, BookmarkIndex trainIndex, Similarity sim) {
+		return getNeighbors(userID, resID, allNeighbors, userMaps, trainIndex.getResourceBookmarks(resID), sim);
+	}
+	
 	public static Map<Integer, Double> getSimResources(int userID, int resID, List<Integer> userResources, Map<Integer, Double> allResources, List<Map<Integer, Double>> resMaps, List<Bookmark> trainList, Similarity sim) {
 		Map<Integer, Double> resources = new LinkedHashMap<Integer, Double>();
 		Map<Integer, Double> targetMap = null;	
@@ -617,6 +707,13 @@ public class Utilities {
 		return sortedResources;
 	}
 	
+	/**
+	 * Same as the list version, the resources of the user are taken from its posting.
+	 */
+	public static Map<Integer, Double> getSimResources(int userID, int resID, List<Integer> userResources, Map<Integer, Double> allResources, List<Map<Integer, Double>> resMaps, BookmarkIndex trainIndex, Similarity sim) {
+		return getSimResources(userID, resID, userResources, allResources, resMaps, trainIndex.getUserBookmarks(userID), sim);
+	}
+	
 	public static Map<Integer, Double> getSimResourcesForUser(int userID, Map<Integer, Double> allResources, List<Map<Integer, Double>> userMaps, List<Map<Integer, Double>> resMaps, 
 			List<Bookmark> trainList, List<Integer> userResources, Similarity sim) {
 		Map<Integer, Double> resources = new LinkedHashMap<Integer, Double>();
@@ -21,126 +21,529 @@
 package engine;
 
 import processing.ActCalculator;
-import common.DoubleMapComparator;
+import common.Bookmark;
+import common.IdDictionary;
+import common.SparseVector;
+import common.TopKSelector;
+import common.UsageHistory;
 import file.BookmarkReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 public class BaseLevelLearningEngine implements EngineInterface {
 
-	private BookmarkReader reader;
-	private final Map<String, Map<Integer, Double>> userMaps;
-	private final Map<String, Map<Integer, Double>> resMaps;
-	private final Map<String, Double> topTags;
+	// the trained model is stored next to the bookmark file and reused as long as it is newer than that file
+	public static final String SNAPSHOT_SUFFIX = ".bll";
+	private static final int SNAPSHOT_MAGIC = 0x424C4C03; // "BLL" + format version 3
 
-	public BaseLevelLearningEngine() {
+	private final static double USER_DVAL = 0.5;
+	private final static double RES_DVAL = 0.0;
 
-		userMaps = new HashMap<>();
-		resMaps = new HashMap<>();
-		topTags = new LinkedHashMap<>();
+	// lookups read the model reference once and never lock - a model is never modified once published, addBookmark
+	// publishes an updated copy and a reload builds a new model and swaps it in
+	private volatile Model model;
+	// the bookmarks added while a reload builds its model (null if none is running) - they are replayed onto the new
+	// model before it is published, so they are not lost; guarded by the engine's lock
+	private List<JournalEntry> journal = null;
+	// reloads run one after the other
+	private final Object reloadLock = new Object();
 
-		reader = new BookmarkReader(0, false);
+	public BaseLevelLearningEngine() {
+		this.model = new Model(new ArrayList<String>(), new ArrayList<Integer>());
 	}
 
 	public void loadFile(String filename) throws Exception {
-		Map<String, Map<Integer, Double>> userMaps = new HashMap<>();
-		Map<String, Map<Integer, Double>> resMaps = new HashMap<>();
+		File dataFile = new File("./data/csv/" + filename + ".txt");
+		File snapshotFile = new File("./data/csv/" + filename + SNAPSHOT_SUFFIX);
+		if (snapshotFile.exists() && snapshotFile.lastModified() >= dataFile.lastModified()) {
+			try {
+				loadSnapshot(snapshotFile);
+				System.out.println("loaded model snapshot");
+				return;
+			} catch (IOException e) {
+				e.printStackTrace(); // retrain instead
+			}
+		}
+		train(filename);
+		try {
+			exportSnapshot(snapshotFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void train(String filename) {
+		synchronized (this.reloadLock) {
+			beginReload();
+			try {
+				publish(buildModel(filename));
+			} finally {
+				endReload();
+			}
+		}
+	}
+
+	private Model buildModel(String filename) {
 		BookmarkReader reader = new BookmarkReader(0, false);
 
 		reader.readFile(filename);
 		Collections.sort(reader.getBookmarks());
 		System.out.println("read in and sorted file");
-		List<Map<Integer, Double>> userRecencies = ActCalculator
-				.getArtifactMaps(reader, reader.getBookmarks(), null, false,
-						new ArrayList<Long>(), new ArrayList<Double>(), 0.5,
-						true);
-		int i = 0;
-		for (Map<Integer, Double> map : userRecencies) {
-			userMaps.put(reader.getUsers().get(i++), map);
+		Model model = new Model(reader.getTags(), reader.getTagCounts());
+		// the user activations depend on the time of the request, so only the usage histories are stored
+		for (Bookmark data : reader.getBookmarks()) {
+			if (data.hasTimestamp()) {
+				String user = reader.getUsers().get(data.getUserID());
+				UsageHistory history = model.userHistories.get(user);
+				if (history == null) {
+					history = new UsageHistory();
+					model.userHistories.put(user, history);
+				}
+				history.addUsage(data.getTags(), data.getTimestamp());
+			}
+		}
+		for (UsageHistory history : model.userHistories.values()) {
+			history.trimToSize();
 		}
+		List<Double> resDenoms = new ArrayList<Double>();
 		List<Map<Integer, Double>> resRecencies = ActCalculator
 				.getArtifactMaps(reader, reader.getBookmarks(), null, true,
-						new ArrayList<Long>(), new ArrayList<Double>(), 0.0,
+						new ArrayList<Long>(), resDenoms, RES_DVAL,
 						true);
-		i = 0;
+		int i = 0;
 		for (Map<Integer, Double> map : resRecencies) {
-			resMaps.put(reader.getResources().get(i++), map);
+			String resource = reader.getResources().get(i);
+			model.resMaps.put(resource, SparseVector.valueOf(map));
+			model.resDenoms.put(resource, resDenoms.get(i++));
 		}
+		return model;
+	}
 
-		resetStructures(userMaps, resMaps, reader);
+	private synchronized void beginReload() {
+		this.journal = new ArrayList<JournalEntry>();
 	}
 
-	public synchronized Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count) {
-		if (count == null || count.doubleValue() < 1) {
-			count = 10;
+	private synchronized void endReload() {
+		this.journal = null;
+	}
+
+	// replays the bookmarks added during the reload onto the new model and swaps it in
+	private synchronized void publish(Model model) {
+		if (this.model.topTagLimit > model.topTagLimit) {
+			model = model.withTopTagLimit(this.model.topTagLimit);
 		}
-		Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>();
-		Map<Integer, Double> userMap = this.userMaps.get(user);
-		Map<Integer, Double> resMap = this.resMaps.get(resource);
-		// user-based and resource-based
-		if (userMap != null) {
-			for (Map.Entry<Integer, Double> entry : userMap.entrySet()) {
-				resultMap.put(entry.getKey(), entry.getValue().doubleValue());
+		for (JournalEntry entry : this.journal) {
+			model = applyBookmark(model, entry.user, entry.resource, entry.tags, entry.timestamp);
+		}
+		this.model = model;
+	}
+
+	/**
+	 * Adds the bookmark to the user's usage history, the resource's activation vector and the tag counts without
+	 * retraining. The timestamp is given in seconds.
+	 */
+	@Override
+	public synchronized void addBookmark(String user, String resource, List<String> tags, long timestamp) {
+		this.model = applyBookmark(this.model, user, resource, tags, timestamp);
+		if (this.journal != null) {
+			this.journal.add(new JournalEntry(user, resource, new ArrayList<String>(tags), timestamp));
+		}
+	}
+
+	// returns the model with the bookmark added - callers have to hold the engine's lock
+	private static Model applyBookmark(Model model, String user, String resource, List<String> tags, long timestamp) {
+		List<Integer> tagIDs = new ArrayList<Integer>();
+		for (String tag : tags) {
+			if (!tag.isEmpty()) {
+				String name = tag.toLowerCase();
+				tagIDs.add(model.tags.add(name));
 			}
 		}
-		if (resMap != null) {
-			for (Map.Entry<Integer, Double> entry : resMap.entrySet()) {
-				double resVal = entry.getValue().doubleValue();
-				Double val = resultMap.get(entry.getKey());
-				resultMap.put(entry.getKey(),
-						val == null ? resVal : val.doubleValue() + resVal);
+		if (tagIDs.isEmpty()) {
+			return model;
+		}
+		for (int tag : tagIDs) {
+			model.popularity.increment(tag);
+		}
+
+		// copy-on-write - request threads might be reading the old history and vector right now
+		UsageHistory history = model.getHistory(user);
+		history = (history != null ? history.copy() : new UsageHistory());
+		history.addUsage(tagIDs, timestamp);
+		SparseVector values = model.getResMap(resource);
+		values = (values != null ? values.copy() : new SparseVector(tagIDs.size()));
+		Double denom = model.resDenoms.get(resource);
+		model.resDenoms.put(resource, ActCalculator.addActivation(values, denom != null ? denom.doubleValue() : 0.0, tagIDs, 1.0));
+		return model.update(user, history, resource, values, model.popularity.getTopTags(model.tags.asList(), model.topTagLimit));
+	}
+
+	// publishes a model with at least count top tags to fill up short result lists
+	private synchronized Model ensureTopTags(int count) {
+		if (count > this.model.topTagLimit) {
+			this.model = this.model.withTopTagLimit(count);
+		}
+		return this.model;
+	}
+
+	/**
+	 * Writes the current model (tag dictionary and counts, user histories, resource vectors) to a binary file.
+	 * The file is written to a temporary file first and then moved, so readers never see a half written snapshot.
+	 */
+	public synchronized void exportSnapshot(File file) throws IOException {
+		Model model = this.model;
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(model.tags.size());
+			for (int i = 0; i < model.tags.size(); i++) {
+				writeString(out, model.tags.getName(i));
+				out.writeInt(model.popularity.getCount(i));
 			}
+			writeHistories(out, model.getUserHistories());
+			writeVectors(out, model.getResMaps(), model.resDenoms);
+		} finally {
+			out.close();
 		}
-		// sort and add MP tags if necessary
-		Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(
-				new DoubleMapComparator(resultMap));
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
 
-		sortedResultMap.putAll(resultMap);
-		int i = 0;
-		Map<String, Double> tagMap = new LinkedHashMap<>();
-		for (Map.Entry<Integer, Double> entry : sortedResultMap.entrySet()) {
+	/**
+	 * Replaces the current model with the one stored in the given snapshot file. The file is memory-mapped and
+	 * decoded in one pass, which is much faster than reading and training on the bookmark file.
+	 */
+	public void loadSnapshot(File file) throws IOException {
+		synchronized (this.reloadLock) {
+			beginReload();
+			try {
+				publish(readSnapshot(file));
+			} finally {
+				endReload();
+			}
+		}
+	}
 
-			if (i++ < count) {
-				tagMap.put(this.reader.getTags().get(entry.getKey()),
-						(double) entry.getValue());
-			} else {
-				break;
+	private Model readSnapshot(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("snapshot too large to be mapped: " + file);
+			}
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.getInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("no valid BLL snapshot: " + file);
 			}
+			int tagCount = in.getInt();
+			List<String> tags = new ArrayList<String>(tagCount);
+			List<Integer> tagCounts = new ArrayList<Integer>(tagCount);
+			for (int i = 0; i < tagCount; i++) {
+				tags.add(readString(in));
+				tagCounts.add(in.getInt());
+			}
+			Model model = new Model(tags, tagCounts);
+			readHistories(in, model.userHistories);
+			readVectors(in, model.resMaps, model.resDenoms);
+			return model;
+		} catch (RuntimeException e) { // e.g., BufferUnderflowException on a truncated file
+			throw new IOException("corrupt BLL snapshot: " + file, e);
+		} finally {
+			raf.close();
 		}
+	}
 
-		if (tagMap.size() < count) {
-			for (Map.Entry<String, Double> t : this.topTags.entrySet()) {
-				if (tagMap.size() < count) {
-					if (!tagMap.containsKey(t.getKey())) {
-						tagMap.put(t.getKey(), t.getValue());
-					}
-				} else {
-					break;
+	private static void writeHistories(DataOutputStream out, Map<String, UsageHistory> histories) throws IOException {
+		out.writeInt(histories.size());
+		for (Map.Entry<String, UsageHistory> entry : histories.entrySet()) {
+			UsageHistory history = entry.getValue();
+			writeString(out, entry.getKey());
+			out.writeInt(history.getRecentLimit());
+			out.writeInt(history.size());
+			for (int i = 0; i < history.size(); i++) {
+				int count = history.getCountAt(i);
+				out.writeInt(history.getTagAt(i));
+				out.writeInt(count);
+				out.writeLong(history.getOldestAt(i));
+				for (int j = 0; j < Math.min(count, history.getRecentLimit()); j++) {
+					out.writeLong(history.getRecentAt(i, j));
 				}
 			}
 		}
+	}
 
-		return tagMap;
+	private static void readHistories(ByteBuffer in, Map<String, UsageHistory> histories) {
+		int count = in.getInt();
+		for (int i = 0; i < count; i++) {
+			String name = readString(in);
+			int recentLimit = in.getInt();
+			int size = in.getInt();
+			if (recentLimit < 1 || size < 0 || size > in.remaining() / 16) {
+				throw new IllegalStateException("invalid history size " + size);
+			}
+			UsageHistory history = new UsageHistory(recentLimit, size);
+			for (int j = 0; j < size; j++) {
+				int tag = in.getInt();
+				int tagCount = in.getInt();
+				long oldest = in.getLong();
+				long[] recent = new long[Math.min(tagCount, recentLimit)];
+				for (int r = 0; r < recent.length; r++) {
+					recent[r] = in.getLong();
+				}
+				history.setTag(tag, tagCount, oldest, recent);
+			}
+			histories.put(name, history);
+		}
 	}
 
-	private synchronized void resetStructures(
-			Map<String, Map<Integer, Double>> userMaps,
-			Map<String, Map<Integer, Double>> resMaps, BookmarkReader reader) {
+	private static void writeVectors(DataOutputStream out, Map<String, SparseVector> vectors, Map<String, Double> denoms) throws IOException {
+		out.writeInt(vectors.size());
+		for (Map.Entry<String, SparseVector> entry : vectors.entrySet()) {
+			SparseVector vector = entry.getValue();
+			writeString(out, entry.getKey());
+			out.writeDouble(denoms.get(entry.getKey()));
+			out.writeInt(vector.size());
+			for (int i = 0; i < vector.size(); i++) {
+				out.writeInt(vector.getKeyAt(i));
+			}
+			for (int i = 0; i < vector.size(); i++) {
+				out.writeDouble(vector.getValueAt(i));
+			}
+		}
+	}
 
-		this.reader = reader;
+	private static void readVectors(ByteBuffer in, Map<String, SparseVector> vectors, Map<String, Double> denoms) {
+		int count = in.getInt();
+		for (int i = 0; i < count; i++) {
+			String name = readString(in);
+			denoms.put(name, in.getDouble());
+			int size = in.getInt();
+			if (size < 0 || size > in.remaining() / 12) {
+				throw new IllegalStateException("invalid vector size " + size);
+			}
+			int[] keys = new int[size];
+			double[] values = new double[size];
+			for (int j = 0; j < size; j++) {
+				keys[j] = in.getInt();
+			}
+			for (int j = 0; j < size; j++) {
+				values[j] = in.getDouble();
+			}
+			vectors.put(name, new SparseVector(keys, values, size));
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count) {
+		return getTagsWithLikelihood(user, resource, topics, count, System.currentTimeMillis() / 1000);
+	}
+
+	/**
+	 * The user's tag activations are evaluated at the given time (in seconds).
+	 */
+	@Override
+	public Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count, long timestamp) {
+		if (count == null || count.doubleValue() < 1) {
+			count = 10;
+		}
+		Model model = this.model;
+		if (count > model.topTagLimit) {
+			model = ensureTopTags(count);
+		}
+		UsageHistory history = model.getHistory(user);
+		SparseVector userMap = (history != null ? history.getActivations(timestamp, USER_DVAL, true) : null);
+		SparseVector resMap = model.getResMap(resource);
+		// user-based and resource-based
+		Map<Integer, Double> resultMap = EngineUtils.mergeAndSelect(userMap, resMap, count);
+		// sort and add MP tags if necessary
+		return EngineUtils.getTagMap(resultMap, model.tags.asList(), model.topTags, count);
+	}
+
+	/**
+	 * All queries of the batch see the same model, the ones without a timestamp are evaluated at the same time.
+	 * Consecutive queries of the same user and time share the user's activations, so sorting the queries by user saves
+	 * most of the evaluation work.
+	 */
+	@Override
+	public List<Map<String, Double>> getTagsWithLikelihoodBatch(List<Query> queries) {
+		int maxCount = EngineUtils.getMaxCount(queries);
+		final Model model = (maxCount > this.model.topTagLimit ? ensureTopTags(maxCount) : this.model);
+		final long timestamp = System.currentTimeMillis() / 1000;
+		return EngineUtils.runBatch(queries, new EngineUtils.BatchWorkerFactory() {
+			@Override
+			public EngineUtils.BatchWorker newWorker() {
+				return new BatchWorker(model, timestamp);
+			}
+		});
+	}
+
+	private static class BatchWorker implements EngineUtils.BatchWorker {
+
+		private final Model model;
+		private final long timestamp;
+		private TopKSelector selector = null;
+		private String lastUser = null;
+		private long lastTimestamp;
+		private SparseVector lastUserMap = null;
+
+		private BatchWorker(Model model, long timestamp) {
+			this.model = model;
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		public Map<String, Double> getTagsWithLikelihood(Query query) {
+			int count = (query.getCount() == null || query.getCount().intValue() < 1 ? 10 : query.getCount().intValue());
+			if (this.selector == null || this.selector.getLimit() != count) {
+				this.selector = new TopKSelector(count);
+			}
+			long timestamp = (query.getTimestamp() != null ? query.getTimestamp().longValue() : this.timestamp);
+			if (this.lastUser == null || !this.lastUser.equals(query.getUser()) || this.lastTimestamp != timestamp) {
+				UsageHistory history = this.model.getHistory(query.getUser());
+				this.lastUser = query.getUser();
+				this.lastTimestamp = timestamp;
+				this.lastUserMap = (history != null ? history.getActivations(timestamp, USER_DVAL, true) : null);
+			}
+			SparseVector resMap = this.model.getResMap(query.getResource());
+			Map<Integer, Double> resultMap = EngineUtils.mergeAndSelect(this.lastUserMap, resMap, this.selector);
+			return EngineUtils.getTagMap(resultMap, this.model.tags.asList(), this.model.topTags, count);
+		}
+	}
+
+	// a bookmark added during a reload
+	private static class JournalEntry {
+
+		private final String user;
+		private final String resource;
+		private final List<String> tags;
+		private final long timestamp;
+
+		private JournalEntry(String user, String resource, List<String> tags, long timestamp) {
+			this.user = user;
+			this.resource = resource;
+			this.tags = tags;
+			this.timestamp = timestamp;
+		}
+	}
+
+	/**
+	 * State of a trained engine. The request threads read the user histories and resource vectors of the training (the
+	 * base maps, filled before the model is published) and the ones changed by addBookmark since (the changed maps),
+	 * the top tags and the names of the tags. None of them is modified once the model is published: an update copies
+	 * the small changed maps, and the base maps only when the changes have grown to about the square root of their
+	 * size, so a lookup always sees one consistent state. The tag dictionary only grows, which readers of older
+	 * versions do not notice. The top tags are the topTagLimit most popular ones, a version with a higher limit is
+	 * published when a request asks for more tags. popularity and resDenoms are shared by the versions of a model and only used by
+	 * addBookmark and exportSnapshot while holding the engine's lock.
+	 */
+	private static class Model {
+
+		// the changed maps are merged into the base maps beyond max(MIN_CHANGES, sqrt(base size)) entries
+		private final static int MIN_CHANGES = 64;
 
-		this.userMaps.clear();
-		this.userMaps.putAll(userMaps);
+		private final IdDictionary tags;
+		private final Map<String, UsageHistory> userHistories;
+		private final Map<String, SparseVector> resMaps;
+		private final Map<String, UsageHistory> changedHistories;
+		private final Map<String, SparseVector> changedResMaps;
+		private final Map<String, Double> topTags;
+		private final int topTagLimit;
 
-		this.resMaps.clear();
-		this.resMaps.putAll(resMaps);
+		private final Map<String, Double> resDenoms;
+		private final TagPopularity popularity;
 
-		this.topTags.clear();
-		this.topTags.putAll(EngineUtils.calcTopTags(this.reader));
+		private Model(List<String> tags, List<Integer> tagCounts) {
+			this.tags = new IdDictionary(tags);
+			this.userHistories = new HashMap<String, UsageHistory>();
+			this.resMaps = new HashMap<String, SparseVector>();
+			this.changedHistories = Collections.emptyMap();
+			this.changedResMaps = Collections.emptyMap();
+			this.resDenoms = new HashMap<String, Double>();
+			this.popularity = new TagPopularity(tagCounts);
+			this.topTagLimit = TagPopularity.DEFAULT_TOP_TAGS;
+			this.topTags = this.popularity.getTopTags(this.tags.asList(), this.topTagLimit);
+		}
+
+		private Model(Model model, Map<String, UsageHistory> userHistories, Map<String, SparseVector> resMaps,
+				Map<String, UsageHistory> changedHistories, Map<String, SparseVector> changedResMaps, Map<String, Double> topTags, int topTagLimit) {
+			this.tags = model.tags;
+			this.userHistories = userHistories;
+			this.resMaps = resMaps;
+			this.changedHistories = changedHistories;
+			this.changedResMaps = changedResMaps;
+			this.resDenoms = model.resDenoms;
+			this.popularity = model.popularity;
+			this.topTags = topTags;
+			this.topTagLimit = topTagLimit;
+		}
+
+		private UsageHistory getHistory(String user) {
+			UsageHistory history = this.changedHistories.get(user);
+			return (history != null ? history : this.userHistories.get(user));
+		}
+
+		private SparseVector getResMap(String resource) {
+			SparseVector values = this.changedResMaps.get(resource);
+			return (values != null ? values : this.resMaps.get(resource));
+		}
+
+		private Map<String, UsageHistory> getUserHistories() {
+			Map<String, UsageHistory> histories = new HashMap<String, UsageHistory>(this.userHistories);
+			histories.putAll(this.changedHistories);
+			return histories;
+		}
+
+		private Map<String, SparseVector> getResMaps() {
+			Map<String, SparseVector> vectors = new HashMap<String, SparseVector>(this.resMaps);
+			vectors.putAll(this.changedResMaps);
+			return vectors;
+		}
+
+		// returns a new version of the model with the given history, vector and top tags
+		private Model update(String user, UsageHistory history, String resource, SparseVector values, Map<String, Double> topTags) {
+			Map<String, UsageHistory> changedHistories = new HashMap<String, UsageHistory>(this.changedHistories);
+			changedHistories.put(user, history);
+			Map<String, SparseVector> changedResMaps = new HashMap<String, SparseVector>(this.changedResMaps);
+			changedResMaps.put(resource, values);
+			int limit = Math.max(MIN_CHANGES, (int)Math.sqrt(this.userHistories.size() + this.resMaps.size()));
+			if (changedHistories.size() + changedResMaps.size() <= limit) {
+				return new Model(this, this.userHistories, this.resMaps, changedHistories, changedResMaps, topTags, this.topTagLimit);
+			}
+			Map<String, UsageHistory> userHistories = new HashMap<String, UsageHistory>(this.userHistories);
+			userHistories.putAll(changedHistories);
+			Map<String, SparseVector> resMaps = new HashMap<String, SparseVector>(this.resMaps);
+			resMaps.putAll(changedResMaps);
+			return new Model(this, userHistories, resMaps, Collections.<String, UsageHistory>emptyMap(), Collections.<String, SparseVector>emptyMap(), topTags, this.topTagLimit);
+		}
+
+		// returns a new version of the model with the topTagLimit most popular tags - callers have to hold the engine's lock
+		private Model withTopTagLimit(int topTagLimit) {
+			return new Model(this, this.userHistories, this.resMaps, this.changedHistories, this.changedResMaps,
+					this.popularity.getTopTags(this.tags.asList(), topTagLimit), topTagLimit);
+		}
 	}
 }
@@ -28,4 +28,20 @@ public interface EngineInterface {
 	public void loadFile(String filename) throws Exception;
 	
 	public Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count);
+	
+	/**
+	 * Like getTagsWithLikelihood but recommends the tags for the given time (in seconds) instead of the current time,
+	 * e.g., when bookmarks with their own timestamps are replayed.
+	 */
+	public Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count, long timestamp);
+	
+	/**
+	 * Answers many requests at once (in parallel) - the results are returned in the order of the queries.
+	 */
+	public List<Map<String, Double>> getTagsWithLikelihoodBatch(List<Query> queries);
+	
+	/**
+	 * Adds a new bookmark to the trained model without retraining it (the timestamp is given in seconds).
+	 */
+	public void addBookmark(String user, String resource, List<String> tags, long timestamp);
 }
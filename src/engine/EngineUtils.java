@@ -20,37 +20,173 @@
 
 package engine;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-import common.IntMapComparator;
-
-import file.BookmarkReader;
+import common.SparseVector;
+import common.TopKSelector;
 
 public class EngineUtils {
 
-	public static Map<String, Double> calcTopTags(BookmarkReader reader) {
-		Map<String, Double> tagMap = new LinkedHashMap<>();
-		Map<Integer, Integer> countMap = new LinkedHashMap<Integer, Integer>();
+	// queries per chunk of a batch - smaller batches are answered by the calling thread
+	private final static int MIN_BATCH_CHUNK = 256;
+	private final static int THREADS = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService batchPool = null;
 
-		Integer countSum = 0;
+	/**
+	 * Per-thread state of a batch (e.g., scratch buffers); a worker is only used by one thread.
+	 */
+	interface BatchWorker {
+		public Map<String, Double> getTagsWithLikelihood(Query query);
+	}
 
-		for (int i = 0; i < reader.getTagCounts().size(); i++) {
-			countMap.put(i, reader.getTagCounts().get(i));
+	interface BatchWorkerFactory {
+		public BatchWorker newWorker();
+	}
 
-			countSum += reader.getTagCounts().get(i);
+	/**
+	 * Splits the queries into contiguous chunks that are processed in parallel, each by a new worker.
+	 * The results are returned in input order.
+	 */
+	public static List<Map<String, Double>> runBatch(List<Query> queries, BatchWorkerFactory factory) {
+		final Query[] queryArray = queries.toArray(new Query[queries.size()]);
+		// the workers set disjoint positions of the list, its size does not change
+		final List<Map<String, Double>> results = new ArrayList<Map<String, Double>>(Collections.<Map<String, Double>>nCopies(queryArray.length, null));
+		int chunks = Math.min(THREADS * 4, queryArray.length / MIN_BATCH_CHUNK);
+		if (chunks <= 1) {
+			processChunk(queryArray, results, 0, queryArray.length, factory.newWorker());
+			return results;
 		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks);
+		for (int c = 0; c < chunks; c++) {
+			final int from = (int)((long)queryArray.length * c / chunks);
+			final int to = (int)((long)queryArray.length * (c + 1) / chunks);
+			final BatchWorker worker = factory.newWorker();
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					processChunk(queryArray, results, from, to, worker);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> future : getBatchPool().invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	private static void processChunk(Query[] queries, List<Map<String, Double>> results, int from, int to, BatchWorker worker) {
+		for (int i = from; i < to; i++) {
+			results.set(i, worker.getTagsWithLikelihood(queries[i]));
+		}
+	}
+
+	private static synchronized ExecutorService getBatchPool() {
+		if (batchPool == null) {
+			batchPool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "engine-batch");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return batchPool;
+	}
 
-		Map<Integer, Integer> sortedCountMap = new TreeMap<Integer, Integer>(
-				new IntMapComparator(countMap));
-		sortedCountMap.putAll(countMap);
+	/**
+	 * The number of tags a request asks for - 10 if none is given.
+	 */
+	public static int getCount(Integer count) {
+		return (count == null || count.intValue() < 1 ? 10 : count.intValue());
+	}
 
-		for (Map.Entry<Integer, Integer> entry : sortedCountMap.entrySet()) {
-			tagMap.put(reader.getTags().get(entry.getKey()),
-					((double) entry.getValue()) / countSum);
+	/**
+	 * The largest number of tags a query of the batch asks for.
+	 */
+	public static int getMaxCount(List<Query> queries) {
+		int maxCount = 0;
+		for (Query query : queries) {
+			maxCount = Math.max(maxCount, getCount(query.getCount()));
 		}
+		return maxCount;
+	}
 
+	/**
+	 * Maps the ranked tag IDs to their names and fills the list up with the most popular tags if necessary - topTags
+	 * has to hold at least count tags (or all tags) for a full list.
+	 */
+	public static Map<String, Double> getTagMap(Map<Integer, Double> resultMap, List<String> tags, Map<String, Double> topTags, int count) {
+		Map<String, Double> tagMap = new LinkedHashMap<>();
+		for (Map.Entry<Integer, Double> entry : resultMap.entrySet()) {
+			tagMap.put(tags.get(entry.getKey()), entry.getValue());
+		}
+
+		if (tagMap.size() < count) {
+			for (Map.Entry<String, Double> t : topTags.entrySet()) {
+				if (tagMap.size() < count) {
+					if (!tagMap.containsKey(t.getKey())) {
+						tagMap.put(t.getKey(), t.getValue());
+					}
+				} else {
+					break;
+				}
+			}
+		}
 		return tagMap;
 	}
+
+	/**
+	 * Returns the count best tags of the user and resource vector - like mergeAndSelect but with a reusable selector.
+	 */
+	public static Map<Integer, Double> mergeAndSelect(SparseVector userMap, SparseVector resMap, TopKSelector selector) {
+		selector.clear();
+		offerMerged(userMap, resMap, selector);
+		return selector.getSortedMap();
+	}
+
+	/**
+	 * Sums up the user and the resource vector and returns the count best tags in descending order.
+	 * Both vectors are sorted by tag, so they are merged in one pass without any lookups.
+	 */
+	public static Map<Integer, Double> mergeAndSelect(SparseVector userMap, SparseVector resMap, int count) {
+		TopKSelector selector = new TopKSelector(count);
+		offerMerged(userMap, resMap, selector);
+		return selector.getSortedMap();
+	}
+
+	private static void offerMerged(SparseVector userMap, SparseVector resMap, TopKSelector selector) {
+		int userSize = (userMap != null ? userMap.size() : 0);
+		int resSize = (resMap != null ? resMap.size() : 0);
+		int u = 0, r = 0;
+		while (u < userSize || r < resSize) {
+			int userTag = (u < userSize ? userMap.getKeyAt(u) : Integer.MAX_VALUE);
+			int resTag = (r < resSize ? resMap.getKeyAt(r) : Integer.MAX_VALUE);
+			if (r >= resSize || (u < userSize && userTag < resTag)) {
+				selector.offer(userTag, userMap.getValueAt(u++));
+			} else if (u >= userSize || resTag < userTag) {
+				selector.offer(resTag, resMap.getValueAt(r++));
+			} else {
+				selector.offer(userTag, userMap.getValueAt(u++) + resMap.getValueAt(r++));
+			}
+		}
+	}
 }
@@ -20,130 +20,203 @@
 
 package engine;
 
-import common.DoubleMapComparator;
+import common.Bookmark;
+import common.SparseVector;
+import common.TopKSelector;
 import common.Utilities;
 import file.BookmarkReader;
+import processing.ActCalculator;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LanguageModelEngine implements EngineInterface {
 
-	private BookmarkReader reader;
-	private final Map<String, Map<Integer, Double>> userMaps;
-	private final Map<String, Map<Integer, Double>> resMaps;
-	private final Map<String, Double> topTags;
+	// what the lookups read - replaced on reload. The vectors in it are replaced on update but never modified and the
+	// tag names only grow, so lookups do not lock - the engine's lock only serializes the updates
+	private volatile Snapshot snapshot;
+	private final Map<String, Double> userDenoms;
+	private final Map<String, Double> resDenoms;
+	// replaced, never modified - readers may iterate over it
+	private volatile Map<String, Double> topTags;
+	// the number of tags in topTags (if there are as many) - at least the largest count requested
+	private volatile int topTagLimit = TagPopularity.DEFAULT_TOP_TAGS;
+	private TagPopularity popularity;
 
 	public LanguageModelEngine() {
 
-		this.userMaps = new HashMap<>();
-		this.resMaps = new HashMap<>();
+		BookmarkReader reader = new BookmarkReader(0, false);
+		this.snapshot = new Snapshot(reader, new HashMap<String, SparseVector>(), new HashMap<String, SparseVector>());
+		this.userDenoms = new HashMap<>();
+		this.resDenoms = new HashMap<>();
 		topTags = new LinkedHashMap<>();
 
-		reader = new BookmarkReader(0, false);
+		popularity = new TagPopularity(reader.getTagCounts());
 	}
 
 	public void loadFile(String filename) throws Exception {
-		Map<String, Map<Integer, Double>> userMaps = new HashMap<>();
-		Map<String, Map<Integer, Double>> resMaps = new HashMap<>();
+		Map<String, SparseVector> userMaps = new HashMap<>();
+		Map<String, SparseVector> resMaps = new HashMap<>();
+		Map<String, Double> userDenoms = new HashMap<>();
+		Map<String, Double> resDenoms = new HashMap<>();
 		BookmarkReader reader = new BookmarkReader(0, false);
 		reader.readFile(filename);
+		// the number of tag assignments the relative frequencies are based on - needed for updates
+		for (Bookmark data : reader.getBookmarks()) {
+			addCount(userDenoms, reader.getUsers().get(data.getUserID()), data.getTags().size());
+			addCount(resDenoms, reader.getResources().get(data.getWikiID()), data.getTags().size());
+		}
 
-		List<Map<Integer, Integer>> userStats = Utilities.getUserMaps(reader
-				.getBookmarks());
+		List<Map<Integer, Double>> userStats = Utilities.getRelativeTagMaps(reader.getBookmarks(), false);
 		int i = 0;
-		for (Map<Integer, Integer> map : userStats) {
-			Map<Integer, Double> resultMap = new HashMap<>();
-			for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
-				resultMap.put(entry.getKey(), (double) entry.getValue()
-						/ (double) Utilities.getMapCount(map));
-			}
-			userMaps.put(reader.getUsers().get(i++), resultMap);
+		for (Map<Integer, Double> map : userStats) {
+			userMaps.put(reader.getUsers().get(i++), SparseVector.valueOf(map));
 		}
-		List<Map<Integer, Integer>> resStats = Utilities.getResMaps(reader
-				.getBookmarks());
+		List<Map<Integer, Double>> resStats = Utilities.getRelativeTagMaps(reader.getBookmarks(), true);
 		i = 0;
-		for (Map<Integer, Integer> map : resStats) {
-			Map<Integer, Double> resultMap = new HashMap<>();
-			for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
-				resultMap.put(entry.getKey(), (double) entry.getValue()
-						/ (double) Utilities.getMapCount(map));
-			}
-			resMaps.put(reader.getResources().get(i++), resultMap);
+		for (Map<Integer, Double> map : resStats) {
+			resMaps.put(reader.getResources().get(i++), SparseVector.valueOf(map));
+		}
+
+		resetStructures(userMaps, resMaps, userDenoms, resDenoms, reader);
+	}
+
+	private static void addCount(Map<String, Double> counts, String key, int count) {
+		Double oldCount = counts.get(key);
+		counts.put(key, oldCount != null ? oldCount.doubleValue() + count : count);
+	}
+
+	/**
+	 * Adds the bookmark to the user's and the resource's tag frequencies and the tag counts without retraining.
+	 */
+	@Override
+	public synchronized void addBookmark(String user, String resource, List<String> tags, long timestamp) {
+		Snapshot snapshot = this.snapshot;
+		Bookmark data = snapshot.reader.addBookmark(user, resource, timestamp, tags, null);
+		if (data == null) {
+			return;
 		}
+		for (int tag : data.getTags()) {
+			this.popularity.increment(tag);
+		}
+		updateVector(snapshot.userMaps, this.userDenoms, user, data.getTags());
+		updateVector(snapshot.resMaps, this.resDenoms, resource, data.getTags());
+		this.topTags = this.popularity.getTopTags(snapshot.reader.getTags(), this.topTagLimit);
+	}
+
+	// copy-on-write - request threads might be reading the old vector right now
+	private static void updateVector(Map<String, SparseVector> maps, Map<String, Double> denoms, String key, List<Integer> tags) {
+		SparseVector values = maps.get(key);
+		values = (values != null ? values.copy() : new SparseVector(tags.size()));
+		Double denom = denoms.get(key);
+		denoms.put(key, ActCalculator.addActivation(values, denom != null ? denom.doubleValue() : 0.0, tags, 1.0));
+		maps.put(key, values);
+	}
+
+	private static SparseVector getVector(Map<String, SparseVector> maps, String key) {
+		return (key != null ? maps.get(key) : null);
+	}
 
-		resetStructures(userMaps, resMaps, reader);
+	/**
+	 * The tag frequencies do not decay, so the result is the same for every time.
+	 */
+	@Override
+	public Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count, long timestamp) {
+		return getTagsWithLikelihood(user, resource, topics, count);
 	}
 
-	public synchronized Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count) {
+	public Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count) {
 		if (count == null || count.doubleValue() < 1) {
 			count = 10;
 		}
-		Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>();
-		Map<Integer, Double> userMap = this.userMaps.get(user);
-		Map<Integer, Double> resMap = this.resMaps.get(resource);
+		if (count > this.topTagLimit) {
+			ensureTopTags(count);
+		}
+		Snapshot snapshot = this.snapshot;
+		SparseVector userMap = getVector(snapshot.userMaps, user);
+		SparseVector resMap = getVector(snapshot.resMaps, resource);
 		// user-based and resource-based
-		if (userMap != null) {
-			for (Map.Entry<Integer, Double> entry : userMap.entrySet()) {
-				resultMap.put(entry.getKey(), entry.getValue().doubleValue());
-			}
+		Map<Integer, Double> resultMap = EngineUtils.mergeAndSelect(userMap, resMap, count);
+		// sort and add MP tags if necessary
+		return EngineUtils.getTagMap(resultMap, snapshot.reader.getTags(), this.topTags, count);
+	}
+
+	/**
+	 * All queries of the batch read the same snapshot without the engine's lock, so updates go on during the batch.
+	 */
+	@Override
+	public List<Map<String, Double>> getTagsWithLikelihoodBatch(List<Query> queries) {
+		int maxCount = EngineUtils.getMaxCount(queries);
+		if (maxCount > this.topTagLimit) {
+			ensureTopTags(maxCount);
 		}
-		if (resMap != null) {
-			for (Map.Entry<Integer, Double> entry : resMap.entrySet()) {
-				double resVal = entry.getValue().doubleValue();
-				Double val = resultMap.get(entry.getKey());
-				resultMap.put(entry.getKey(),
-						val == null ? resVal : val.doubleValue() + resVal);
+		final Snapshot snapshot = this.snapshot;
+		return EngineUtils.runBatch(queries, new EngineUtils.BatchWorkerFactory() {
+			@Override
+			public EngineUtils.BatchWorker newWorker() {
+				return new BatchWorker(snapshot);
 			}
+		});
+	}
+
+	// publishes at least count top tags - the tags before the limit, so a reader of the new limit finds them
+	private synchronized void ensureTopTags(int count) {
+		if (count > this.topTagLimit) {
+			this.topTags = this.popularity.getTopTags(this.snapshot.reader.getTags(), count);
+			this.topTagLimit = count;
 		}
-		// sort and add MP tags if necessary
-		Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(
-				new DoubleMapComparator(resultMap));
+	}
 
-		sortedResultMap.putAll(resultMap);
-		int i = 0;
-		Map<String, Double> tagMap = new LinkedHashMap<>();
-		for (Map.Entry<Integer, Double> entry : sortedResultMap.entrySet()) {
-
-			if (i++ < count) {
-				tagMap.put(this.reader.getTags().get(entry.getKey()),
-						(double) entry.getValue());
-			} else {
-				break;
-			}
+	private class BatchWorker implements EngineUtils.BatchWorker {
+
+		private final Snapshot snapshot;
+		private TopKSelector selector = null;
+
+		private BatchWorker(Snapshot snapshot) {
+			this.snapshot = snapshot;
 		}
 
-		if (tagMap.size() < count) {
-			for (Map.Entry<String, Double> t : this.topTags.entrySet()) {
-				if (tagMap.size() < count) {
-					if (!tagMap.containsKey(t.getKey())) {
-						tagMap.put(t.getKey(), t.getValue());
-					}
-				} else {
-					break;
-				}
+		@Override
+		public Map<String, Double> getTagsWithLikelihood(Query query) {
+			int count = (query.getCount() == null || query.getCount().intValue() < 1 ? 10 : query.getCount().intValue());
+			if (this.selector == null || this.selector.getLimit() != count) {
+				this.selector = new TopKSelector(count);
 			}
+			SparseVector userMap = getVector(this.snapshot.userMaps, query.getUser());
+			SparseVector resMap = getVector(this.snapshot.resMaps, query.getResource());
+			Map<Integer, Double> resultMap = EngineUtils.mergeAndSelect(userMap, resMap, this.selector);
+			return EngineUtils.getTagMap(resultMap, this.snapshot.reader.getTags(), topTags, count);
 		}
-
-		return tagMap;
 	}
 
 	private synchronized void resetStructures(
-			Map<String, Map<Integer, Double>> userMaps,
-			Map<String, Map<Integer, Double>> resMaps, BookmarkReader reader) {
+			Map<String, SparseVector> userMaps,
+			Map<String, SparseVector> resMaps, Map<String, Double> userDenoms,
+			Map<String, Double> resDenoms, BookmarkReader reader) {
+
+		this.userDenoms.clear();
+		this.userDenoms.putAll(userDenoms);
+		this.resDenoms.clear();
+		this.resDenoms.putAll(resDenoms);
+
+		this.popularity = new TagPopularity(reader.getTagCounts());
+		this.topTags = this.popularity.getTopTags(reader.getTags(), this.topTagLimit);
+		this.snapshot = new Snapshot(reader, userMaps, resMaps);
+	}
 
-		this.reader = reader;
-		
-		this.userMaps.clear();
-		this.userMaps.putAll(userMaps);
+	private static class Snapshot {
 
-		this.resMaps.clear();
-		this.resMaps.putAll(resMaps);
+		private final BookmarkReader reader;
+		private final Map<String, SparseVector> userMaps;
+		private final Map<String, SparseVector> resMaps;
 
-		this.topTags.clear();
-		this.topTags.putAll(EngineUtils.calcTopTags(this.reader));
+		private Snapshot(BookmarkReader reader, Map<String, SparseVector> userMaps, Map<String, SparseVector> resMaps) {
+			this.reader = reader;
+			this.userMaps = new ConcurrentHashMap<String, SparseVector>(userMaps);
+			this.resMaps = new ConcurrentHashMap<String, SparseVector>(resMaps);
+		}
 	}
 }
@@ -0,0 +1,68 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package engine;
+
+import java.util.List;
+
+/**
+ * One request of a batch - see EngineInterface.getTagsWithLikelihoodBatch. The timestamp (in seconds) is the time the
+ * tags are recommended for; requests without one are answered for the time the batch started.
+ */
+public class Query {
+
+	private final String user;
+	private final String resource;
+	private final List<String> topics;
+	private final Integer count;
+	private final Long timestamp;
+
+	public Query(String user, String resource, List<String> topics, Integer count) {
+		this(user, resource, topics, count, null);
+	}
+
+	public Query(String user, String resource, List<String> topics, Integer count, Long timestamp) {
+		this.user = user;
+		this.resource = resource;
+		this.topics = topics;
+		this.count = count;
+		this.timestamp = timestamp;
+	}
+
+	public String getUser() {
+		return this.user;
+	}
+
+	public String getResource() {
+		return this.resource;
+	}
+
+	public List<String> getTopics() {
+		return this.topics;
+	}
+
+	public Integer getCount() {
+		return this.count;
+	}
+
+	public Long getTimestamp() {
+		return this.timestamp;
+	}
+}
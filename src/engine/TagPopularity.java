@@ -0,0 +1,119 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package engine;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tag counts kept in popularity order (descending count, ties by the newer tag first).
+ * A count only grows by one per usage, so a tag moves up by a few swaps instead of re-sorting all tags.
+ * Not thread-safe - the engines only modify it while holding their update lock and publish getTopTags() copies.
+ */
+class TagPopularity {
+
+	// the number of top tags the engines publish to fill up short result lists - raised to the largest count
+	// requested since, so a list is only filled up with less tags if there are not more
+	public final static int DEFAULT_TOP_TAGS = 100;
+
+	private int[] counts;
+	private int[] order;
+	private int[] positions;
+	private int size;
+	private long countSum;
+
+	public TagPopularity(List<Integer> tagCounts) {
+		this.size = tagCounts.size();
+		int capacity = Math.max(this.size, 16);
+		this.counts = new int[capacity];
+		this.order = new int[capacity];
+		this.positions = new int[capacity];
+		long[] sortKeys = new long[this.size];
+		for (int i = 0; i < this.size; i++) {
+			this.counts[i] = tagCounts.get(i).intValue();
+			this.countSum += this.counts[i];
+			sortKeys[i] = ((long)this.counts[i] << 32) | i;
+		}
+		Arrays.sort(sortKeys);
+		for (int i = 0; i < this.size; i++) {
+			int tag = (int)sortKeys[this.size - 1 - i];
+			this.order[i] = tag;
+			this.positions[tag] = i;
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getCount(int tag) {
+		return (tag < this.size ? this.counts[tag] : 0);
+	}
+
+	public long getCountSum() {
+		return this.countSum;
+	}
+
+	/**
+	 * Counts one usage of the tag; new tag IDs have to be added in ascending order (i.e., tag <= size()).
+	 */
+	public void increment(int tag) {
+		if (tag == this.size) {
+			if (this.size == this.counts.length) {
+				int capacity = this.size + (this.size >> 1);
+				this.counts = Arrays.copyOf(this.counts, capacity);
+				this.order = Arrays.copyOf(this.order, capacity);
+				this.positions = Arrays.copyOf(this.positions, capacity);
+			}
+			this.counts[tag] = 0;
+			this.order[this.size] = tag;
+			this.positions[tag] = this.size++;
+		}
+		this.counts[tag]++;
+		this.countSum++;
+		int pos = this.positions[tag];
+		while (pos > 0 && ranksBefore(tag, this.order[pos - 1])) {
+			int other = this.order[pos - 1];
+			this.order[pos] = other;
+			this.positions[other] = pos;
+			pos--;
+		}
+		this.order[pos] = tag;
+		this.positions[tag] = pos;
+	}
+
+	private boolean ranksBefore(int tag, int other) {
+		return this.counts[tag] > this.counts[other] || (this.counts[tag] == this.counts[other] && tag > other);
+	}
+
+	/**
+	 * Returns the most popular tags with their relative frequencies.
+	 */
+	public Map<String, Double> getTopTags(List<String> tags, int limit) {
+		Map<String, Double> tagMap = new LinkedHashMap<String, Double>();
+		for (int i = 0; i < this.size && i < limit; i++) {
+			tagMap.put(tags.get(this.order[i]), ((double)this.counts[this.order[i]]) / this.countSum);
+		}
+		return tagMap;
+	}
+}
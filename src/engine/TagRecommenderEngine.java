@@ -20,6 +20,8 @@
 
 package engine;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -69,4 +71,56 @@ public class TagRecommenderEngine implements EngineInterface {
 		}
 	}
 	
+	@Override
+	public Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count, long timestamp) {
+		if (topics != null && topics.size() > 0 && this.threelEngine != null) {
+			return this.threelEngine.getTagsWithLikelihood(user, resource, topics, count, timestamp);
+		} else if (this.bllEngine != null) {
+			return this.bllEngine.getTagsWithLikelihood(user, resource, topics, count, timestamp);
+		} else {
+			return this.lmEngine.getTagsWithLikelihood(user, resource, topics, count, timestamp);
+		}
+	}
+	
+	/**
+	 * Every query goes to the same engine as in getTagsWithLikelihood, each engine answers its part as one batch.
+	 */
+	@Override
+	public List<Map<String, Double>> getTagsWithLikelihoodBatch(List<Query> queries) {
+		List<Query> threelQueries = new ArrayList<Query>();
+		List<Query> otherQueries = new ArrayList<Query>();
+		boolean[] threel = new boolean[queries.size()];
+		for (int i = 0; i < queries.size(); i++) {
+			Query query = queries.get(i);
+			threel[i] = (query.getTopics() != null && query.getTopics().size() > 0 && this.threelEngine != null);
+			if (threel[i]) {
+				threelQueries.add(query);
+			} else {
+				otherQueries.add(query);
+			}
+		}
+		Iterator<Map<String, Double>> threelResults = (threelQueries.isEmpty() ? null :
+			this.threelEngine.getTagsWithLikelihoodBatch(threelQueries).iterator());
+		Iterator<Map<String, Double>> otherResults = (otherQueries.isEmpty() ? null :
+			(this.bllEngine != null ? this.bllEngine : this.lmEngine).getTagsWithLikelihoodBatch(otherQueries).iterator());
+		List<Map<String, Double>> results = new ArrayList<Map<String, Double>>(queries.size());
+		for (int i = 0; i < queries.size(); i++) {
+			results.add(threel[i] ? threelResults.next() : otherResults.next());
+		}
+		return results;
+	}
+	
+	@Override
+	public void addBookmark(String user, String resource, List<String> tags, long timestamp) {
+		if (this.threelEngine != null) {
+			this.threelEngine.addBookmark(user, resource, tags, timestamp);
+		}
+		if (this.bllEngine != null) {
+			this.bllEngine.addBookmark(user, resource, tags, timestamp);
+		}
+		if (this.lmEngine != null) {
+			this.lmEngine.addBookmark(user, resource, tags, timestamp);
+		}
+	}
+	
 }
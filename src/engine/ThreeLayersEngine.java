@@ -21,6 +21,7 @@
 package engine;
 
 import processing.ThreeLayersCalculator;
+import common.Bookmark;
 import file.BookmarkReader;
 
 import java.util.ArrayList;
@@ -33,12 +34,17 @@ public class ThreeLayersEngine implements EngineInterface {
 
 	private BookmarkReader reader = null;
 	private ThreeLayersCalculator calculator = null;
-	private final Map<String, Double> topTags;
+	// replaced, never modified - readers may iterate over it
+	private volatile Map<String, Double> topTags;
+	// the number of tags in topTags (if there are as many) - at least the largest count requested
+	private int topTagLimit = TagPopularity.DEFAULT_TOP_TAGS;
+	private TagPopularity popularity;
 
 	public ThreeLayersEngine() {
 		topTags = new LinkedHashMap<>();
 		
 		reader = new BookmarkReader(0, false);
+		popularity = new TagPopularity(reader.getTagCounts());
 	}
 	
 	public void loadFile(String filename) throws Exception {
@@ -59,6 +65,47 @@ public class ThreeLayersEngine implements EngineInterface {
 	}
 
 	public synchronized Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count) {
+		ensureTopTags(EngineUtils.getCount(count));
+		return getTags(user, resource, topics, count, System.currentTimeMillis() / 1000.0);
+	}
+
+	@Override
+	public synchronized Map<String, Double> getTagsWithLikelihood(String user, String resource, List<String> topics, Integer count, long timestamp) {
+		ensureTopTags(EngineUtils.getCount(count));
+		return getTags(user, resource, topics, count, timestamp);
+	}
+
+	/**
+	 * Holds the engine's lock for the whole batch, so the worker threads can read the structures without it.
+	 */
+	@Override
+	public synchronized List<Map<String, Double>> getTagsWithLikelihoodBatch(List<Query> queries) {
+		final double timestamp = System.currentTimeMillis() / 1000.0;
+		ensureTopTags(EngineUtils.getMaxCount(queries));
+		return EngineUtils.runBatch(queries, new EngineUtils.BatchWorkerFactory() {
+			@Override
+			public EngineUtils.BatchWorker newWorker() {
+				return new EngineUtils.BatchWorker() {
+					@Override
+					public Map<String, Double> getTagsWithLikelihood(Query query) {
+						return getTags(query.getUser(), query.getResource(), query.getTopics(), query.getCount(),
+								query.getTimestamp() != null ? query.getTimestamp().doubleValue() : timestamp);
+					}
+				};
+			}
+		});
+	}
+
+	// publishes at least count top tags - callers have to hold the engine's lock
+	private void ensureTopTags(int count) {
+		if (count > this.topTagLimit) {
+			this.topTagLimit = count;
+			this.topTags = this.popularity.getTopTags(this.reader.getTags(), this.topTagLimit);
+		}
+	}
+
+	// callers have to hold the engine's lock
+	private Map<String, Double> getTags(String user, String resource, List<String> topics, Integer count, double timestamp) {
 		if (count == null || count.doubleValue() < 1) {
 			count = 10;
 		}
@@ -66,12 +113,12 @@ public class ThreeLayersEngine implements EngineInterface {
 		if (this.reader == null || this.calculator == null) {
 			return tagMap;
 		}
-		int userID = this.reader.getUsers().indexOf(user);
-		int resID = this.reader.getResources().indexOf(resource);
+		int userID = this.reader.getUserDictionary().getID(user);
+		int resID = this.reader.getResourceDictionary().getID(resource);
 		List<Integer> topicIDs = new ArrayList<>();
 		if (topics != null) {
 			for (String t : topics) {
-				int tID = this.reader.getCategories().indexOf(t);
+				int tID = this.reader.getCategoryDictionary().getID(t);
 				if (tID != -1) {
 					topicIDs.add(tID);
 				}
@@ -79,25 +126,29 @@ public class ThreeLayersEngine implements EngineInterface {
 		}
 
 		Map<Integer, Double> tagIDs = this.calculator.getRankedTagList(userID,
-				resID, topicIDs, System.currentTimeMillis() / 1000.0, count,
+				resID, topicIDs, timestamp, count,
 				this.reader.hasTimestamp(), false);
-		for (Map.Entry<Integer, Double> tEntry : tagIDs.entrySet()) {
-			tagMap.put(this.reader.getTags().get(tEntry.getKey()), tEntry.getValue());
+		return EngineUtils.getTagMap(tagIDs, this.reader.getTags(), this.topTags, count);
+	}
+
+	/**
+	 * Adds the bookmark to the user's bookmarks, the resource's tag activations and the tag counts without retraining.
+	 * Online bookmarks carry no topics, so in the user-based part they only update the user's tag recencies.
+	 */
+	@Override
+	public synchronized void addBookmark(String user, String resource, List<String> tags, long timestamp) {
+		if (this.reader == null || this.calculator == null) {
+			return;
 		}
-		
-		if (tagMap.size() < count) {
-			for (Map.Entry<String, Double> t : this.topTags.entrySet()) {
-				if (tagMap.size() < count) {
-					if (!tagMap.containsKey(t.getKey())) {
-						tagMap.put(t.getKey(), t.getValue());
-					}
-				} else {
-					break;
-				}
-			}
+		Bookmark data = this.reader.addBookmark(user, resource, timestamp, tags, null);
+		if (data == null) {
+			return;
 		}
-
-		return tagMap;
+		this.calculator.addBookmark(data);
+		for (int tag : data.getTags()) {
+			this.popularity.increment(tag);
+		}
+		this.topTags = this.popularity.getTopTags(this.reader.getTags(), this.topTagLimit);
 	}
 
 	public synchronized void resetStructure(BookmarkReader reader,
@@ -105,7 +156,7 @@ public class ThreeLayersEngine implements EngineInterface {
 		this.reader = reader;
 		this.calculator = calculator;
 		
-		this.topTags.clear();
-		this.topTags.putAll(EngineUtils.calcTopTags(this.reader));
+		this.popularity = new TagPopularity(this.reader.getTagCounts());
+		this.topTags = this.popularity.getTopTags(this.reader.getTags(), this.topTagLimit);
 	}
 }
@@ -0,0 +1,428 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import common.BookmarkStore;
+import common.IdDictionary;
+import common.TextRegion;
+
+/**
+ * Binary form of a bookmark file, stored next to it as <filename>.bmk and written once by convert. It holds the
+ * dictionaries, the bookmarks as columns (see BookmarkStore) and the sizes of the training and test set, followed by
+ * the titles and descriptions, which are only decoded when they are used. The file is memory-mapped and the columns
+ * are read with bulk copies, so a reload costs a fraction of parsing the text file.
+ * BookmarkReader.readFile(filename) uses it instead of the text file as long as it is newer than that and was
+ * written with the same stemming and charset.
+ */
+public class BinaryDataset {
+
+	public static final String SUFFIX = ".bmk";
+	private static final int MAGIC = 0x424D4B01; // "BMK" + format version 1
+
+	private final boolean stemmed;
+	private final String charset;
+	private final int trainSize;
+	private final int testSize;
+	private final boolean hasTimestamp;
+	private final long lineCount;
+	private int textsPosition = -1;
+	private IdDictionary users;
+	private IdDictionary resources;
+	private IdDictionary tags;
+	private IdDictionary categories;
+	private BookmarkStore store;
+
+	private BinaryDataset(ByteBuffer in, File file) throws IOException {
+		if (in.getInt() != MAGIC) {
+			throw new IOException("no valid binary dataset: " + file);
+		}
+		this.stemmed = (in.get() != 0);
+		this.charset = readString(in);
+		this.trainSize = in.getInt();
+		this.testSize = in.getInt();
+		this.hasTimestamp = (in.get() != 0);
+		this.lineCount = in.getLong();
+	}
+
+	public static File getFile(String filename) {
+		return new File("./data/csv/" + filename + SUFFIX);
+	}
+
+	/**
+	 * Returns true if the binary dataset of the file can be used instead of the text file by a reader with the given
+	 * stemming and charset.
+	 */
+	public static boolean isUsable(String filename, boolean stemming, Charset charset) {
+		File file = getFile(filename);
+		File textFile = new File("./data/csv/" + filename + ".txt");
+		if (!file.exists() || (textFile.exists() && file.lastModified() < textFile.lastModified())) {
+			return false;
+		}
+		try {
+			BinaryDataset header = readHeader(file);
+			return header.stemmed == stemming && header.charset.equals(charset.name());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the header of the binary dataset if it knows the sizes of the training and test set and is newer than
+	 * the files they were taken from, null otherwise.
+	 */
+	public static BinaryDataset getSplitHeader(String filename) {
+		File file = getFile(filename);
+		if (!file.exists()) {
+			return null;
+		}
+		for (String suffix : new String[] {"", "_train", "_test"}) {
+			File textFile = new File("./data/csv/" + filename + suffix + ".txt");
+			if (textFile.exists() && file.lastModified() < textFile.lastModified()) {
+				return null;
+			}
+		}
+		try {
+			BinaryDataset header = readHeader(file);
+			return (header.trainSize >= 0 && header.testSize >= 0 ? header : null);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the text file with the given stemming and writes it as binary dataset. The sizes of the training and test
+	 * set are taken from <filename>_train and <filename>_test (-1 if they do not exist).
+	 */
+	public static File convert(String filename, boolean stemming) throws IOException {
+		BookmarkReader reader = new BookmarkReader(0, stemming, true);
+		if (!reader.readFile(filename, Runtime.getRuntime().availableProcessors())) {
+			throw new IOException("could not read " + filename);
+		}
+		int trainSize = getBookmarkCount(filename + "_train", stemming);
+		int testSize = getBookmarkCount(filename + "_test", stemming);
+		File file = getFile(filename);
+		write(reader, Charset.defaultCharset(), trainSize, testSize, file);
+		return file;
+	}
+
+	private static int getBookmarkCount(String filename, boolean stemming) {
+		if (!new File("./data/csv/" + filename + ".txt").exists()) {
+			return -1;
+		}
+		BookmarkReader reader = new BookmarkReader(0, stemming, true);
+		reader.readFile(filename, Runtime.getRuntime().availableProcessors());
+		return reader.getBookmarks().size();
+	}
+
+	/**
+	 * Writes the bookmarks of the reader to a temporary file first and moves it then, so readers never see a half
+	 * written dataset.
+	 */
+	public static void write(BookmarkReader reader, Charset charset, int trainSize, int testSize, File file) throws IOException {
+		BookmarkStore store = reader.getStore();
+		File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeBoolean(reader.isStemming());
+			writeString(out, charset.name());
+			out.writeInt(trainSize);
+			out.writeInt(testSize);
+			out.writeBoolean(reader.hasTimestamp());
+			out.writeLong(reader.getLineCount());
+			writeDictionary(out, reader.getUserDictionary());
+			writeDictionary(out, reader.getResourceDictionary());
+			writeDictionary(out, reader.getTagDictionary());
+			writeDictionary(out, reader.getCategoryDictionary());
+
+			int size = store.size();
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeInt(store.getUserID(i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(store.getWikiID(i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeLong(store.getTimestamp(i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeDouble(store.getRating(i));
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(store.getLine(i));
+			}
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				count += store.getTagCount(i);
+			}
+			out.writeInt(count);
+			for (int i = 0; i < size; i++) {
+				for (int j = 0; j < store.getTagCount(i); j++) {
+					out.writeInt(store.getTag(i, j));
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(store.getTagCount(i));
+			}
+			count = 0;
+			for (int i = 0; i < size; i++) {
+				count += store.getCategoryCount(i);
+			}
+			out.writeInt(count);
+			for (int i = 0; i < size; i++) {
+				for (int j = 0; j < store.getCategoryCount(i); j++) {
+					out.writeInt(store.getCategory(i, j));
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(store.getCategoryCount(i));
+			}
+
+			for (int i = 0; i < size; i++) {
+				writeString(out, store.getTitle(i));
+				writeString(out, store.getDescription(i));
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads the header only (stemming, charset, sizes of the training and test set, ...).
+	 */
+	public static BinaryDataset readHeader(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1024));
+			return new BinaryDataset(in, file);
+		} catch (RuntimeException e) { // e.g., BufferUnderflowException on a truncated file
+			throw new IOException("corrupt binary dataset: " + file, e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads the dictionaries and the bookmarks - the titles and descriptions are read when they are used first.
+	 */
+	public static BinaryDataset read(final File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer in = map(raf, file);
+			BinaryDataset dataset = new BinaryDataset(in, file);
+			dataset.users = readDictionary(in);
+			dataset.resources = readDictionary(in);
+			dataset.tags = readDictionary(in);
+			dataset.categories = readDictionary(in);
+
+			int size = in.getInt();
+			checkSize(in, size, 28);
+			int[] users = new int[size];
+			in.asIntBuffer().get(users);
+			in.position(in.position() + 4 * size);
+			int[] resources = new int[size];
+			in.asIntBuffer().get(resources);
+			in.position(in.position() + 4 * size);
+			long[] timestamps = new long[size];
+			in.asLongBuffer().get(timestamps);
+			in.position(in.position() + 8 * size);
+			double[] ratings = new double[size];
+			in.asDoubleBuffer().get(ratings);
+			in.position(in.position() + 8 * size);
+			int[] lines = new int[size];
+			in.asIntBuffer().get(lines);
+			in.position(in.position() + 4 * size);
+			int[][] tags = readValues(in, size);
+			int[][] categories = readValues(in, size);
+			final int textsPosition = in.position();
+			dataset.textsPosition = textsPosition;
+			dataset.store = BookmarkStore.of(users, resources, timestamps, ratings, lines, tags[0], tags[1], categories[0], categories[1]);
+			dataset.store.setTextLoader(new BookmarkStore.TextLoader() {
+				@Override
+				public TextRegion loadTexts(BookmarkStore store) throws Exception {
+					return readTexts(file, textsPosition, store.size());
+				}
+			});
+			return dataset;
+		} catch (RuntimeException e) {
+			throw new IOException("corrupt binary dataset: " + file, e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	// returns the offsets and the values of a CSR column
+	private static int[][] readValues(ByteBuffer in, int size) {
+		int count = in.getInt();
+		checkSize(in, count, 4);
+		int[] values = new int[count];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * count);
+		checkSize(in, size, 4);
+		int[] offsets = new int[size + 1];
+		for (int i = 0; i < size; i++) {
+			offsets[i + 1] = offsets[i] + in.getInt();
+		}
+		if (offsets[size] != count) {
+			throw new IllegalStateException("invalid value counts");
+		}
+		return new int[][] {offsets, values};
+	}
+
+	/**
+	 * Reads the titles and descriptions of the first size bookmarks (title of bookmark i at 2 * i, description at
+	 * 2 * i + 1), position is the one of the texts in the file (see getTextsPosition).
+	 */
+	public static TextRegion readTexts(File file, int position, int size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer in = map(raf, file);
+			in.position(position);
+			TextRegion texts = new TextRegion();
+			for (int i = 0; i < 2 * size; i++) {
+				texts.add(readString(in));
+			}
+			return texts;
+		} catch (RuntimeException e) {
+			throw new IOException("corrupt binary dataset: " + file, e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static ByteBuffer map(RandomAccessFile raf, File file) throws IOException {
+		FileChannel channel = raf.getChannel();
+		if (channel.size() > Integer.MAX_VALUE) {
+			throw new IOException("binary dataset too large to be mapped: " + file);
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	}
+
+	private static void checkSize(ByteBuffer in, int size, int bytesPerEntry) {
+		if (size < 0 || size > in.remaining() / bytesPerEntry) {
+			throw new IllegalStateException("invalid size " + size);
+		}
+	}
+
+	private static void writeDictionary(DataOutputStream out, IdDictionary dictionary) throws IOException {
+		out.writeInt(dictionary.size());
+		for (int i = 0; i < dictionary.size(); i++) {
+			writeString(out, dictionary.getName(i));
+		}
+	}
+
+	private static IdDictionary readDictionary(ByteBuffer in) {
+		int size = in.getInt();
+		checkSize(in, size, 4);
+		IdDictionary dictionary = new IdDictionary(size);
+		for (int i = 0; i < size; i++) {
+			dictionary.add(readString(in));
+		}
+		return dictionary;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// Getter -----------------------------------------------------------------------------------
+
+	public boolean isStemmed() {
+		return this.stemmed;
+	}
+
+	public String getCharset() {
+		return this.charset;
+	}
+
+	/**
+	 * Returns the number of bookmarks of the training set (<filename>_train) or -1 if it was not known.
+	 */
+	public int getTrainSize() {
+		return this.trainSize;
+	}
+
+	/**
+	 * Returns the number of bookmarks of the test set (<filename>_test) or -1 if it was not known.
+	 */
+	public int getTestSize() {
+		return this.testSize;
+	}
+
+	public boolean hasTimestamp() {
+		return this.hasTimestamp;
+	}
+
+	public long getLineCount() {
+		return this.lineCount;
+	}
+
+	public int getTextsPosition() {
+		return this.textsPosition;
+	}
+
+	public IdDictionary getUsers() {
+		return this.users;
+	}
+
+	public IdDictionary getResources() {
+		return this.resources;
+	}
+
+	public IdDictionary getTags() {
+		return this.tags;
+	}
+
+	public IdDictionary getCategories() {
+		return this.categories;
+	}
+
+	/**
+	 * Returns the bookmarks (null if only the header was read) - the line of a bookmark is the one in the text file.
+	 */
+	public BookmarkStore getStore() {
+		return this.store;
+	}
+}
@@ -20,118 +20,171 @@
 
 package file;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import org.apache.commons.lang3.StringUtils;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import common.Bookmark;
+import common.BookmarkIndex;
+import common.BookmarkStore;
+import common.IdDictionary;
+import common.TextRegion;
 import file.stemming.englishStemmer;
 
 public class BookmarkReader {
 	
+	// files from this size on are read in parallel chunks by readFile(filename)
+	private final static long PARALLEL_MIN_BYTES = 32L << 20;
+	
 	private final int countLimit;
 	private List<Bookmark> userLines;
-	private List<String> categories;
+	private BookmarkStore store; // only in columnar mode, userLines is its list view then
+	private FileTexts texts;
+	private IdDictionary categories;
 	
-	private List<String> tags;
-	private Map<String, Integer> tagMap;
+	private IdDictionary tags;
 	private List<Integer> tagCounts;
-	private List<String> resources;
-	private Map<String, Integer> resourceMap;
+	private IdDictionary resources;
 	private List<Integer> resourceCounts;
-	private List<String> users;
-	private Map<String, Integer> userMap;
+	private IdDictionary users;
 	private List<Integer> userCounts;
 	private englishStemmer stemmer;
 	
 	private boolean hasTimestamp = false;
+	private long lineCount = 0;
+	private final Map<Long, BookmarkIndex> indexes = new HashMap<Long, BookmarkIndex>(); // by range of the bookmarks
+	private boolean shared = false; // the state comes from the DatasetCache and has to be copied before it is changed
  	
 	public BookmarkReader(int countLimit, boolean stemming) {
+		this(countLimit, stemming, false);
+	}
+	
+	/**
+	 * In columnar mode the bookmarks are kept in a BookmarkStore: getBookmarks() is a read-only view on it and
+	 * titles and descriptions are only read from the file when they are accessed. Code that sorts or changes the
+	 * bookmarks in place needs the default mode.
+	 */
+	public BookmarkReader(int countLimit, boolean stemming, boolean columnar) {
 		this.countLimit = countLimit;
-		this.userLines = new ArrayList<Bookmark>();
-		this.categories = new ArrayList<String>();
+		if (columnar) {
+			this.store = new BookmarkStore();
+			this.texts = new FileTexts();
+			this.store.setTextLoader(this.texts);
+			this.userLines = this.store.asList();
+		} else {
+			this.userLines = new ArrayList<Bookmark>();
+		}
+		this.categories = new IdDictionary();
 		
-		this.tags = new ArrayList<String>();
-		this.tagMap = new HashMap<String, Integer>();
+		this.tags = new IdDictionary();
 		this.tagCounts = new ArrayList<Integer>();
-		this.resources = new ArrayList<String>();
-		this.resourceMap = new HashMap<String, Integer>();
+		this.resources = new IdDictionary();
 		this.resourceCounts = new ArrayList<Integer>();
-		this.users = new ArrayList<String>();
-		this.userMap = new HashMap<String, Integer>();
+		this.users = new IdDictionary();
 		this.userCounts = new ArrayList<Integer>();
 		if (stemming) {
 			this.stemmer = new englishStemmer();
 		}
 	}
 	
-	public boolean readFile(String filename) {	
-		try {
-			FileReader reader = new FileReader(new File("./data/csv/" + filename + ".txt"));
-			BufferedReader br = new BufferedReader(reader);
-			List<String> categories = new ArrayList<String>(), tags = new ArrayList<String>();
-			Bookmark userData = null;
-			String userID = "", wikiID = "", timestamp = "", title = "", description = "";
-			String[] lineParts = null;
-			String line;
-			
-			while ((line = br.readLine()) != null) {
-				lineParts = line.split("\";\"");
-				if (lineParts.length < 4) {
-					System.out.println("Line too short: " + this.userLines.size());
-					continue;
-				}
-				processUserData(userID, userData, tags, categories, wikiID);			
-				// reset userdata
-				userID = lineParts[0].replace("\"", "");
-				wikiID = lineParts[1].replace("\"", "");
-				timestamp = lineParts[2].replace("\"", "");
-				title = lineParts[6].replace("\"", "");
-				description = lineParts[7].replace("\"", "");
-				userData = new Bookmark(-1, -1, timestamp, title, description);
-				categories.clear();
-				tags.clear();
-				for (String tag : lineParts[3].replace("\"", "").split(",")) {
-					if (!tag.isEmpty()) {
-						String stemmedTag = tag.toLowerCase();
-						if (this.stemmer != null) {
-							this.stemmer.setCurrent(stemmedTag);
-							this.stemmer.stem();
-							stemmedTag = this.stemmer.getCurrent();
+	/**
+	 * Reads the binary form of the file if there is an up-to-date one (see BinaryDataset), the text file otherwise.
+	 * If the DatasetCache is enabled, an empty reader takes an already parsed dataset from there.
+	 */
+	public boolean readFile(final String filename) {
+		if (DatasetCache.isEnabled() && this.userLines.isEmpty() && this.users.size() == 0) {
+			final boolean stemming = (this.stemmer != null);
+			final boolean columnar = (this.store != null);
+			File source = (BinaryDataset.isUsable(filename, stemming, Charset.defaultCharset()) ? BinaryDataset.getFile(filename)
+					: new File("./data/csv/" + filename + ".txt"));
+			try {
+				adopt(DatasetCache.get(source, this.countLimit, stemming, columnar, new Callable<DatasetCache.Dataset>() {
+					@Override
+					public DatasetCache.Dataset call() throws Exception {
+						BookmarkReader reader = new BookmarkReader(BookmarkReader.this.countLimit, stemming, columnar);
+						if (!reader.readUncachedFile(filename)) {
+							throw new IOException("could not read " + filename);
 						}
-						tags.add(stemmedTag);
+						return reader.toDataset();
 					}
+				}));
+				return true;
+			} catch (IOException e) {
+				System.out.println("ERROR");
+				e.printStackTrace();
+				return false;
+			}
+		}
+		return readUncachedFile(filename);
+	}
+	
+	private boolean readUncachedFile(String filename) {
+		if (BinaryDataset.isUsable(filename, this.stemmer != null, Charset.defaultCharset())) {
+			try {
+				readBinaryFile(filename);
+				return true;
+			} catch (IOException e) {
+				e.printStackTrace(); // read the text file instead
+			}
+		}
+		File file = new File("./data/csv/" + filename + ".txt");
+		int parallelism = (file.length() >= PARALLEL_MIN_BYTES ? Runtime.getRuntime().availableProcessors() : 1);
+		return readFile(filename, parallelism);
+	}
+	
+	/**
+	 * Reads the file in up to parallelism line-aligned chunks at the same time. Every chunk is parsed into its own
+	 * dictionaries, which are merged in the order of the chunks afterwards. So the IDs, counts and the order of the
+	 * bookmarks are the same as with sequential reading. This always parses the text file.
+	 */
+	public boolean readFile(String filename, int parallelism) {
+		unshare();
+		clearIndexes();
+		try {
+			File file = new File("./data/csv/" + filename + ".txt");
+			Charset charset = Charset.defaultCharset();
+			List<FileChunk> chunks = new ArrayList<FileChunk>();
+			if (parallelism > 1 && BookmarkTokenizer.isSplittable(charset)) {
+				long[] bounds = BookmarkTokenizer.getLineAlignedBounds(file, parallelism);
+				for (int i = 0; i < bounds.length - 1; i++) {
+					chunks.add(new FileChunk(file, charset, bounds[i], bounds[i + 1], this.stemmer != null, this.store != null));
 				}
-				if (lineParts.length > 4) { // are there categories
-					for (String cat : lineParts[4].replace("\"", "").split(",")) {
-						if (!cat.isEmpty()) {
-							if (cat.contains("_")) {
-								categories.add(cat.substring(0, cat.indexOf("_")).toLowerCase());
-							} else {
-								categories.add(cat.toLowerCase());
-							}
-						}
+			} else {
+				chunks.add(new FileChunk(file, charset, 0, Long.MAX_VALUE, this.stemmer != null, this.store != null));
+			}
+			
+			if (chunks.size() > 1) {
+				ForkJoinPool pool = new ForkJoinPool(chunks.size());
+				try {
+					for (Future<FileChunk> future : pool.invokeAll(chunks)) {
+						future.get(); // throws the exception of a failed chunk
 					}
+				} finally {
+					pool.shutdown();
 				}
-				if (lineParts.length > 5) { // is there a rating?
-					try {
-						userData.setRating(Double.parseDouble(lineParts[5].replace("\"", "")));
-					} catch (Exception e) { /* do nothing */ }
-				}
-				
-				// TODO ----------------------
-				// extend common/Bookmark class with fields for title (= lineParts[6]) and description (= lineParts[7])
+			} else {
+				chunks.get(0).call();
+			}
+			this.lineCount = 0;
+			int firstIndex = this.userLines.size();
+			for (FileChunk chunk : chunks) {
+				merge(chunk);
+			}
+			if (this.store != null) {
+				this.texts.addFile(file, charset, firstIndex, this.store.size() - firstIndex);
+				this.store.setTextLoader(this.texts); // drops texts loaded before
+				this.store.trimToSize();
 			}
-			processUserData(userID, userData, tags, categories, wikiID); // last user
-			br.close();
 			return true;
 		} catch (Exception e) {
 			System.out.println("ERROR");
@@ -140,75 +193,221 @@ public class BookmarkReader {
 		return false;
 	}
 	
-	private void processUserData(String userID, Bookmark userData, List<String> tags, List<String> categories, String wikiID) {
-		if (userID != "" && tags.size() > 0/* && !userData.getTimestamp().isEmpty()*/) {
-			if (!userData.getTimestamp().isEmpty()) {
-				if (!StringUtils.isNumeric(userData.getTimestamp())) {
-					System.out.println("Invalid timestamp");
-					return;
+	private void readBinaryFile(String filename) throws IOException {
+		BinaryDataset dataset = BinaryDataset.read(BinaryDataset.getFile(filename));
+		FileChunk chunk = new FileChunk(dataset, this.store != null);
+		unshare();
+		clearIndexes();
+		this.lineCount = 0;
+		int firstIndex = this.userLines.size();
+		merge(chunk);
+		if (this.store != null) {
+			this.texts.addDataset(BinaryDataset.getFile(filename), dataset.getTextsPosition(), firstIndex, this.store.size() - firstIndex);
+			this.store.setTextLoader(this.texts);
+			this.store.trimToSize();
+		}
+	}
+	
+	private DatasetCache.Dataset toDataset() {
+		return new DatasetCache.Dataset(Collections.unmodifiableList(this.userLines), this.store, this.texts, this.users,
+				this.resources, this.tags, this.categories, Collections.unmodifiableList(this.userCounts),
+				Collections.unmodifiableList(this.resourceCounts), Collections.unmodifiableList(this.tagCounts),
+				this.hasTimestamp, this.lineCount);
+	}
+	
+	private void adopt(DatasetCache.Dataset dataset) {
+		if (dataset.store != null) {
+			this.store = dataset.store;
+			this.texts = dataset.texts;
+			this.userLines = this.store.asList();
+		} else {
+			this.userLines = new ArrayList<Bookmark>(dataset.bookmarks.size());
+			for (Bookmark data : dataset.bookmarks) {
+				this.userLines.add(new Bookmark(data)); // the cached objects stay unchanged for the next reader
+			}
+		}
+		this.users = dataset.users;
+		this.resources = dataset.resources;
+		this.tags = dataset.tags;
+		this.categories = dataset.categories;
+		this.userCounts = dataset.userCounts;
+		this.resourceCounts = dataset.resourceCounts;
+		this.tagCounts = dataset.tagCounts;
+		this.hasTimestamp = dataset.hasTimestamp;
+		this.lineCount = dataset.lineCount;
+		this.shared = true;
+		clearIndexes();
+	}
+	
+	// copies the state taken from the DatasetCache before it is changed
+	private void unshare() {
+		if (!this.shared) {
+			return;
+		}
+		if (this.store != null) {
+			this.store = this.store.copy();
+			this.texts = this.texts.copy();
+			this.userLines = this.store.asList();
+		}
+		this.users = new IdDictionary(this.users.asList());
+		this.resources = new IdDictionary(this.resources.asList());
+		this.tags = new IdDictionary(this.tags.asList());
+		this.categories = new IdDictionary(this.categories.asList());
+		this.userCounts = new ArrayList<Integer>(this.userCounts);
+		this.resourceCounts = new ArrayList<Integer>(this.resourceCounts);
+		this.tagCounts = new ArrayList<Integer>(this.tagCounts);
+		this.shared = false;
+	}
+	
+	// adds the bookmarks of a chunk - its IDs are mapped to the ones of the reader in the order of first occurrence
+	private void merge(FileChunk chunk) {
+		for (int[] message : chunk.messages) {
+			if (message[0] == FileChunk.LINE_TOO_SHORT) {
+				System.out.println("Line too short: " + (this.userLines.size() + message[1]));
+			} else if (message[0] == FileChunk.INVALID_TIMESTAMP) {
+				System.out.println("Invalid timestamp");
+			}
+		}
+		int[] userIDs = addAll(this.users, chunk.users);
+		int[] resIDs = addAll(this.resources, chunk.resources);
+		int[] tagIDs = addAll(this.tags, chunk.tags);
+		int[] catIDs = addAll(this.categories, chunk.categories);
+		if (chunk.store != null) {
+			mergeStore(chunk, userIDs, resIDs, tagIDs, catIDs);
+		}
+		for (Bookmark userData : chunk.bookmarks) {
+			boolean doCount = (this.countLimit == 0 || this.userLines.size() < this.countLimit);
+			userData.setUserID(userIDs[userData.getUserID()]);
+			count(this.userCounts, userData.getUserID(), doCount);
+			userData.setWikiID(resIDs[userData.getWikiID()]);
+			count(this.resourceCounts, userData.getWikiID(), doCount);
+			List<Integer> cats = userData.getCategories();
+			for (int i = 0; i < cats.size(); i++) {
+				cats.set(i, catIDs[cats.get(i)]);
+			}
+			List<Integer> tags = userData.getTags();
+			for (int i = 0; i < tags.size(); i++) {
+				int tagIndex = tagIDs[tags.get(i)];
+				tags.set(i, tagIndex);
+				count(this.tagCounts, tagIndex, doCount);
+			}
+			this.userLines.add(userData);
+		}
+		if (chunk.hasTimestamp) {
+			this.hasTimestamp = true;
+		}
+		this.lineCount += chunk.lineCount;
+	}
+	
+	// like merge for a chunk in columnar mode - the line numbers become the ones of the file
+	private void mergeStore(FileChunk chunk, int[] userIDs, int[] resIDs, int[] tagIDs, int[] catIDs) {
+		BookmarkStore chunkStore = chunk.store;
+		int[] tags = new int[16], cats = new int[4];
+		BookmarkStore.Cursor cursor = chunkStore.cursor();
+		while (cursor.next()) {
+			boolean doCount = (this.countLimit == 0 || this.store.size() < this.countLimit);
+			int userID = userIDs[cursor.getUserID()];
+			count(this.userCounts, userID, doCount);
+			int resID = resIDs[cursor.getWikiID()];
+			count(this.resourceCounts, resID, doCount);
+			if (cursor.getTagCount() > tags.length) {
+				tags = new int[cursor.getTagCount()];
+			}
+			for (int i = 0; i < cursor.getTagCount(); i++) {
+				tags[i] = tagIDs[cursor.getTag(i)];
+				count(this.tagCounts, tags[i], doCount);
+			}
+			if (cursor.getCategoryCount() > cats.length) {
+				cats = new int[cursor.getCategoryCount()];
+			}
+			for (int i = 0; i < cursor.getCategoryCount(); i++) {
+				cats[i] = catIDs[cursor.getCategory(i)];
+			}
+			int line = chunkStore.getLine(cursor.getIndex());
+			this.store.add(userID, resID, cursor.getTimestamp(), cursor.getRating(), tags, cursor.getTagCount(), cats,
+					cursor.getCategoryCount(), line >= 0 ? (int)this.lineCount + line : -1);
+		}
+	}
+	
+	private static int[] addAll(IdDictionary dictionary, IdDictionary chunkDictionary) {
+		int[] ids = new int[chunkDictionary.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = dictionary.add(chunkDictionary.getName(i));
+		}
+		return ids;
+	}
+	
+	// counts an occurrence of the ID - a new ID comes with the next free index and starts with 1 (or 0 beyond the count limit)
+	private static void count(List<Integer> counts, int id, boolean doCount) {
+		if (id == counts.size()) {
+			counts.add(doCount ? 1 : 0);
+		} else if (doCount) {
+			counts.set(id, counts.get(id) + 1);
+		}
+	}
+	
+	private static String stemTag(String tag, englishStemmer stemmer) {
+		String stemmedTag = tag.toLowerCase();
+		if (stemmer != null) {
+			stemmer.setCurrent(stemmedTag);
+			stemmer.stem();
+			stemmedTag = stemmer.getCurrent();
+		}
+		return stemmedTag;
+	}
+	
+	/**
+	 * Adds a bookmark that does not come from the file (e.g., an online update of an engine). Tags and categories are
+	 * processed like the ones of the file. Returns the new bookmark or null if it was rejected (e.g., no tags).
+	 */
+	public Bookmark addBookmark(String userID, String wikiID, long timestamp, List<String> tags, List<String> categories) {
+		List<String> stemmedTags = new ArrayList<String>();
+		for (String tag : tags) {
+			if (!tag.isEmpty()) {
+				stemmedTags.add(stemTag(tag, this.stemmer));
+			}
+		}
+		List<String> lowerCats = new ArrayList<String>();
+		if (categories != null) {
+			for (String cat : categories) {
+				if (!cat.isEmpty()) {
+					lowerCats.add(cat.toLowerCase());
 				}
+			}
+		}
+		int size = this.userLines.size();
+		processUserData(userID, new Bookmark(-1, -1, timestamp, "", ""), stemmedTags, lowerCats, wikiID);
+		return (this.userLines.size() > size ? this.userLines.get(size) : null);
+	}
+	
+	private void processUserData(String userID, Bookmark userData, List<String> tags, List<String> categories, String wikiID) {
+		if (userData != null && userID != "" && tags.size() > 0/* && userData.hasTimestamp()*/) {
+			unshare();
+			if (userData.hasTimestamp()) {
 				this.hasTimestamp = true;
 			}
+			clearIndexes();
 			
 			boolean doCount = (this.countLimit == 0 || this.userLines.size() < this.countLimit);
-			//int userIndex = this.users.indexOf(userID);
-			Integer userIndex = this.userMap.get(userID);
-			if (userIndex == null) {
-				this.users.add(userID);
-				if (doCount) {
-					this.userCounts.add(1);
-				} else {
-					this.userCounts.add(0);
-				}
-				userIndex = this.users.size() - 1;
-				this.userMap.put(userID, userIndex);
-			} else if (doCount) {
-				this.userCounts.set(userIndex, this.userCounts.get(userIndex) + 1);
-			}
+			int userIndex = this.users.add(userID);
+			count(this.userCounts, userIndex, doCount);
 			userData.setUserID(userIndex);
-			//int resIndex = this.resources.indexOf(wikiID);
-			Integer resIndex = this.resourceMap.get(wikiID);
-			if (resIndex == null) {
-				this.resources.add(wikiID);
-				if (doCount) {
-					this.resourceCounts.add(1);
-				} else {
-					this.resourceCounts.add(0);
-				}
-				resIndex = this.resources.size() - 1;
-				this.resourceMap.put(wikiID, resIndex);
-			} else if (doCount) {
-				this.resourceCounts.set(resIndex, this.resourceCounts.get(resIndex) + 1);
-			}
+			int resIndex = this.resources.add(wikiID);
+			count(this.resourceCounts, resIndex, doCount);
 			userData.setWikiID(resIndex);
 			
 			for (String cat : categories) {
-				int index = 0;
-				if (!this.categories.contains(cat)) {
-					this.categories.add(cat);
-					index = this.categories.size() - 1;
-				} else {
-					index = this.categories.indexOf(cat);
-				}
-				userData.getCategories().add(index);
+				userData.getCategories().add(this.categories.add(cat));
 			}			
 			for (String tag : tags) {
-				//int tagIndex = this.tags.indexOf(tag);
-				Integer tagIndex = this.tagMap.get(tag);
-				if (tagIndex == null) { // new tag
-					this.tags.add(tag);
-					if (doCount) {
-						this.tagCounts.add(1);
-					} else {
-						this.tagCounts.add(0);
-					}
-					tagIndex = this.tags.size() - 1;
-					this.tagMap.put(tag, tagIndex);
-				} else if (doCount) {
-					this.tagCounts.set(tagIndex, this.tagCounts.get(tagIndex) + 1);
-				}
+				int tagIndex = this.tags.add(tag);
+				count(this.tagCounts, tagIndex, doCount);
 				userData.getTags().add(tagIndex);
 			}
+			if (this.store != null) {
+				this.store.add(userData, -1);
+				return;
+			}
 			this.userLines.add(userData);
 			//if (this.userLines.size() % 100000 == 0) {
 			//	System.out.println("Read in 10000000 lines");
@@ -219,6 +418,9 @@ public class BookmarkReader {
 	// Getter + setter --------------------------------------------------------------------------------------------------------------------
 	
 	public int getTagAssignmentsCount() {
+		if (this.store != null && this.countLimit == 0) {
+			return this.store.getTagAssignmentsCount();
+		}
 		int sum = 0;
 		int count = 0;
 		for (Bookmark data : this.userLines) {
@@ -233,15 +435,60 @@ public class BookmarkReader {
 		return this.userLines;
 	}
 	
+	/**
+	 * Returns the bookmarks in columnar form - in the default mode this is a copy of the current bookmarks.
+	 */
+	public BookmarkStore getStore() {
+		return (this.store != null ? this.store : BookmarkStore.of(this.userLines));
+	}
+	
+	// leaves the columnar mode, the given list is used from now on
 	public void setUserLines(List<Bookmark> userLines) {
 		this.userLines = userLines;
+		this.store = null;
+		clearIndexes();
+	}
+	
+	/**
+	 * Returns the posting index of the bookmarks from (inclusive) to to (exclusive), e.g., 0 and trainSize for the
+	 * training set. It is built once and shared by all callers until the bookmarks are changed by the reader - code
+	 * that sorts the bookmarks itself has to do so before.
+	 */
+	public synchronized BookmarkIndex getBookmarkIndex(int from, int to) {
+		Long key = ((long)from << 32) | to;
+		BookmarkIndex index = this.indexes.get(key);
+		if (index == null) {
+			index = new BookmarkIndex(this.userLines.subList(from, to));
+			this.indexes.put(key, index);
+		}
+		return index;
+	}
+	
+	private synchronized void clearIndexes() {
+		this.indexes.clear();
+	}
+	
+	public boolean isColumnar() {
+		return this.store != null;
+	}
+	
+	public boolean isStemming() {
+		return this.stemmer != null;
 	}
 	
 	public List<String> getCategories() {
+		return this.categories.asList();
+	}
+	
+	public IdDictionary getCategoryDictionary() {
 		return this.categories;
 	}
 	
 	public List<String> getTags() {
+		return this.tags.asList();
+	}
+	
+	public IdDictionary getTagDictionary() {
 		return this.tags;
 	}
 	
@@ -250,6 +497,10 @@ public class BookmarkReader {
 	}
 	
 	public List<String> getResources() {
+		return this.resources.asList();
+	}
+	
+	public IdDictionary getResourceDictionary() {
 		return this.resources;
 	}
 	
@@ -258,6 +509,10 @@ public class BookmarkReader {
 	}
 	
 	public List<String> getUsers() {
+		return this.users.asList();
+	}
+	
+	public IdDictionary getUserDictionary() {
 		return this.users;
 	}
 	
@@ -269,19 +524,23 @@ public class BookmarkReader {
 		return this.countLimit;
 	}
 	
+	/**
+	 * Returns the number of lines of the last file read (including skipped ones).
+	 */
+	public long getLineCount() {
+		return this.lineCount;
+	}
+	
 	public boolean hasTimestamp() {
 		return this.hasTimestamp;
 	}
 	
 	public String getTagName(int id) {
-		return tags.get(id); 
+		return tags.getName(id); 
 	}
 	
 	public int getTagId(String tag) {
-		if (tagMap.containsKey(tag))
-			return tagMap.get(tag);
-		else
-			return -1;
+		return tags.getID(tag);
 	}
 	
 	public List<Integer> getUniqueUserListFromTestSet(int trainSize) {
@@ -322,4 +581,257 @@ public class BookmarkReader {
 		
 		return resourcesMap;
 	}
-}
\ No newline at end of file
+	
+	// Chunks -----------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * A line-aligned byte range of a file parsed on its own: the bookmarks refer to the chunk's dictionaries until
+	 * they are merged into the reader. Messages are kept to be printed in file order during the merge.
+	 */
+	private static class FileChunk implements Callable<FileChunk> {
+		
+		final static int LINE_TOO_SHORT = 0;
+		final static int INVALID_TIMESTAMP = 1;
+		
+		private final File file;
+		private final Charset charset;
+		private final long start;
+		private final long end;
+		private final englishStemmer stemmer;
+		
+		final IdDictionary users;
+		final IdDictionary resources;
+		final IdDictionary tags;
+		final IdDictionary categories;
+		final List<Bookmark> bookmarks = new ArrayList<Bookmark>();
+		final BookmarkStore store; // instead of the bookmarks in columnar mode, with the lines within the chunk
+		final List<int[]> messages = new ArrayList<int[]>(); // type and position in the bookmarks
+		boolean hasTimestamp = false;
+		long lineCount = 0;
+		private int[] tagBuffer = new int[16];
+		private int[] categoryBuffer = new int[4];
+		
+		FileChunk(File file, Charset charset, long start, long end, boolean stemming, boolean columnar) {
+			this.file = file;
+			this.charset = charset;
+			this.start = start;
+			this.end = end;
+			this.stemmer = (stemming ? new englishStemmer() : null);
+			this.users = new IdDictionary();
+			this.resources = new IdDictionary();
+			this.tags = new IdDictionary();
+			this.categories = new IdDictionary();
+			this.store = (columnar ? new BookmarkStore() : null);
+		}
+		
+		// an already parsed chunk with the content of a binary dataset
+		FileChunk(BinaryDataset dataset, boolean columnar) {
+			this.file = null;
+			this.charset = null;
+			this.start = 0;
+			this.end = 0;
+			this.stemmer = null;
+			this.users = dataset.getUsers();
+			this.resources = dataset.getResources();
+			this.tags = dataset.getTags();
+			this.categories = dataset.getCategories();
+			this.hasTimestamp = dataset.hasTimestamp();
+			this.lineCount = dataset.getLineCount();
+			BookmarkStore store = dataset.getStore();
+			if (columnar) {
+				this.store = store;
+			} else {
+				this.store = null;
+				for (int i = 0; i < store.size(); i++) {
+					this.bookmarks.add(store.getBookmark(i)); // the texts are decoded when they are used first
+				}
+			}
+		}
+		
+		private int size() {
+			return (this.store != null ? this.store.size() : this.bookmarks.size());
+		}
+		
+		@Override
+		public FileChunk call() throws Exception {
+			BookmarkTokenizer tokenizer = new BookmarkTokenizer(this.file, this.charset, this.start, this.end);
+			List<String> categories = new ArrayList<String>(), tags = new ArrayList<String>();
+			List<String> parts = new ArrayList<String>();
+			Bookmark userData = null;
+			String userID = "", wikiID = "", title = "", description = "";
+			int line = -1;
+			
+			while (tokenizer.nextLine()) {
+				if (tokenizer.getFieldCount() < 4) {
+					this.messages.add(new int[] {LINE_TOO_SHORT, size()});
+					continue;
+				}
+				add(userID, userData, tags, categories, wikiID, line);			
+				// reset userdata
+				userID = tokenizer.getString(0);
+				wikiID = tokenizer.getString(1);
+				line = (int)tokenizer.getLineCount() - 1;
+				// title and description are optional - in columnar mode they are read on demand
+				if (this.store == null) {
+					title = tokenizer.getString(6);
+					description = tokenizer.getString(7);
+				}
+				// the timestamp is parsed once here, everything else works on the numeric value
+				if (tokenizer.isEmpty(2)) {
+					userData = new Bookmark(-1, -1, Bookmark.NO_TIMESTAMP, title, description);
+				} else if (tokenizer.isNumeric(2)) {
+					userData = new Bookmark(-1, -1, tokenizer.getLong(2), title, description);
+				} else {
+					userData = null; // reported by add if the line would have been a bookmark
+				}
+				categories.clear();
+				tags.clear();
+				parts.clear();
+				tokenizer.split(3, ',', parts);
+				for (String tag : parts) {
+					tags.add(stemTag(tag, this.stemmer));
+				}
+				if (tokenizer.getFieldCount() > 4) { // are there categories
+					parts.clear();
+					tokenizer.split(4, ',', parts);
+					for (String cat : parts) {
+						if (cat.contains("_")) {
+							categories.add(cat.substring(0, cat.indexOf("_")).toLowerCase());
+						} else {
+							categories.add(cat.toLowerCase());
+						}
+					}
+				}
+				if (userData != null && tokenizer.getFieldCount() > 5 && !tokenizer.isEmpty(5)) { // is there a rating?
+					try {
+						userData.setRating(Double.parseDouble(tokenizer.getString(5)));
+					} catch (Exception e) { /* do nothing */ }
+				}
+			}
+			add(userID, userData, tags, categories, wikiID, line); // last user
+			this.lineCount = tokenizer.getLineCount();
+			tokenizer.close();
+			return this;
+		}
+		
+		// like processUserData but with the chunk's dictionaries and without counting
+		private void add(String userID, Bookmark userData, List<String> tags, List<String> categories, String wikiID, int line) {
+			if (userID != "" && tags.size() > 0) {
+				if (userData == null) {
+					this.messages.add(new int[] {INVALID_TIMESTAMP, size()});
+					return;
+				}
+				if (userData.hasTimestamp()) {
+					this.hasTimestamp = true;
+				}
+				if (this.store != null) {
+					addToStore(userID, userData, tags, categories, wikiID, line);
+					return;
+				}
+				userData.setUserID(this.users.add(userID));
+				userData.setWikiID(this.resources.add(wikiID));
+				for (String cat : categories) {
+					userData.getCategories().add(this.categories.add(cat));
+				}
+				for (String tag : tags) {
+					userData.getTags().add(this.tags.add(tag));
+				}
+				this.bookmarks.add(userData);
+			}
+		}
+		
+		private void addToStore(String userID, Bookmark userData, List<String> tags, List<String> categories, String wikiID, int line) {
+			if (tags.size() > this.tagBuffer.length) {
+				this.tagBuffer = new int[tags.size()];
+			}
+			for (int i = 0; i < tags.size(); i++) {
+				this.tagBuffer[i] = this.tags.add(tags.get(i));
+			}
+			if (categories.size() > this.categoryBuffer.length) {
+				this.categoryBuffer = new int[categories.size()];
+			}
+			for (int i = 0; i < categories.size(); i++) {
+				this.categoryBuffer[i] = this.categories.add(categories.get(i));
+			}
+			this.store.add(this.users.add(userID), this.resources.add(wikiID), userData.getTimestamp(), userData.getRating(),
+					this.tagBuffer, tags.size(), this.categoryBuffer, categories.size(), line);
+		}
+	}
+	
+	// Texts ------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Loads the titles and descriptions of a columnar reader by reading its files again - each file holds count
+	 * bookmarks from its first index on, bookmarks added otherwise (e.g., addBookmark) get empty texts.
+	 */
+	static class FileTexts implements BookmarkStore.TextLoader {
+		
+		private final List<Segment> segments = new ArrayList<Segment>();
+		
+		FileTexts copy() {
+			FileTexts copy = new FileTexts();
+			copy.segments.addAll(this.segments);
+			return copy;
+		}
+		
+		void addFile(File file, Charset charset, int firstIndex, int count) {
+			this.segments.add(new Segment(file, charset, -1, firstIndex, count));
+		}
+		
+		void addDataset(File file, int textsPosition, int firstIndex, int count) {
+			this.segments.add(new Segment(file, null, textsPosition, firstIndex, count));
+		}
+		
+		@Override
+		public TextRegion loadTexts(BookmarkStore store) throws Exception {
+			TextRegion texts = new TextRegion();
+			for (Segment segment : this.segments) {
+				addEmptyTexts(texts, segment.firstIndex);
+				if (segment.textsPosition >= 0) { // a binary dataset
+					TextRegion datasetTexts = BinaryDataset.readTexts(segment.file, segment.textsPosition, segment.count);
+					for (int i = 0; i < 2 * segment.count; i++) {
+						texts.add(datasetTexts.get(i));
+					}
+					continue;
+				}
+				BookmarkTokenizer tokenizer = new BookmarkTokenizer(segment.file, segment.charset);
+				try {
+					long line = -1;
+					for (int i = segment.firstIndex; i < segment.firstIndex + segment.count; i++) {
+						while (line < store.getLine(i) && tokenizer.nextLine()) {
+							line = tokenizer.getLineCount() - 1;
+						}
+						texts.add(tokenizer.getString(6));
+						texts.add(tokenizer.getString(7));
+					}
+				} finally {
+					tokenizer.close();
+				}
+			}
+			addEmptyTexts(texts, store.size());
+			return texts;
+		}
+		
+		private static void addEmptyTexts(TextRegion texts, int size) {
+			while (texts.size() < 2 * size) {
+				texts.add("");
+			}
+		}
+		
+		private static class Segment {
+			final File file;
+			final Charset charset;
+			final int textsPosition;
+			final int firstIndex;
+			final int count;
+			
+			Segment(File file, Charset charset, int textsPosition, int firstIndex, int count) {
+				this.file = file;
+				this.charset = charset;
+				this.textsPosition = textsPosition;
+				this.firstIndex = firstIndex;
+				this.count = count;
+			}
+		}
+	}
+}
@@ -241,7 +241,7 @@ public class BookmarkSplitter {
 			for (Bookmark bookmark : userSample) {
 				bw.write("\"" + reader.getUsers().get(bookmark.getUserID()).replace("\"", "") + "\";");
 				bw.write("\"" + reader.getResources().get(bookmark.getWikiID()).replace("\"", "") + "\";");
-				bw.write("\"" + bookmark.getTimestamp().replace("\"", "") + "\";\"");
+				bw.write("\"" + bookmark.getTimestampString() + "\";\"");
 				int i = 0;
 				for (int tag : bookmark.getTags()) {
 					bw.write(URLEncoder.encode(reader.getTags().get(tag).replace("\"", ""), "UTF-8"));
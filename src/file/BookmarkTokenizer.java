@@ -0,0 +1,361 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-pass tokenizer for the bookmark files ("user";"resource";"timestamp";"tags";...). The file is read through a
+ * large NIO buffer and decoded chunk-wise; each line is split into its fields in place in one reusable char array,
+ * so no String is created for a line or a field unless it is requested.
+ * The fields are the same as with line.split("\";\"") and removing all quotes: lines end at \n, \r or \r\n and
+ * trailing fields without any characters are dropped. Fields beyond getFieldCount() read as empty.
+ */
+public class BookmarkTokenizer implements Closeable {
+
+	private final static int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+	private final CharsetDecoder decoder;
+	private final ByteBuffer bytes;
+	private final CharBuffer chars;
+	private long remainingBytes;
+	private boolean endOfInput = false;
+	private boolean finished = false;
+	private boolean skipLineFeed = false;
+
+	private char[] line = new char[1024];
+	private int[] fieldStarts = new int[16];
+	private int[] fieldEnds = new int[16];
+	private int fieldCount = 0;
+	private long lineCount = 0;
+
+	public BookmarkTokenizer(File file) throws IOException {
+		this(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Malformed input is replaced like FileReader does.
+	 */
+	public BookmarkTokenizer(File file, Charset charset) throws IOException {
+		this(file, charset, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the bytes from start (inclusive) to end (exclusive) only - both have to be line starts (see
+	 * getLineAlignedBounds) or the end of the file.
+	 */
+	public BookmarkTokenizer(File file, Charset charset, long start, long end) throws IOException {
+		this.channel = new FileInputStream(file).getChannel();
+		this.channel.position(start);
+		this.remainingBytes = end - start;
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate(BUFFER_SIZE); // heap buffers let the decoders work on the arrays
+		this.chars = CharBuffer.allocate(BUFFER_SIZE);
+		this.chars.flip();
+	}
+
+	/**
+	 * Moves to the next line and returns false at the end of the file.
+	 */
+	public boolean nextLine() throws IOException {
+		int length = readLine();
+		if (length < 0) {
+			this.fieldCount = 0;
+			return false;
+		}
+		tokenize(length);
+		this.lineCount++;
+		return true;
+	}
+
+	public long getLineCount() {
+		return this.lineCount;
+	}
+
+	public int getFieldCount() {
+		return this.fieldCount;
+	}
+
+	public int getLength(int field) {
+		return (field < this.fieldCount ? this.fieldEnds[field] - this.fieldStarts[field] : 0);
+	}
+
+	public boolean isEmpty(int field) {
+		return getLength(field) == 0;
+	}
+
+	public String getString(int field) {
+		if (field >= this.fieldCount) {
+			return "";
+		}
+		return new String(this.line, this.fieldStarts[field], this.fieldEnds[field] - this.fieldStarts[field]);
+	}
+
+	/**
+	 * Returns true if the field is not empty and consists of digits only (like StringUtils.isNumeric).
+	 */
+	public boolean isNumeric(int field) {
+		if (isEmpty(field)) {
+			return false;
+		}
+		for (int i = this.fieldStarts[field]; i < this.fieldEnds[field]; i++) {
+			if (!Character.isDigit(this.line[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a numeric field (see isNumeric) without creating a String.
+	 */
+	public long getLong(int field) throws NumberFormatException {
+		if (!isNumeric(field)) {
+			throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+		}
+		long value = 0;
+		for (int i = this.fieldStarts[field]; i < this.fieldEnds[field]; i++) {
+			int digit = Character.digit(this.line[i], 10);
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Adds the non-empty parts of the field between the separators to the list.
+	 */
+	public void split(int field, char separator, List<String> parts) {
+		if (field >= this.fieldCount) {
+			return;
+		}
+		int start = this.fieldStarts[field];
+		int end = this.fieldEnds[field];
+		for (int i = start; i <= end; i++) {
+			if (i == end || this.line[i] == separator) {
+				if (i > start) {
+					parts.add(new String(this.line, start, i - start));
+				}
+				start = i + 1;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	// reads the next line into the line array and returns its length or -1 at the end of the file
+	private int readLine() throws IOException {
+		int length = 0;
+		while (true) {
+			if (!this.chars.hasRemaining() && !fill()) {
+				return (length > 0 ? length : -1);
+			}
+			char[] buffer = this.chars.array();
+			int pos = this.chars.position();
+			int limit = this.chars.limit();
+			if (this.skipLineFeed) {
+				this.skipLineFeed = false;
+				if (buffer[pos] == '\n') {
+					pos++;
+				}
+			}
+			int start = pos;
+			while (pos < limit && buffer[pos] != '\n' && buffer[pos] != '\r') {
+				pos++;
+			}
+			int count = pos - start;
+			if (length + count > this.line.length) {
+				char[] newLine = new char[Math.max(length + count, this.line.length * 2)];
+				System.arraycopy(this.line, 0, newLine, 0, length);
+				this.line = newLine;
+			}
+			System.arraycopy(buffer, start, this.line, length, count);
+			length += count;
+			if (pos < limit) {
+				this.skipLineFeed = (buffer[pos] == '\r');
+				this.chars.position(pos + 1);
+				return length;
+			}
+			this.chars.position(pos);
+		}
+	}
+
+	// decodes the next chunk of the file, returns false if there is nothing left
+	private boolean fill() throws IOException {
+		if (this.finished) {
+			return false;
+		}
+		this.chars.clear();
+		while (this.chars.position() == 0) {
+			if (!this.endOfInput) {
+				if (this.remainingBytes < this.bytes.remaining()) {
+					this.bytes.limit(this.bytes.position() + (int)this.remainingBytes);
+				}
+				int count = this.channel.read(this.bytes);
+				if (count > 0) {
+					this.remainingBytes -= count;
+				}
+				if (count == -1 || this.remainingBytes == 0) {
+					this.endOfInput = true;
+				}
+			}
+			this.bytes.flip();
+			CoderResult result = this.decoder.decode(this.bytes, this.chars, this.endOfInput);
+			this.bytes.compact();
+			if (this.endOfInput && result.isUnderflow()) {
+				this.decoder.flush(this.chars);
+				this.finished = true;
+				break;
+			}
+		}
+		this.chars.flip();
+		return this.chars.hasRemaining();
+	}
+
+	// splits the line at ";" and removes all other quotes, the fields are compacted within the line array
+	private void tokenize(int length) {
+		char[] chars = this.line;
+		this.fieldCount = 0;
+		boolean separated = false;
+		int out = 0, fieldStart = 0, rawStart = 0;
+		int lastNonEmptyField = -1;
+		int i = 0;
+		while (i < length) {
+			// move the run up to the next quote in one go
+			int start = i;
+			while (i < length && chars[i] != '"') {
+				i++;
+			}
+			if (out != start) {
+				System.arraycopy(chars, start, chars, out, i - start);
+			}
+			out += i - start;
+			if (i == length) {
+				break;
+			}
+			if (i + 2 < length && chars[i + 1] == ';' && chars[i + 2] == '"') {
+				if (i > rawStart) {
+					lastNonEmptyField = this.fieldCount;
+				}
+				addField(fieldStart, out);
+				separated = true;
+				i += 3;
+				fieldStart = out;
+				rawStart = i;
+			} else {
+				i++; // other quotes are removed
+			}
+		}
+		if (length > rawStart) {
+			lastNonEmptyField = this.fieldCount;
+		}
+		addField(fieldStart, out);
+		if (separated) {
+			this.fieldCount = lastNonEmptyField + 1;
+		}
+	}
+
+	private void addField(int start, int end) {
+		if (this.fieldCount == this.fieldStarts.length) {
+			int[] newStarts = new int[this.fieldCount * 2];
+			int[] newEnds = new int[this.fieldCount * 2];
+			System.arraycopy(this.fieldStarts, 0, newStarts, 0, this.fieldCount);
+			System.arraycopy(this.fieldEnds, 0, newEnds, 0, this.fieldCount);
+			this.fieldStarts = newStarts;
+			this.fieldEnds = newEnds;
+		}
+		this.fieldStarts[this.fieldCount] = start;
+		this.fieldEnds[this.fieldCount] = end;
+		this.fieldCount++;
+	}
+
+	// Statics ----------------------------------------------------------------------------------
+
+	/**
+	 * Returns true if a file in the charset can be split at \n bytes, i.e., a \n byte is always a line feed
+	 * (UTF-8 and single-byte charsets like US-ASCII or ISO-8859-1).
+	 */
+	public static boolean isSplittable(Charset charset) {
+		if (!Arrays.equals("\n".getBytes(charset), new byte[] {'\n'})) {
+			return false;
+		}
+		return charset.name().equals("UTF-8") || charset.newEncoder().maxBytesPerChar() == 1.0f;
+	}
+
+	/**
+	 * Splits the file into at most the given number of byte ranges of about the same size that start at line starts.
+	 * Range i goes from bounds[i] to bounds[i + 1].
+	 */
+	public static long[] getLineAlignedBounds(File file, int count) throws IOException {
+		long length = file.length();
+		long[] bounds = new long[Math.max(count, 1) + 1];
+		int size = 1;
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			byte[] buffer = new byte[8192];
+			for (int i = 1; i < count; i++) {
+				long bound = Math.max(length * i / count, bounds[size - 1]);
+				// move behind the next line feed
+				input.seek(bound);
+				int read;
+				boolean found = false;
+				while (!found && (read = input.read(buffer)) > 0) {
+					for (int j = 0; j < read; j++) {
+						if (buffer[j] == '\n') {
+							bound += j + 1;
+							found = true;
+							break;
+						}
+					}
+					if (!found) {
+						bound += read;
+					}
+				}
+				if (found && bound < length && bound > bounds[size - 1]) {
+					bounds[size++] = bound;
+				}
+			}
+		} finally {
+			input.close();
+		}
+		bounds[size++] = length;
+		return Arrays.copyOf(bounds, size);
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import common.Bookmark;
+import common.BookmarkStore;
+import common.IdDictionary;
+
+/**
+ * Process-wide cache of parsed datasets for evaluation runs, where every calculator and every point of a parameter
+ * sweep reads the same file again. It is disabled by default: once enabled, BookmarkReader.readFile(filename) of an
+ * empty reader parses a file only once per path, modification time, size, count limit, stemming and mode and hands
+ * out the parsed dataset afterwards. Such a reader shares the dictionaries and counts with the cache and copies them
+ * before it changes them itself (e.g., addBookmark). It gets its own copies of the Bookmark objects (in columnar mode
+ * the read-only store is shared), so callers can sort and change them as after an uncached read.
+ * Readers of the same dataset in different threads wait for one parse. The least recently used datasets are
+ * dropped beyond the capacity.
+ */
+public class DatasetCache {
+
+	private static final int DEFAULT_CAPACITY = 4;
+
+	private static volatile boolean enabled = false;
+	private static int capacity = DEFAULT_CAPACITY;
+	private static final Map<String, FutureTask<Dataset>> datasets = new LinkedHashMap<String, FutureTask<Dataset>>(16, 0.75f, true);
+	private static long hits = 0;
+	private static long misses = 0;
+
+	private DatasetCache() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		DatasetCache.enabled = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	public static synchronized void setCapacity(int capacity) {
+		DatasetCache.capacity = Math.max(capacity, 1);
+		evict();
+	}
+
+	public static synchronized void clear() {
+		datasets.clear();
+	}
+
+	/**
+	 * Returns the number of datasets handed out from the cache.
+	 */
+	public static synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of datasets parsed, i.e., each input of a sweep should count once.
+	 */
+	public static synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Returns the cached dataset of the key - the loader parses it if it is not cached yet (once, also if other
+	 * threads ask for the same key meanwhile).
+	 */
+	static Dataset get(File source, int countLimit, boolean stemming, boolean columnar, Callable<Dataset> loader) throws IOException {
+		String key = source.getCanonicalPath() + "|" + source.lastModified() + "|" + source.length() + "|" + countLimit + "|" + stemming + "|" + columnar;
+		FutureTask<Dataset> task;
+		boolean load = false;
+		synchronized (DatasetCache.class) {
+			task = datasets.get(key);
+			if (task == null) {
+				task = new FutureTask<Dataset>(loader);
+				datasets.put(key, task);
+				evict();
+				load = true;
+				misses++;
+			} else {
+				hits++;
+			}
+		}
+		if (load) {
+			task.run();
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for " + source, e);
+		} catch (ExecutionException e) {
+			synchronized (DatasetCache.class) {
+				if (datasets.get(key) == task) {
+					datasets.remove(key);
+				}
+			}
+			throw new IOException("could not read " + source, e.getCause());
+		}
+	}
+
+	private static void evict() {
+		Iterator<FutureTask<Dataset>> it = datasets.values().iterator();
+		while (datasets.size() > capacity && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * The state of a reader after reading a file - never changed once it is cached.
+	 */
+	static class Dataset {
+		final List<Bookmark> bookmarks;
+		final BookmarkStore store;
+		final BookmarkReader.FileTexts texts;
+		final IdDictionary users;
+		final IdDictionary resources;
+		final IdDictionary tags;
+		final IdDictionary categories;
+		final List<Integer> userCounts;
+		final List<Integer> resourceCounts;
+		final List<Integer> tagCounts;
+		final boolean hasTimestamp;
+		final long lineCount;
+
+		Dataset(List<Bookmark> bookmarks, BookmarkStore store, BookmarkReader.FileTexts texts, IdDictionary users, IdDictionary resources,
+				IdDictionary tags, IdDictionary categories, List<Integer> userCounts, List<Integer> resourceCounts,
+				List<Integer> tagCounts, boolean hasTimestamp, long lineCount) {
+			this.bookmarks = bookmarks;
+			this.store = store;
+			this.texts = texts;
+			this.users = users;
+			this.resources = resources;
+			this.tags = tags;
+			this.categories = categories;
+			this.userCounts = userCounts;
+			this.resourceCounts = resourceCounts;
+			this.tagCounts = tagCounts;
+			this.hasTimestamp = hasTimestamp;
+			this.lineCount = lineCount;
+		}
+	}
+}
@@ -82,8 +82,12 @@ public class CoreFiltering {
 						}
 					}
 					if (tags.size() > 0) {
-						data.setTags(tags);
-						keepData.add(data);
+						// the bookmark may be shared with other readers (see DatasetCache), so it is copied
+						Bookmark filteredData = new Bookmark(userID, resID, data.getTimestamp(), data.getTitle(), data.getDescription());
+						filteredData.setRating(data.getRating());
+						filteredData.getCategories().addAll(data.getCategories());
+						filteredData.setTags(tags);
+						keepData.add(filteredData);
 					}
 				} else {
 					keepData.add(data);
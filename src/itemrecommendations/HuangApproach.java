@@ -80,7 +80,10 @@ public class HuangApproach {
 			Integer userID = trainData.getUserID();
 			Integer resID = trainData.getWikiID();
 			List<Integer> tags = trainData.getTags();
-			Long day = TimeUnit.SECONDS.toDays(Long.parseLong(trainData.getTimestamp()));
+			if (!trainData.hasTimestamp()) {
+				throw new IllegalArgumentException("HuangApproach needs timestamps, a bookmark of user " + userID + " has none");
+			}
+			Long day = TimeUnit.SECONDS.toDays(trainData.getTimestamp());
 			
 			Map<Integer, List<Integer>> resourceTagMaping = userResourceTagMaping.get(userID);
 			Map<Integer, List<Integer>> userTagMaping = resourceUserTagMaping.get(resID);
@@ -318,4 +321,4 @@ public class HuangApproach {
 	}
 	
 	
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -32,12 +32,16 @@ import java.util.TreeMap;
 import com.google.common.primitives.Ints;
 
 import common.Bookmark;
+import common.BookmarkIndex;
 import common.DoubleMapComparator;
 import common.Features;
 import common.Similarity;
+import common.SimilarityCache;
+import common.SparseVector;
 import common.Utilities;
 import file.BookmarkReader;
 import file.PredictionFileWriter;
+import processing.NeighborGraph;
 
 /**
  * Class for calculating recommendations based on Zheng Tag - Time approach
@@ -45,11 +49,13 @@ import file.PredictionFileWriter;
  *
  */
 public class HuangCalculator {
-	public static int MAX_NEIGHBORS = 20;
+	private static final int DEFAULT_NEIGHBORS = 20;
 
 	private Similarity similarity;
+	private int maxNeighbors;
 
 	private List<Bookmark> trainList;
+	private BookmarkIndex trainIndex;
 	
 	private HuangApproach huangApproach;
 
@@ -57,6 +63,8 @@ public class HuangCalculator {
 	
 	private Map<Integer, Map<Integer, Double>> resourceTagWeights;
 	private List<Map<Integer, Double>> userTagWeights;
+	private NeighborGraph neighborGraph;
+	private SimilarityCache resourceSimilarities;
 
 	/**
 	 * Constructor with needed data for calculating recommendations
@@ -65,9 +73,22 @@ public class HuangCalculator {
 	 * @param trainSize size of the train set
 	 */
 	public HuangCalculator(BookmarkReader reader, Similarity sim, int trainSize) {
+		this(reader, sim, trainSize, DEFAULT_NEIGHBORS);
+	}
+	
+	/**
+	 * Constructor with needed data for calculating recommendations
+	 * @param reader contains train data
+	 * @param sim measure which defines how to calculate similarity between two users
+	 * @param trainSize size of the train set
+	 * @param maxNeighbors number of similar users whose resources are candidates
+	 */
+	public HuangCalculator(BookmarkReader reader, Similarity sim, int trainSize, int maxNeighbors) {
 		similarity = sim;
+		this.maxNeighbors = maxNeighbors;
 		
 		trainList = reader.getBookmarks().subList(0, trainSize);
+		trainIndex = reader.getBookmarkIndex(0, trainSize);
 		
 		huangApproach = new HuangApproach(trainList);
 		System.out.println("Constructed Huang approach class");
@@ -79,6 +100,9 @@ public class HuangCalculator {
 
 		fillChengWeights();
 		System.out.println("Filled user - resource weights.");
+		
+		neighborGraph = new NeighborGraph(userTagWeights, allUsersSimilarities, similarity, maxNeighbors + 1);
+		resourceSimilarities = new SimilarityCache(Similarity.COSINE);
 	}
 
 	/**
@@ -101,7 +125,7 @@ public class HuangCalculator {
 			
 			Map<Integer, Double> tagResourceWeights = resourceTagWeights.get(resource);
 			if (tagResourceWeights == null) {
-				tagResourceWeights = new HashMap<Integer, Double>();
+				tagResourceWeights = new SparseVector();
 			}
 			
 			for (Integer tag : tags) {
@@ -119,41 +143,41 @@ public class HuangCalculator {
 	
 
 	public Map<Integer, Double> getRankedResourcesListByUserWeight(int userID, boolean sorting) {
-		return getRankedResourcesList(userID, userTagWeights, sorting);
+		return getRankedResourcesList(userID, neighborGraph, sorting);
 	}
 	
 	
 	/**
 	 * Calculates resources to recommend for a user
 	 * @param userID user to recommend resources
-	 * @param userResourcesWeights list containing resource weight-map for every user (index of the list is the id of the user)
+	 * @param userGraph nearest neighbors of every user based on the tag weights
 	 * @param scoreCalculator calculator which calculates the weight-score for a user-id and a resource-id
 	 * @param sorting should the returned recommend resource map be sorted based on the resource score
 	 * @return ranked map with recommended resources
 	 */
 	private Map<Integer, Double> getRankedResourcesList(
 			int userID,  
-			List<Map<Integer, Double>> userResourcesWeights, 
+			NeighborGraph userGraph, 
 			boolean sorting) {
 		Map<Integer, Double> candidateResources = new LinkedHashMap<Integer, Double>();
 		
 		// find similar users
 		int i = 0;
 		Map<Integer, Double> sortedNeighbors = 
-				Utilities.getNeighbors(userID, -1, allUsersSimilarities, userResourcesWeights, trainList, similarity);
+				userGraph.getNeighbors(userID, -1, trainIndex);
 		
 		Set<Integer> targetUserResources = huangApproach.getUserResourceTagMaping().get(userID).keySet();
 		
 		// extract candidate resources
 		for (Map.Entry<Integer, Double> neighbor : sortedNeighbors.entrySet()) {
-			if (i++ > MAX_NEIGHBORS) {
+			if (i++ > maxNeighbors) {
 				break;
 			}
 //			System.out.println("Neighbour: " + neighbor);
 			double userSimVal = neighbor.getValue();
 			
 			if (userSimVal != 0.0) {
-				List<Integer> resources = Bookmark.getResourcesFromUser(trainList, neighbor.getKey());
+				List<Integer> resources = Bookmark.getResourcesFromUser(trainIndex, neighbor.getKey());
 				
 				for (Integer resID : resources) {
 					if (! targetUserResources.contains(resID)) {
@@ -180,7 +204,7 @@ public class HuangCalculator {
 				
 				Map<Integer, Double> targetResourceTags = resourceTagWeights.get(targetUserRes);
 				
-				Double resSimVal = Utilities.getCosineFloatSim(targetResourceTags, candidateResourceTags);
+				Double resSimVal = resourceSimilarities.getSimilarity(targetUserRes, targetResourceTags, candidateRes.getKey(), candidateResourceTags);
 				candidateSimilarity += (HuangApproach.WEIGHT * resSimVal) + ((1 - HuangApproach.WEIGHT) * resourceMaxScaledTagFRD.get(targetUserRes));
 			}
 			candidateResources.put(candidateRes.getKey(), candidateSimilarity);
@@ -218,26 +242,31 @@ public class HuangCalculator {
 		for (Integer userID : reader.getUniqueUserListFromTestSet(trainSize)) {
 			results.add(calculator.getRankedResourcesListByUserWeight(userID, true));
 		}
+		System.out.println("Resource similarity cache: " + calculator.resourceSimilarities.getStatistics());
 	
 		return results;
 	}
 	
 	public static BookmarkReader predictSample(String filename, int trainSize) {
+		return predictSample(filename, trainSize, DEFAULT_NEIGHBORS);
+	}
+	
+	public static BookmarkReader predictSample(String filename, int trainSize, int neighborSize) {
 		// read input
 		//filename += "_res";
 		BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 		
-		HuangCalculator calculator = new HuangCalculator(reader, Similarity.COSINE, trainSize);
+		HuangCalculator calculator = new HuangCalculator(reader, Similarity.COSINE, trainSize, neighborSize);
 		// get recommendations
 		List<Map<Integer, Double>> tagValues = startHuangUserProfile(reader, trainSize, calculator);
 		// write results
-		writeResults(filename, trainSize, "_huang_tag_user", reader, tagValues);
+		writeResults(filename, trainSize, neighborSize, "_huang_tag_user", reader, tagValues);
 		
 		return reader;
 	}
 
-	private static void writeResults(String filename, int trainSize, String suffix,
+	private static void writeResults(String filename, int trainSize, int neighborSize, String suffix,
 			BookmarkReader reader, List<Map<Integer, Double>> zhengValues) {
 		List<int[]> predictionValues = new ArrayList<int[]>();
 		
@@ -247,7 +276,7 @@ public class HuangCalculator {
 		}		
 		
 		PredictionFileWriter writer = new PredictionFileWriter(reader, predictionValues);
-		writer.writeResourcePredictionsToFile(filename + suffix, trainSize, MAX_NEIGHBORS);
+		writer.writeResourcePredictionsToFile(filename + suffix, trainSize, neighborSize);
 	}
 
 }
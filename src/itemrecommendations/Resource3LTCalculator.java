@@ -34,6 +34,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import processing.ActCalculator;
+import processing.NeighborGraph;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.primitives.Ints;
@@ -42,6 +43,8 @@ import common.DoubleMapComparator;
 import common.Features;
 import common.Similarity;
 import common.Bookmark;
+import common.BookmarkIndex;
+import common.SimilarityCache;
 import common.Utilities;
 
 import file.PredictionFileWriter;
@@ -49,24 +52,27 @@ import file.BookmarkReader;
 
 public class Resource3LTCalculator {
 	
-	public static int MAX_NEIGHBORS = 20;
-	
 	private BookmarkReader reader;
 	private List<Bookmark> trainList;
 	private List<Bookmark> testList;	
+	private BookmarkIndex trainIndex;
+	private BookmarkIndex testIndex;
 	private Similarity sim;
 	private Features features;
 	private boolean userSim;
 	private boolean bll;
 	private boolean novelty;
+	private int maxNeighbors;
 
 	private List<Map<Integer, Double>> userMaps;
 	//private List<Map<Integer, Double>> userTags;
 	private List<Map<Integer, Double>> userTopics;
 	private Map<Integer, Double> allUsers;
+	private NeighborGraph neighborGraph;
 	//private List<Map<Integer, Double>> resMaps;
 	//private List<Map<Integer, Double>> resTags;
 	private List<Map<Integer, Double>> resTopics;
+	private SimilarityCache resSimilarities;
 	// private Map<Integer, Double> allResources;
 	
 	private List<Map<Integer, Double>> bllValues;
@@ -74,16 +80,19 @@ public class Resource3LTCalculator {
 	private boolean calculateOnTags;
 	
 	public Resource3LTCalculator(BookmarkReader reader, int trainSize, int sampleSize, Similarity sim, Features features, 
-			boolean userSim, boolean bll, boolean novelty, boolean calculateOnTags) {
+			boolean userSim, boolean bll, boolean novelty, boolean calculateOnTags, int maxNeighbors) {
 		this.reader = reader;
 		this.trainList = this.reader.getBookmarks().subList(0, trainSize);
 		this.testList = this.reader.getBookmarks().subList(trainSize, trainSize + sampleSize);
+		this.trainIndex = this.reader.getBookmarkIndex(0, trainSize);
+		this.testIndex = this.reader.getBookmarkIndex(trainSize, trainSize + sampleSize);
 		this.sim = sim;
 		this.features = features;
 		this.userSim = userSim;
 		this.bll = bll;
 		this.novelty = novelty;
 		this.calculateOnTags = calculateOnTags;
+		this.maxNeighbors = maxNeighbors;
 
 		if (this.features == Features.ENTITIES) {
 			// TODO: try tag values for cosine!
@@ -95,6 +104,7 @@ public class Resource3LTCalculator {
 		}
 		this.userTopics = Utilities.getUniqueTopicMaps(this.trainList, false);//Utilities.getRelativeTopicMaps(this.trainList, false);
 		this.allUsers = Utilities.getAllEntities(this.trainList, false);
+		this.neighborGraph = new NeighborGraph(this.userMaps, this.allUsers, this.sim, this.maxNeighbors + 1);
 		if (this.bll) {
 			this.bllValues = ActCalculator.getArtifactMaps(reader, this.trainList, this.testList, false, new ArrayList<Long>(), new ArrayList<Double>(), 0.5, true);
 		}
@@ -108,6 +118,7 @@ public class Resource3LTCalculator {
 		}*/		
 		//this.resTopics = Utilities.getUniqueTopicMaps(this.trainList, true); //Utilities.getUsedEntities(this.trainList, true, null); // 
 		this.resTopics = Utilities.getUsedEntities(this.trainList, true, null); 
+		this.resSimilarities = new SimilarityCache(Similarity.COSINE);
 		//this.resTopics = Utilities.getRelativeTagMaps(this.trainList, true);
 		//this.resTopics = Utilities.getRelativeTopicMaps(this.trainList, true);
 		
@@ -121,9 +132,9 @@ public class Resource3LTCalculator {
 		
 		Map<Integer, Double> userResources = null;
 		if (calculateOnTags) {
-			userResources = Bookmark.getResourcesFromUserWithBLL(this.trainList, this.testList, userID, this.bllValues);
+			userResources = Bookmark.getResourcesFromUserWithBLL(this.trainIndex, userID, this.bllValues);
 		} else {
-			userResources = Bookmark.getResourcesFromUserWithRec(trainList, testList, userID, 0.5, false);
+			userResources = Bookmark.getResourcesFromUserWithRec(this.trainIndex, this.testIndex, userID, 0.5, false);
 		}
 		
 
@@ -132,14 +143,14 @@ public class Resource3LTCalculator {
 		
 		// get candidates
 		int i = 0;
-		Map<Integer, Double> sortedNeighbors = Utilities.getNeighbors(userID, -1, this.allUsers, this.userMaps, this.trainList, this.sim);
+		Map<Integer, Double> sortedNeighbors = this.neighborGraph.getNeighbors(userID, -1, this.trainIndex);
 		for (Map.Entry<Integer, Double> neighbor : sortedNeighbors.entrySet()) {
-			if (i++ > MAX_NEIGHBORS) {
+			if (i++ > this.maxNeighbors) {
 				break;
 			}
 			double userSimVal = neighbor.getValue();
 //			if (userSimVal != 0.0) {
-				Map<Integer, Double> resources = Bookmark.getResourcesFromUserWithBLL(this.trainList, this.testList, neighbor.getKey(), this.bllValues);
+				Map<Integer, Double> resources = Bookmark.getResourcesFromUserWithBLL(this.trainIndex, neighbor.getKey(), this.bllValues);
 //				Map<Integer, Double> resources =  Bookmark.getResourcesFromUserWithRec(trainList, testList, neighbor.getKey(), 0.5, false);
 				for (Integer resID : resources.keySet()) {
 					if (!userResources.containsKey(resID)) { // exclude already known resources
@@ -156,7 +167,7 @@ public class Resource3LTCalculator {
 			double echoVal = 0.0;
 			for (Map.Entry<Integer, Double> userRes : userResources.entrySet()) {
 				Map<Integer, Double> targetTopics = this.resTopics.get(userRes.getKey());
-				Double resSimVal = Utilities.getCosineFloatSim(targetTopics, candidateTopics);
+				Double resSimVal = this.resSimilarities.getSimilarity(userRes.getKey(), targetTopics, candidateRes.getKey(), candidateTopics);
 				//resSimVal = Math.pow(resSimVal, 3);
 				if (!resSimVal.isNaN() && !resSimVal.isInfinite() && resSimVal.doubleValue() > 0.0) {
 					double bllVal = userRes.getValue().doubleValue() > 0 ? userRes.getValue().doubleValue() : 1.0;
@@ -208,10 +219,10 @@ public class Resource3LTCalculator {
 	}
 	
 	// Statics -----------------------------------------------------------------------------------------------------------------------------------------------------------	
-	private static List<Map<Integer, Double>> start3LTCreationForResourcesPrediction(BookmarkReader reader, int trainSize, int sampleSize, Features features, 
+	private static List<Map<Integer, Double>> start3LTCreationForResourcesPrediction(BookmarkReader reader, int trainSize, int sampleSize, int neighborSize, Features features, 
 			boolean userSim, boolean bll, boolean novelty, boolean calculateOnTags) {
 		int size = reader.getBookmarks().size();
-		Resource3LTCalculator calculator = new Resource3LTCalculator(reader, trainSize, sampleSize, Similarity.BM25, features, userSim, bll, novelty, calculateOnTags);
+		Resource3LTCalculator calculator = new Resource3LTCalculator(reader, trainSize, sampleSize, Similarity.BM25, features, userSim, bll, novelty, calculateOnTags, neighborSize);
 		
 		List<Map<Integer, Double>> results = new ArrayList<Map<Integer, Double>>();
 		for (Integer userID : reader.getUniqueUserListFromTestSet(trainSize)) {
@@ -219,21 +230,20 @@ public class Resource3LTCalculator {
 			map = calculator.getRankedResourcesList(userID, true);
 			results.add(map);
 		}
+		System.out.println("Resource similarity cache: " + calculator.resSimilarities.getStatistics());
 	
 		return results;
 	}
 	
 	public static BookmarkReader predictSample(String filename, int trainSize, int sampleSize, int neighborSize, Features features, 
 			boolean userSim, boolean bll, boolean novelty, boolean calculateOnTags) {
-		MAX_NEIGHBORS = neighborSize;
-		
 		// read input
 		//filename += "_res";
 		BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 		// get recommendations
 		List<Map<Integer, Double>> cfValues = null;	
-		cfValues = start3LTCreationForResourcesPrediction(reader, trainSize, sampleSize, features, userSim, bll, novelty, calculateOnTags);
+		cfValues = start3LTCreationForResourcesPrediction(reader, trainSize, sampleSize, neighborSize, features, userSim, bll, novelty, calculateOnTags);
 		
 		// write results
 		List<int[]> predictionValues = new ArrayList<int[]>();
@@ -246,7 +256,7 @@ public class Resource3LTCalculator {
 			suffix += "_bll";
 		}
 		PredictionFileWriter writer = new PredictionFileWriter(reader, predictionValues);
-		writer.writeResourcePredictionsToFile(filename + suffix, trainSize, MAX_NEIGHBORS);
+		writer.writeResourcePredictionsToFile(filename + suffix, trainSize, neighborSize);
 			
 		return reader;
 	}
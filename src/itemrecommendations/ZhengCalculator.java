@@ -23,6 +23,7 @@ package itemrecommendations;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,12 +33,14 @@ import java.util.TreeMap;
 import com.google.common.primitives.Ints;
 
 import common.Bookmark;
+import common.BookmarkIndex;
 import common.DoubleMapComparator;
 import common.Features;
 import common.Similarity;
 import common.Utilities;
 import file.BookmarkReader;
 import file.PredictionFileWriter;
+import processing.NeighborGraph;
 
 /**
  * Class for calculating recommendations based on Zheng Tag - Time approach
@@ -45,19 +48,22 @@ import file.PredictionFileWriter;
  *
  */
 public class ZhengCalculator {
-	public static int MAX_NEIGHBORS = 20;
+	private static final int DEFAULT_NEIGHBORS = 20;
 	private static final double LAMBDA = 0.5;
 
 	private List<Bookmark> bookmarks;
 	private Similarity similarity;
+	private int maxNeighbors;
 
 	private List<Bookmark> trainList;
+	private BookmarkIndex trainIndex;
 	private ZhengTagTime zhengApproach;
 
 	private Map<Integer, Double> allUsersSimilarities;
 	private List<Map<Integer, Double>> userResourcesTagWeight;
 	private List<Map<Integer, Double>> userResourcesTimeWeight;
 	private List<Map<Integer, Double>> userResourcesTagTimeWeight;
+	private Map<List<Map<Integer, Double>>, NeighborGraph> neighborGraphs = new IdentityHashMap<List<Map<Integer, Double>>, NeighborGraph>();
 
 	/**
 	 * Constructor with needed data for calculating recommendations
@@ -66,10 +72,23 @@ public class ZhengCalculator {
 	 * @param trainSize size of the train set
 	 */
 	public ZhengCalculator(BookmarkReader reader, Similarity sim, int trainSize) {
+		this(reader, sim, trainSize, DEFAULT_NEIGHBORS);
+	}
+	
+	/**
+	 * Constructor with needed data for calculating recommendations
+	 * @param reader contains train data
+	 * @param sim measure which defines how to calculate similarity between two users
+	 * @param trainSize size of the train set
+	 * @param maxNeighbors number of similar users whose resources are candidates
+	 */
+	public ZhengCalculator(BookmarkReader reader, Similarity sim, int trainSize, int maxNeighbors) {
 		bookmarks = reader.getBookmarks();
 		similarity = sim;
+		this.maxNeighbors = maxNeighbors;
 		
 		trainList = bookmarks.subList(0, trainSize);
+		trainIndex = reader.getBookmarkIndex(0, trainSize);
 		
 		zhengApproach = new ZhengTagTime(trainList);
 		System.out.println("Constructed Zheng approach class");
@@ -209,12 +228,12 @@ public class ZhengCalculator {
 		// get candidates
 		int i = 0;
 		Map<Integer, Double> sortedNeighbors = 
-				Utilities.getNeighbors(userID, -1, allUsersSimilarities, userResourcesWeights, trainList, similarity);
+				getNeighborGraph(userResourcesWeights).getNeighbors(userID, -1, trainIndex);
 		
 		Double userSimiliaritySum = 0.0;
 		
 		for (Map.Entry<Integer, Double> neighbor : sortedNeighbors.entrySet()) {
-			if (i++ > MAX_NEIGHBORS) {
+			if (i++ > maxNeighbors) {
 				break;
 			}
 //			System.out.println("Neighbour: " + neighbor);
@@ -222,7 +241,7 @@ public class ZhengCalculator {
 			userSimiliaritySum += userSimVal;
 			
 			if (userSimVal != 0.0) {
-				List<Integer> resources = Bookmark.getResourcesFromUser(trainList, neighbor.getKey());
+				List<Integer> resources = Bookmark.getResourcesFromUser(trainIndex, neighbor.getKey());
 				
 				for (Integer resID : resources) {
 					if (! userResourcesTagWeight.get(userID).containsKey(resID)) {
@@ -255,6 +274,18 @@ public class ZhengCalculator {
 	}
 	
 	
+	/**
+	 * Returns the nearest neighbors of the users based on the given weights, built on first use
+	 */
+	private synchronized NeighborGraph getNeighborGraph(List<Map<Integer, Double>> userResourcesWeights) {
+		NeighborGraph neighborGraph = neighborGraphs.get(userResourcesWeights);
+		if (neighborGraph == null) {
+			neighborGraph = new NeighborGraph(userResourcesWeights, allUsersSimilarities, similarity, maxNeighbors + 1);
+			neighborGraphs.put(userResourcesWeights, neighborGraph);
+		}
+		return neighborGraph;
+	}
+	
 	// Statics -----------------------------------------------------------------------------------------------------------------------------------------------------------	
 
 	private static List<Map<Integer, Double>> startZhengTagCreationForResourcesPrediction(
@@ -291,32 +322,36 @@ public class ZhengCalculator {
 	}
 	
 	public static BookmarkReader predictSample(String filename, int trainSize) {
+		return predictSample(filename, trainSize, DEFAULT_NEIGHBORS);
+	}
+	
+	public static BookmarkReader predictSample(String filename, int trainSize, int neighborSize) {
 		// read input
 		//filename += "_res";
 		BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 		
-		ZhengCalculator calculator = new ZhengCalculator(reader, Similarity.COSINE, trainSize);
+		ZhengCalculator calculator = new ZhengCalculator(reader, Similarity.COSINE, trainSize, neighborSize);
 
 //		// get recommendations
 //		List<Map<Integer, Double>> tagValues = startZhengTagCreationForResourcesPrediction(reader, trainSize, calculator);
 //		// write results
-//		writeResults(filename, trainSize, "_zheng_tag", reader, tagValues);
+//		writeResults(filename, trainSize, neighborSize, "_zheng_tag", reader, tagValues);
 //		
 //		// get recommendations
 //		List<Map<Integer, Double>> timeValues = startZhengTimeCreationForResourcesPrediction(reader, trainSize, calculator);
 //		// write results
-//		writeResults(filename, trainSize, "_zheng_time", reader, timeValues);
+//		writeResults(filename, trainSize, neighborSize, "_zheng_time", reader, timeValues);
 
 		// get recommendations
 		List<Map<Integer, Double>> tagTimeValues = startZhengTagTimeCreationForResourcesPrediction(reader, trainSize, calculator);
 		// write results
-		writeResults(filename, trainSize, "_zheng_tagtime", reader, tagTimeValues);
+		writeResults(filename, trainSize, neighborSize, "_zheng_tagtime", reader, tagTimeValues);
 			
 		return reader;
 	}
 
-	private static void writeResults(String filename, int trainSize, String suffix,
+	private static void writeResults(String filename, int trainSize, int neighborSize, String suffix,
 			BookmarkReader reader, List<Map<Integer, Double>> zhengValues) {
 		List<int[]> predictionValues = new ArrayList<int[]>();
 		
@@ -326,7 +361,7 @@ public class ZhengCalculator {
 		}		
 		
 		PredictionFileWriter writer = new PredictionFileWriter(reader, predictionValues);
-		writer.writeResourcePredictionsToFile(filename + suffix, trainSize, MAX_NEIGHBORS);
+		writer.writeResourcePredictionsToFile(filename + suffix, trainSize, neighborSize);
 	}
 
 }
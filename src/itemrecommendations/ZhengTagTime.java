@@ -59,7 +59,10 @@ public class ZhengTagTime {
 			Integer userID = trainData.getUserID();
 			Integer resID = trainData.getWikiID();
 			List<Integer> tags = trainData.getTags();
-			Long day = TimeUnit.SECONDS.toDays(Long.parseLong(trainData.getTimestamp()));
+			if (!trainData.hasTimestamp()) {
+				throw new IllegalArgumentException("ZhengTagTime needs timestamps, a bookmark of user " + userID + " has none");
+			}
+			Long day = TimeUnit.SECONDS.toDays(trainData.getTimestamp());
 			
 			Map<Integer, List<Integer>> resourceTagMaping = userResourceTagMaping.get(userID);
 			Map<Integer, Long> resourceTimeMaping = userResourceTimeMaping.get(userID);
@@ -28,7 +28,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Stopwatch;
@@ -36,8 +35,11 @@ import com.google.common.primitives.Ints;
 
 import common.CalculationType;
 import common.CooccurenceMatrix;
-import common.DoubleMapComparator;
 import common.Bookmark;
+import common.BookmarkIndex;
+import common.BookmarkStore;
+import common.SparseVector;
+import common.TopKSelector;
 import common.Utilities;
 import file.PredictionFileWriter;
 import file.BookmarkReader;
@@ -68,6 +70,14 @@ public class ActCalculator {
 	private CooccurenceMatrix rMatrix;
 		
 	public ActCalculator(BookmarkReader reader, int trainSize, int dVal, int beta, boolean userBased, boolean resBased, CalculationType cType) {
+		this(reader, trainSize, new ActStatistics(reader, trainSize), dVal, beta, userBased, resBased, cType);
+	}
+	
+	/**
+	 * Takes the parts of the model that do not depend on d and beta from the statistics, which can be shared by
+	 * the calculators of a whole parameter sweep. They have to be built from the same reader and training size.
+	 */
+	public ActCalculator(BookmarkReader reader, int trainSize, ActStatistics statistics, int dVal, int beta, boolean userBased, boolean resBased, CalculationType cType) {
 		this.reader = reader;
 		this.dVal = (double)dVal / 10.0;
 		this.beta = (double)beta / 10.0;
@@ -75,22 +85,21 @@ public class ActCalculator {
 		this.resBased = resBased;
 		
 		this.trainList = this.reader.getBookmarks().subList(0, trainSize);
-		List<Bookmark> testList = this.reader.getBookmarks().subList(trainSize, reader.getBookmarks().size());
 		
-		this.userDenoms = new ArrayList<Double>();
-		this.userTimestamps = new ArrayList<Long>();
+		this.userDenoms = statistics.getUserDenoms(this.dVal);
+		this.userTimestamps = statistics.getUserTimestamps();
 		//if (this.userBased) {
-			this.userMaps = getArtifactMaps(reader, this.trainList, testList, false, this.userTimestamps, this.userDenoms, this.dVal, true);
-			this.userCounts = Utilities.getRelativeTagMaps(this.trainList, false);
-			this.resCounts = Utilities.getRelativeTagMaps(this.trainList, true);
+			this.userMaps = statistics.getUserMaps(this.dVal);
+			this.userCounts = statistics.getUserCounts();
+			this.resCounts = statistics.getResCounts();
 			if (cType != CalculationType.NONE) {
-				this.rMatrix = new CooccurenceMatrix(this.trainList, reader.getTagCounts());
+				this.rMatrix = statistics.getCooccurenceMatrix();
 			}
 		//}
-		this.resDenoms = new ArrayList<Double>();
-		this.resTimestamps = new ArrayList<Long>();
+		this.resDenoms = statistics.getResDenoms();
+		this.resTimestamps = statistics.getResTimestamps();
 		//if (this.resBased) {		
-			this.resMaps = getArtifactMaps(reader, this.trainList, testList, true, this.resTimestamps, this.resDenoms, this.dVal, true);
+			this.resMaps = statistics.getResMaps();
 			//this.cfCalc = new BM25Calculator(this.reader, trainSize, true, true, false, 5, Similarity.JACCARD, Features.TAGS);
 		//}
 	}	
@@ -228,19 +237,7 @@ public class ActCalculator {
 		*/
 
 		if (sorting) {
-			Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(new DoubleMapComparator(resultMap));
-			sortedResultMap.putAll(resultMap);
-			
-			Map<Integer, Double> returnMap = new LinkedHashMap<Integer, Double>(REC_LIMIT);
-			int i = 0;
-			for (Map.Entry<Integer, Double> entry : sortedResultMap.entrySet()) {
-				if (i++ < REC_LIMIT) {
-					returnMap.put(entry.getKey(), entry.getValue());
-				} else {
-					break;
-				}
-			}
-			return returnMap;
+			return TopKSelector.select(resultMap, REC_LIMIT);
 		}
 		return resultMap;
 	}
@@ -250,126 +247,174 @@ public class ActCalculator {
 			List<Long> timestampList, List<Double> denomList, double dVal, boolean normalize) {
 		
 		List<Map<Integer, Double>> maps = new ArrayList<Map<Integer, Double>>();
-		for (Bookmark data : userLines) {
-			int refID = 0;
-			//System.out.println(data);
-			if (resource) {
-				refID = data.getWikiID();
-			} else {
-				refID = data.getUserID();
-			}
-			long baselineTimestamp = -1;
-			if (refID >= maps.size()) {
-				if (resource) {
-					//refIDs = Utilities.getUsersByResource(userLines, data.getWikiID());
-					baselineTimestamp = 1;
-				} else {
-					baselineTimestamp = Utilities.getBaselineTimestamp(testLines, refID, false);
-				}
-				timestampList.add(baselineTimestamp);
-				if (baselineTimestamp != -1) {
-					maps.add(addActValue(data, new LinkedHashMap<Integer, Double>(), baselineTimestamp, resource, dVal));
-				} else {
-					maps.add(null);
+		BookmarkIndex testIndex = (testLines != null && !resource ? new BookmarkIndex(testLines) : null);
+		BookmarkStore.Cursor cursor = BookmarkStore.cursorOf(userLines);
+		if (cursor != null) {
+			while (cursor.next()) {
+				int slot = getArtifactSlot(maps, timestampList, testIndex, resource ? cursor.getWikiID() : cursor.getUserID(), resource);
+				SparseVector actValues = (SparseVector)maps.get(slot);
+				if (actValues != null && cursor.hasTimestamp()) {
+					long baselineTimestamp = timestampList.get(slot);
+					double newAct = getActValue(baselineTimestamp, cursor.getTimestamp(), resource, dVal);
+					for (int i = 0; i < cursor.getTagCount(); i++) {
+						addActValue(actValues, cursor.getTag(i), newAct, cursor.getUserID(), baselineTimestamp, cursor.getTimestamp());
+					}
 				}
-			} else {
-				baselineTimestamp = timestampList.get(refID);
-				if (baselineTimestamp != -1) {
-					addActValue(data, maps.get(refID), baselineTimestamp, resource, dVal);
+			}
+		} else {
+			for (Bookmark data : userLines) {
+				int slot = getArtifactSlot(maps, timestampList, testIndex, resource ? data.getWikiID() : data.getUserID(), resource);
+				SparseVector actValues = (SparseVector)maps.get(slot);
+				if (actValues != null && data.hasTimestamp()) {
+					long baselineTimestamp = timestampList.get(slot);
+					double newAct = getActValue(baselineTimestamp, data.getTimestamp(), resource, dVal);
+					for (Integer value : data.getTags()) {
+						addActValue(actValues, value.intValue(), newAct, data.getUserID(), baselineTimestamp, data.getTimestamp());
+					}
 				}
 			}
 		}
-		// normalize values
+		normalizeArtifactMaps(maps, denomList, normalize);
+		return maps;
+	}
+	
+	// returns the position of refID's vector in maps and adds it (null without a baseline timestamp) on its first bookmark
+	private static int getArtifactSlot(List<Map<Integer, Double>> maps, List<Long> timestampList, BookmarkIndex testIndex, int refID, boolean resource) {
+		if (refID < maps.size()) {
+			return refID;
+		}
+		long baselineTimestamp = (resource ? 1 : Utilities.getBaselineTimestamp(testIndex, refID, false));
+		timestampList.add(baselineTimestamp);
+		maps.add(baselineTimestamp != -1 ? new SparseVector() : null);
+		return maps.size() - 1;
+	}
+	
+	// turns the activation sums into log values or, if requested, into shares of their sum
+	static void normalizeArtifactMaps(List<Map<Integer, Double>> maps, List<Double> denomList, boolean normalize) {
 		for (Map<Integer, Double> map : maps) {
 			double denom = 0.0;
 			if (map != null) {
-				for (Map.Entry<Integer, Double> entry : map.entrySet()) {
-					if (entry != null) {
-						double actVal = Math.log(entry.getValue());
-						denom += Math.exp(actVal);
-						entry.setValue(actVal);
-					}
+				SparseVector vector = (SparseVector)map;
+				vector.trimToSize();
+				for (int i = 0; i < vector.size(); i++) {
+					double actVal = Math.log(vector.getValueAt(i));
+					denom += Math.exp(actVal);
+					vector.setValueAt(i, actVal);
 				}
 				denomList.add(denom);
 				if (normalize) {
-					for (Map.Entry<Integer, Double> entry : map.entrySet()) {
-						if (entry != null) {
-							double actVal = Math.exp(entry.getValue());
-							entry.setValue(actVal / denom);
-						}
+					for (int i = 0; i < vector.size(); i++) {
+						double actVal = Math.exp(vector.getValueAt(i));
+						vector.setValueAt(i, actVal / denom);
 					}
 				}
 			}
 		}
-		
-		return maps;
 	}
 	
-	private static Map<Integer, Double> addActValue(Bookmark data, Map<Integer, Double> actValues, long baselineTimestamp, boolean resource, double dVal) {
-		if (!data.getTimestamp().isEmpty()) {
-			Double newAct = 0.0;
-			if (resource) {
-				newAct = 1.0;
-			} else {
-				Double recency = (double)(baselineTimestamp - Long.parseLong(data.getTimestamp()) + 1.0);
-				//double recency = Math.ceil((baselineTimestamp - Long.parseLong(data.getTimestamp()) + 1.0) / 60.0 / 60.0 / 24.0 / 365.0 / 10);
-				//System.out.println(recency);			
-				newAct = Math.pow(recency, dVal * -1.0);
-			}
-			for (Integer value : data.getTags()) {
-				Double oldAct = actValues.get(value);
-				if (!newAct.isInfinite() && !newAct.isNaN()) {
-					actValues.put(value, (oldAct != null ? oldAct + newAct : newAct));
-				} else {
-					System.out.println(data.getUserID() + "_" + baselineTimestamp + " " + data.getTimestamp());
-				}
-			}
+	private static double getActValue(long baselineTimestamp, long timestamp, boolean resource, double dVal) {
+		if (resource) {
+			return 1.0;
 		}
-		return actValues;
+		//double recency = Math.ceil((baselineTimestamp - timestamp + 1.0) / 60.0 / 60.0 / 24.0 / 365.0 / 10);
+		return getActivation(baselineTimestamp, timestamp, dVal);
 	}
 	
-	// Helpers -------------------------------------------------------------------------------------------------------------------------------------------------------------------
+	private static void addActValue(SparseVector actValues, int tag, double newAct, int userID, long baselineTimestamp, long timestamp) {
+		if (!Double.isInfinite(newAct) && !Double.isNaN(newAct)) {
+			actValues.add(tag, newAct);
+		} else {
+			System.out.println(userID + "_" + baselineTimestamp + " " + timestamp);
+		}
+	}
 	
-	private static String timeString;
+	/**
+	 * The base-level activation a single usage at the given timestamp contributes at the baseline timestamp.
+	 */
+	public static double getActivation(long baselineTimestamp, long timestamp, double dVal) {
+		double recency = baselineTimestamp - timestamp + 1.0;
+		return Math.pow(recency, dVal * -1.0);
+	}
+	
+	/**
+	 * Adds a new usage of the given tags to a normalized activation vector as built by getArtifactMaps (in place).
+	 * The denominator is the one of getArtifactMaps' denomList, the new one is returned.
+	 */
+	public static double addActivation(SparseVector values, double denom, List<Integer> tags, double activation) {
+		double newDenom = denom + activation * tags.size();
+		for (int i = 0; i < values.size(); i++) {
+			values.setValueAt(i, values.getValueAt(i) * denom);
+		}
+		for (Integer tag : tags) {
+			values.add(tag.intValue(), activation);
+		}
+		for (int i = 0; i < values.size(); i++) {
+			values.setValueAt(i, values.getValueAt(i) / newDenom);
+		}
+		return newDenom;
+	}
 	
-	private static List<Map<Integer, Double>> startActCreation(BookmarkReader reader, int sampleSize, boolean sorting, boolean userBased, boolean resBased, int dVal, int beta, CalculationType cType) {
-		timeString = "";
+	// Helpers -------------------------------------------------------------------------------------------------------------------------------------------------------------------
+	
+	private static List<Map<Integer, Double>> startActCreation(final BookmarkReader reader, int sampleSize, final boolean sorting, boolean userBased, boolean resBased, int dVal, int beta, final CalculationType cType, ActStatistics statistics, RunContext context) {
+		String timeString = "";
 		int size = reader.getBookmarks().size();
 		int trainSize = size - sampleSize;
 		
 		Stopwatch timer = new Stopwatch();
 		timer.start();
-		ActCalculator calculator = new ActCalculator(reader, trainSize, dVal, beta, userBased, resBased, cType);
+		final ActCalculator calculator = (statistics != null ? new ActCalculator(reader, trainSize, statistics, dVal, beta, userBased, resBased, cType)
+				: new ActCalculator(reader, trainSize, dVal, beta, userBased, resBased, cType));
 		timer.stop();
 		long trainingTime = timer.elapsed(TimeUnit.MILLISECONDS);
-		List<Map<Integer, Double>> results = new ArrayList<Map<Integer, Double>>();
 		if (trainSize == size) {
 			trainSize = 0;
 		}
 		
 		timer = new Stopwatch();
 		timer.start();
-		for (int i = trainSize; i < size; i++) { // the test-set
-			Bookmark data = reader.getBookmarks().get(i);
-			Map<Integer, Double> map = calculator.getRankedTagList(data.getUserID(), data.getWikiID(), sorting, cType);
-			results.add(map);
-		}
+		TestSetEvaluator<Map<Integer, Double>> evaluator = new TestSetEvaluator<Map<Integer, Double>>(new TestSetEvaluator.Scorer<Map<Integer, Double>>() {
+			@Override
+			public Map<Integer, Double> score(int index) {
+				Bookmark data = reader.getBookmarks().get(index);
+				return calculator.getRankedTagList(data.getUserID(), data.getWikiID(), sorting, cType);
+			}
+		});
+		List<Map<Integer, Double>> results = evaluator.evaluate(trainSize, size); // the test-set
 		timer.stop();
 		long testTime = timer.elapsed(TimeUnit.MILLISECONDS);
 		timeString += ("Full training time: " + trainingTime + "\n");
 		timeString += ("Full test time: " + testTime + "\n");
 		timeString += ("Average test time: " + testTime / (double)sampleSize) + "\n";
 		timeString += ("Total time: " + (trainingTime + testTime) + "\n");
+		timeString += evaluator.getTimeString();
+		context.setTimeString(timeString);
 		return results;
 	}
 	
 	public static BookmarkReader predictSample(String filename, int trainSize, int sampleSize, boolean userBased, boolean resBased, int dVal, int beta, CalculationType cType ) {
+		return predictSample(filename, trainSize, sampleSize, userBased, resBased, dVal, beta, cType, null, new RunContext());
+	}
+	
+	/**
+	 * Builds the statistics that the runs of a sweep over d and beta on the given sample can share (see ActStatistics).
+	 */
+	public static ActStatistics getStatistics(String filename, int trainSize) {
+		BookmarkReader reader = new BookmarkReader(trainSize, false);
+		reader.readFile(filename);
+		return new ActStatistics(reader, trainSize);
+	}
+	
+	/**
+	 * Predicts with the shared statistics of getStatistics if they are given (or with its own ones if they are null).
+	 */
+	public static BookmarkReader predictSample(String filename, int trainSize, int sampleSize, boolean userBased, boolean resBased, int dVal, int beta, CalculationType cType, ActStatistics statistics, RunContext context) {
 		//filename += "_res";
 
 		BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 
-		List<Map<Integer, Double>> actValues = startActCreation(reader, sampleSize, true, userBased, resBased, dVal, beta, cType);
+		List<Map<Integer, Double>> actValues = startActCreation(reader, sampleSize, true, userBased, resBased, dVal, beta, cType, statistics, context);
 		
 		List<int[]> predictionValues = new ArrayList<int[]>();
 		for (int i = 0; i < actValues.size(); i++) {
@@ -390,7 +435,7 @@ public class ActCalculator {
 		String outputfile = filename + suffix + "_" + beta + "_" + dVal;
 		writer.writeFile(outputfile);
 		
-		Utilities.writeStringToFile("./data/metrics/" + outputfile + "_TIME.txt", timeString);
+		Utilities.writeStringToFile("./data/metrics/" + outputfile + "_TIME.txt", context.getTimeString());
 		return reader;
 	}
 }
@@ -0,0 +1,244 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package processing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.Bookmark;
+import common.BookmarkIndex;
+import common.BookmarkStore;
+import common.CooccurenceMatrix;
+import common.SparseVector;
+import common.Utilities;
+import file.BookmarkReader;
+
+/**
+ * The parts of ActCalculator's model that do not depend on d or beta, built once per dataset and training size and
+ * shared by all points of a parameter sweep: for every user and tag the time gaps between the tag's usages and the
+ * user's baseline (first test) timestamp, the resource activations, the relative tag maps and the co-occurrence
+ * matrix. The BLL values for a d are a single pass over the gap arrays and are kept per d, so combining them with
+ * every beta costs nothing more. The maps handed out are shared and must not be changed.
+ */
+public class ActStatistics {
+
+	private final BookmarkReader reader;
+	private final List<Bookmark> trainList;
+	
+	// per user (in the order of getArtifactMaps): tags [tagOffsets[u], tagOffsets[u + 1]), their gaps [gapOffsets[t], gapOffsets[t + 1])
+	private final List<Long> userTimestamps = new ArrayList<Long>();
+	private final int[] tagOffsets;
+	private final int[] tags;
+	private final int[] gapOffsets;
+	private final double[] gaps;
+	private final Map<Double, UserMaps> userMapsByD = new HashMap<Double, UserMaps>();
+	
+	private final List<Map<Integer, Double>> userCounts;
+	private final List<Map<Integer, Double>> resCounts;
+	private final List<Map<Integer, Double>> resMaps;
+	private final List<Double> resDenoms = new ArrayList<Double>();
+	private final List<Long> resTimestamps = new ArrayList<Long>();
+	private CooccurenceMatrix rMatrix = null;
+	
+	public ActStatistics(BookmarkReader reader, int trainSize) {
+		this.reader = reader;
+		this.trainList = reader.getBookmarks().subList(0, trainSize);
+		List<Bookmark> testList = reader.getBookmarks().subList(trainSize, reader.getBookmarks().size());
+		
+		// the same assignment of the bookmarks to the users as in getArtifactMaps
+		BookmarkIndex testIndex = new BookmarkIndex(testList);
+		List<Map<Integer, List<Double>>> userGaps = new ArrayList<Map<Integer, List<Double>>>();
+		BookmarkStore.Cursor cursor = BookmarkStore.cursorOf(this.trainList);
+		if (cursor != null) {
+			while (cursor.next()) {
+				int slot = getSlot(userGaps, testIndex, cursor.getUserID());
+				long baselineTimestamp = this.userTimestamps.get(slot);
+				if (baselineTimestamp != -1 && cursor.hasTimestamp()) {
+					double gap = baselineTimestamp - cursor.getTimestamp() + 1.0;
+					for (int i = 0; i < cursor.getTagCount(); i++) {
+						addGap(userGaps.get(slot), cursor.getTag(i), gap);
+					}
+				}
+			}
+		} else {
+			for (Bookmark data : this.trainList) {
+				int slot = getSlot(userGaps, testIndex, data.getUserID());
+				long baselineTimestamp = this.userTimestamps.get(slot);
+				if (baselineTimestamp != -1 && data.hasTimestamp()) {
+					double gap = baselineTimestamp - data.getTimestamp() + 1.0;
+					for (Integer tag : data.getTags()) {
+						addGap(userGaps.get(slot), tag.intValue(), gap);
+					}
+				}
+			}
+		}
+		int tagCount = 0, gapCount = 0;
+		for (Map<Integer, List<Double>> tagGaps : userGaps) {
+			if (tagGaps != null) {
+				tagCount += tagGaps.size();
+				for (List<Double> g : tagGaps.values()) {
+					gapCount += g.size();
+				}
+			}
+		}
+		this.tagOffsets = new int[userGaps.size() + 1];
+		this.tags = new int[tagCount];
+		this.gapOffsets = new int[tagCount + 1];
+		this.gaps = new double[gapCount];
+		int t = 0, g = 0;
+		for (int u = 0; u < userGaps.size(); u++) {
+			this.tagOffsets[u] = t;
+			Map<Integer, List<Double>> tagGaps = userGaps.get(u);
+			if (tagGaps == null) {
+				continue;
+			}
+			int first = t;
+			for (Integer tag : tagGaps.keySet()) {
+				this.tags[t++] = tag.intValue();
+			}
+			Arrays.sort(this.tags, first, t);
+			for (int i = first; i < t; i++) {
+				this.gapOffsets[i] = g;
+				for (Double gap : tagGaps.get(this.tags[i])) {
+					this.gaps[g++] = gap.doubleValue();
+				}
+			}
+		}
+		this.tagOffsets[userGaps.size()] = t;
+		this.gapOffsets[tagCount] = g;
+		
+		this.userCounts = Utilities.getRelativeTagMaps(this.trainList, false);
+		this.resCounts = Utilities.getRelativeTagMaps(this.trainList, true);
+		// a resource's usages all count 1, whatever d is
+		this.resMaps = ActCalculator.getArtifactMaps(reader, this.trainList, testList, true, this.resTimestamps, this.resDenoms, 0.0, true);
+	}
+	
+	// the user's position in userGaps and userTimestamps - added on the first bookmark of the user
+	private int getSlot(List<Map<Integer, List<Double>>> userGaps, BookmarkIndex testIndex, int userID) {
+		if (userID < userGaps.size()) {
+			return userID;
+		}
+		long baselineTimestamp = Utilities.getBaselineTimestamp(testIndex, userID, false);
+		this.userTimestamps.add(baselineTimestamp);
+		userGaps.add(baselineTimestamp != -1 ? new HashMap<Integer, List<Double>>() : null);
+		return userGaps.size() - 1;
+	}
+	
+	private static void addGap(Map<Integer, List<Double>> tagGaps, int tag, double gap) {
+		List<Double> gaps = tagGaps.get(tag);
+		if (gaps == null) {
+			gaps = new ArrayList<Double>();
+			tagGaps.put(tag, gaps);
+		}
+		gaps.add(gap);
+	}
+	
+	/**
+	 * Returns the normalized BLL values of the users for the given d - the same values as getArtifactMaps.
+	 */
+	public List<Map<Integer, Double>> getUserMaps(double dVal) {
+		return getUserMapsFor(dVal).maps;
+	}
+	
+	public List<Double> getUserDenoms(double dVal) {
+		return getUserMapsFor(dVal).denoms;
+	}
+	
+	private synchronized UserMaps getUserMapsFor(double dVal) {
+		UserMaps userMaps = this.userMapsByD.get(dVal);
+		if (userMaps == null) {
+			userMaps = new UserMaps(dVal);
+			this.userMapsByD.put(dVal, userMaps);
+		}
+		return userMaps;
+	}
+	
+	public List<Long> getUserTimestamps() {
+		return this.userTimestamps;
+	}
+	
+	public List<Map<Integer, Double>> getUserCounts() {
+		return this.userCounts;
+	}
+	
+	public List<Map<Integer, Double>> getResCounts() {
+		return this.resCounts;
+	}
+	
+	public List<Map<Integer, Double>> getResMaps() {
+		return this.resMaps;
+	}
+	
+	public List<Double> getResDenoms() {
+		return this.resDenoms;
+	}
+	
+	public List<Long> getResTimestamps() {
+		return this.resTimestamps;
+	}
+	
+	public synchronized CooccurenceMatrix getCooccurenceMatrix() {
+		if (this.rMatrix == null) {
+			this.rMatrix = new CooccurenceMatrix(this.trainList, this.reader.getTagCounts());
+		}
+		return this.rMatrix;
+	}
+	
+	private class UserMaps {
+		
+		private final List<Map<Integer, Double>> maps;
+		private final List<Double> denoms = new ArrayList<Double>();
+		
+		UserMaps(double dVal) {
+			this.maps = new ArrayList<Map<Integer, Double>>(userTimestamps.size());
+			for (int u = 0; u < userTimestamps.size(); u++) {
+				if (userTimestamps.get(u) == -1) {
+					this.maps.add(null);
+					continue;
+				}
+				int from = tagOffsets[u], to = tagOffsets[u + 1];
+				int[] keys = new int[to - from];
+				double[] values = new double[to - from];
+				int size = 0;
+				for (int t = from; t < to; t++) {
+					double act = 0.0;
+					boolean used = false;
+					for (int g = gapOffsets[t]; g < gapOffsets[t + 1]; g++) {
+						double newAct = Math.pow(gaps[g], dVal * -1.0);
+						if (!Double.isInfinite(newAct) && !Double.isNaN(newAct)) {
+							act += newAct;
+							used = true;
+						}
+					}
+					if (used) {
+						keys[size] = tags[t];
+						values[size++] = act;
+					}
+				}
+				this.maps.add(new SparseVector(keys, values, size));
+			}
+			ActCalculator.normalizeArtifactMaps(this.maps, this.denoms, true);
+		}
+	}
+}
@@ -40,6 +40,10 @@ import common.DoubleMapComparator;
 import common.Features;
 import common.Similarity;
 import common.Bookmark;
+import common.BookmarkIndex;
+import common.MinHashIndex;
+import common.ProfileIndex;
+import common.TopKSelector;
 import common.Utilities;
 
 import file.PredictionFileWriter;
@@ -47,7 +51,7 @@ import file.BookmarkReader;
 
 public class BM25Calculator {
 	
-	public static int MAX_NEIGHBORS = 20;
+	public final static int DEFAULT_NEIGHBORS = 20;
 	private final static double K1 = 1.2;
 	private final static double K3 = 1.2;
 	private final static double B = 0.8;
@@ -56,23 +60,39 @@ public class BM25Calculator {
 	private boolean userBased;
 	private boolean resBased;
 	private double beta;
+	private int maxNeighbors;
 	Similarity sim;
 	private List<Bookmark> trainList;
 	private List<Bookmark> testList;
+	private BookmarkIndex trainIndex;
+	private BookmarkIndex testIndex;
 	private List<Map<Integer, Double>> userMaps;
 	private Map<Integer, Double> allUsers;
+	private NeighborGraph neighborGraph;
 	private List<Map<Integer, Double>> resMaps;
 	private Map<Integer, Double> allResources;
+	private ProfileIndex resIndex;
+	// approximate neighbors (MinHash LSH with exact re-ranking) instead of the exact ones if bands > 0
+	private MinHashIndex userLsh;
+	private MinHashIndex resLsh;
 	
-	public BM25Calculator(BookmarkReader reader, int trainSize, boolean predictTags, boolean userBased, boolean resBased, int beta, Similarity sim, Features features) {		
+	public BM25Calculator(BookmarkReader reader, int trainSize, boolean predictTags, boolean userBased, boolean resBased, int beta, Similarity sim, Features features, int maxNeighbors) {
+		this(reader, trainSize, predictTags, userBased, resBased, beta, sim, features, maxNeighbors, 0, 0);
+	}
+	
+	public BM25Calculator(BookmarkReader reader, int trainSize, boolean predictTags, boolean userBased, boolean resBased, int beta, Similarity sim, Features features, int maxNeighbors,
+			int bands, int rows) {
 		this.reader = reader;
 		this.userBased = userBased;
 		this.resBased = resBased;
 		this.beta = (double)beta / 10.0;
+		this.maxNeighbors = maxNeighbors;
 		this.sim = sim;
 		//this.trainList = this.reader.getUserLines().subList(0, predictTags ? trainSize : reader.getUserLines().size()); // TODO
 		this.trainList = this.reader.getBookmarks().subList(0, trainSize);
 		this.testList = this.reader.getBookmarks().subList(trainSize, this.reader.getBookmarks().size());
+		this.trainIndex = this.reader.getBookmarkIndex(0, trainSize);
+		this.testIndex = this.reader.getBookmarkIndex(trainSize, this.reader.getBookmarks().size());
 		if (this.userBased || !predictTags) {
 			if (features == Features.ENTITIES) {
 				this.userMaps = Utilities.getUsedEntities(this.trainList, false, null);
@@ -85,6 +105,13 @@ public class BM25Calculator {
 			}
 			this.allUsers = Utilities.getAllEntities(this.trainList, false);
 		}
+		if (this.userBased && bands > 0) {
+			this.userLsh = new MinHashIndex(this.userMaps, this.allUsers.keySet(), this.sim, bands, rows);
+		} else if (this.userBased) {
+			// the resources are recommended from the first maxNeighbors + 1 neighbors, the tags of a resource without other
+			// taggers from the first maxNeighbors
+			this.neighborGraph = new NeighborGraph(this.userMaps, this.allUsers, this.sim, this.maxNeighbors + 1);
+		}
 		if (this.resBased) {
 			if (features == Features.ENTITIES) {
 				this.resMaps = Utilities.getUsedEntities(this.trainList, true, null);
@@ -96,6 +123,11 @@ public class BM25Calculator {
 				this.resMaps = Utilities.getUsedEntities(this.trainList, true, Utilities.getRelativeTagMaps(this.trainList, true));
 			}
 			this.allResources = Utilities.getAllEntities(this.trainList, true);
+			if (bands > 0) {
+				this.resLsh = new MinHashIndex(this.resMaps, this.allResources.keySet(), this.sim, bands, rows);
+			} else {
+				this.resIndex = new ProfileIndex(this.resMaps, this.allResources.keySet(), this.sim);
+			}
 		}
 	}
 		
@@ -104,28 +136,28 @@ public class BM25Calculator {
 		Map<Integer, Double> userBllResources = null;
 		if (this.resBased) {
 			// ####################################################### TODO: check log! and normalization!
-			userBllResources = Bookmark.getResourcesFromUserWithRec(this.trainList, this.testList, userID, 0.5, bll);
+			userBllResources = Bookmark.getResourcesFromUserWithRec(this.trainIndex, this.testIndex, userID, 0.5, bll);
 			userResources = new ArrayList<Integer>(userBllResources.keySet());
 		} else {
-			userResources = Bookmark.getResourcesFromUser(this.trainList, userID);
+			userResources = Bookmark.getResourcesFromUser(this.trainIndex, userID);
 		}
 		Map<Integer, Double> rankedResources = new LinkedHashMap<Integer, Double>();
 		
 		int i = 0;
 		double denom = 0.0;
 		if (this.userBased) {
-			Map<Integer, Double> sortedNeighbors = Utilities.getNeighbors(userID, -1, this.allUsers, this.userMaps, this.trainList, this.sim);
+			Map<Integer, Double> sortedNeighbors = getNeighbors(userID, -1);
 			for (Map.Entry<Integer, Double> neighbor : sortedNeighbors.entrySet()) {		
-				if (i++ > MAX_NEIGHBORS) {
+				if (i++ > this.maxNeighbors) {
 					break;
 				}
 				if (bll) {
-					userBllResources = Bookmark.getResourcesFromUserWithRec(this.trainList, this.testList, neighbor.getKey(), 0.5, false);
+					userBllResources = Bookmark.getResourcesFromUserWithRec(this.trainIndex, this.testIndex, neighbor.getKey(), 0.5, false);
 				}
 				double bm25 = neighbor.getValue();
 				denom += bm25;
 				if (bm25 != 0.0) {
-					List<Integer> resources = Bookmark.getResourcesFromUser(this.trainList, neighbor.getKey());				
+					List<Integer> resources = Bookmark.getResourcesFromUser(this.trainIndex, neighbor.getKey());				
 					for (Integer resID : resources) {
 						if (!userResources.contains(resID)) {
 							double bllVal = (bll ? userBllResources.get(resID) : 1.0);
@@ -154,15 +186,15 @@ public class BM25Calculator {
 				sortedResources = new LinkedHashMap<Integer, Double>();
 				int resCount = 0;
 				for (Map.Entry<Integer, Double> res : userBllResources.entrySet()) {
-					if (resCount++ > MAX_NEIGHBORS) {
+					if (resCount++ > this.maxNeighbors) {
 						break;
 					}
 					int resID = res.getKey();
 					i = 0;
 					Double bllVal = (bll && userBllResources != null ? res.getValue() : 1.0);
-					Map<Integer, Double> resources = Utilities.getSimResources(-1, resID, userResources, this.allResources, this.resMaps, this.trainList, this.sim);
+					Map<Integer, Double> resources = getSimResources(resID, userResources);
 					for (Map.Entry<Integer, Double> entry : resources.entrySet()) {
-						if (i++ > MAX_NEIGHBORS) {
+						if (i++ > this.maxNeighbors) {
 							break;
 						}
 						Double val = sortedResources.get(entry.getKey());
@@ -197,17 +229,47 @@ public class BM25Calculator {
 		}
 	}
 	
+	// the first maxNeighbors + 1 entries of Utilities.getNeighbors from the graph or the LSH index if the resource's taggers are not used
+	private Map<Integer, Double> getNeighbors(int userID, int resID) {
+		if (this.neighborGraph != null) {
+			return this.neighborGraph.getNeighbors(userID, resID, this.trainIndex);
+		}
+		if (this.userLsh != null && userID < this.userMaps.size()) {
+			if (resID != -1) {
+				for (Bookmark data : this.trainIndex.getResourceBookmarks(resID)) {
+					if (data.getUserID() != userID) {
+						return Utilities.getNeighbors(userID, resID, this.allUsers, this.userMaps, this.trainIndex, this.sim);
+					}
+				}
+			}
+			return this.userLsh.getMostSimilar(this.userMaps.get(userID), null, this.maxNeighbors + 1);
+		}
+		return Utilities.getNeighbors(userID, resID, this.allUsers, this.userMaps, this.trainIndex, this.sim);
+	}
+	
+	// the first maxNeighbors + 1 entries of Utilities.getSimResources for all resources, searched on the index
+	private Map<Integer, Double> getSimResources(int resID, List<Integer> userResources) {
+		Map<Integer, Double> targetMap = (resID < this.resMaps.size() ? this.resMaps.get(resID) : null);
+		if (targetMap == null || targetMap.isEmpty()) {
+			return Utilities.getSimResources(-1, resID, userResources, this.allResources, this.resMaps, this.trainIndex, this.sim);
+		}
+		if (this.resLsh != null) {
+			return this.resLsh.getMostSimilar(targetMap, userResources, this.maxNeighbors + 1);
+		}
+		return this.resIndex.getMostSimilar(targetMap, userResources, this.maxNeighbors + 1);
+	}
+	
 	// Tags -------------------------------------------------------------------------------------------------------------------------------------
 	// TODO: check results with no-core
 	public Map<Integer, Double> getRankedTagList(int userID, int resID, boolean sorting) {
 		Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>();
 		int i = 0;		
 		if (this.userBased) {
-			Map<Integer, Double> neighbors = Utilities.getNeighbors(userID, resID, this.allUsers, this.userMaps, this.trainList, this.sim);
+			Map<Integer, Double> neighbors = getNeighbors(userID, resID);
 			for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-				if (i++ < MAX_NEIGHBORS && entry.getKey() != userID) {
+				if (i++ < this.maxNeighbors && entry.getKey() != userID) {
 					//neighborMaps.add(this.userMaps.get(entry.getKey()));
-					Bookmark nBookmark = Bookmark.getUserData(this.trainList, entry.getKey(), resID);
+					Bookmark nBookmark = Bookmark.getUserData(this.trainIndex, entry.getKey(), resID);
 					List<Integer> tags = null;
 					if (nBookmark != null) {
 						tags = nBookmark.getTags();
@@ -238,10 +300,10 @@ public class BM25Calculator {
 		if (this.resBased) {
 			List<Integer> userResources = new ArrayList<Integer>();
 			userResources.add(resID);
-			Map<Integer, Double> resources = Utilities.getSimResources(userID, resID, userResources, this.allResources, this.resMaps, this.trainList, this.sim);
+			Map<Integer, Double> resources = Utilities.getSimResources(userID, resID, userResources, this.allResources, this.resMaps, this.trainIndex, this.sim);
 			for (Map.Entry<Integer, Double> entry : resources.entrySet()) {
-				if (i++ < MAX_NEIGHBORS) {
-					List<Integer> tags = Bookmark.getResData(this.trainList, userID, entry.getKey()).getTags();
+				if (i++ < this.maxNeighbors) {
+					List<Integer> tags = Bookmark.getResData(this.trainIndex, userID, entry.getKey()).getTags();
 					double bm25 = /*(1.0 - this.beta) * */entry.getValue();
 					//if (bm25 != 0.0) {
 						for (int tag : tags) {
@@ -256,32 +318,21 @@ public class BM25Calculator {
 		}
 		
 		if (sorting) {
-			Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(new DoubleMapComparator(resultMap));
-			sortedResultMap.putAll(resultMap);			
-			Map<Integer, Double> returnMap = new LinkedHashMap<Integer, Double>(20);
-			int index = 0;
-			for (Map.Entry<Integer, Double> entry : sortedResultMap.entrySet()) {
-				if (index++ < 20) {
-					returnMap.put(entry.getKey(), entry.getValue());
-				} else {
-					break;
-				}
-			}
-			return returnMap;
+			return TopKSelector.select(resultMap, 20);
 		}
 		return resultMap;
 	}
 	
 	// Statics -----------------------------------------------------------------------------------------------------------------------------------------------------------
 	public static BookmarkReader predictResources(String filename, int trainSize, int sampleSize, int neighborSize, boolean userBased, boolean resourceBased, boolean allResources, boolean bll, Features features) {
-		MAX_NEIGHBORS = neighborSize;
-		return predictSample(filename, trainSize, sampleSize, false, userBased, resourceBased, allResources, 5, bll, features);
+		return predictSample(filename, trainSize, sampleSize, false, userBased, resourceBased, allResources, 5, bll, features, neighborSize, new RunContext());
 	}
 	
-	private static List<Map<Integer, Double>> startBM25CreationForResourcesPrediction(BookmarkReader reader, int sampleSize, boolean userBased, boolean resBased, boolean allResources, boolean bll, Features features) {
+	private static List<Map<Integer, Double>> startBM25CreationForResourcesPrediction(BookmarkReader reader, int sampleSize, boolean userBased, boolean resBased, boolean allResources, boolean bll, Features features, int neighbors,
+			int bands, int rows) {
 		int size = reader.getBookmarks().size();
 		int trainSize = size - sampleSize;
-		BM25Calculator calculator = new BM25Calculator(reader, trainSize, false, userBased, resBased, 5, Similarity.COSINE, features);
+		BM25Calculator calculator = new BM25Calculator(reader, trainSize, false, userBased, resBased, 5, Similarity.COSINE, features, neighbors, bands, rows);
 		
 		List<Map<Integer, Double>> results = new ArrayList<Map<Integer, Double>>();
 		for (Integer userID : reader.getUniqueUserListFromTestSet(trainSize)) {
@@ -295,11 +346,27 @@ public class BM25Calculator {
 	
 	// Tags -----------------------------------------------------------------------------------------------------------------------------------------------------------------
 	public static BookmarkReader predictTags(String filename, int trainSize, int sampleSize, int neighbors, boolean userBased, boolean resBased, int beta) {
-		MAX_NEIGHBORS = neighbors;
-		return predictSample(filename, trainSize, sampleSize, true, userBased, resBased, false, beta, false, Features.TAGS);
+		return predictTags(filename, trainSize, sampleSize, neighbors, userBased, resBased, beta, new RunContext());
+	}
+	
+	public static BookmarkReader predictTags(String filename, int trainSize, int sampleSize, int neighbors, boolean userBased, boolean resBased, int beta, RunContext context) {
+		return predictSample(filename, trainSize, sampleSize, true, userBased, resBased, false, beta, false, Features.TAGS, neighbors, context);
 	}
 	
 	public static BookmarkReader predictSample(String filename, int trainSize, int sampleSize, boolean predictTags, boolean userBased, boolean resBased, boolean allResources, int beta, boolean bll, Features features) {
+		return predictSample(filename, trainSize, sampleSize, predictTags, userBased, resBased, allResources, beta, bll, features, DEFAULT_NEIGHBORS, new RunContext());
+	}
+	
+	public static BookmarkReader predictSample(String filename, int trainSize, int sampleSize, boolean predictTags, boolean userBased, boolean resBased, boolean allResources, int beta, boolean bll, Features features, int neighbors, RunContext context) {
+		return predictSample(filename, trainSize, sampleSize, predictTags, userBased, resBased, allResources, beta, bll, features, neighbors, 0, 0, context);
+	}
+	
+	/**
+	 * With bands > 0, the neighbors are searched approximately on a MinHash LSH index with the given number of bands and
+	 * rows per band instead of all users / resources.
+	 */
+	public static BookmarkReader predictSample(String filename, int trainSize, int sampleSize, boolean predictTags, boolean userBased, boolean resBased, boolean allResources, int beta, boolean bll, Features features, int neighbors,
+			int bands, int rows, RunContext context) {
 		//filename += "_res";
 		
 		//int size = 0;
@@ -311,9 +378,9 @@ public class BM25Calculator {
 		
 		List<Map<Integer, Double>> cfValues = null;	
 		if (predictTags) {
-			cfValues = startBM25CreationForTagPrediction(reader, sampleSize, userBased, resBased, beta);
+			cfValues = startBM25CreationForTagPrediction(reader, sampleSize, userBased, resBased, beta, neighbors, bands, rows, context);
 		} else {
-			cfValues = startBM25CreationForResourcesPrediction(reader, sampleSize, userBased, resBased, allResources, bll, features);
+			cfValues = startBM25CreationForResourcesPrediction(reader, sampleSize, userBased, resBased, allResources, bll, features, neighbors, bands, rows);
 		}
 		
 		List<int[]> predictionValues = new ArrayList<int[]>();
@@ -328,13 +395,16 @@ public class BM25Calculator {
 			suffix = "_usercf_";
 		}
 		suffix += features + "_"; 
+		if (bands > 0) {
+			suffix += "lsh" + bands + "x" + rows + "_";
+		}
 		if (predictTags) {
 			reader.setUserLines(reader.getBookmarks().subList(trainSize, reader.getBookmarks().size()));
 			PredictionFileWriter writer = new PredictionFileWriter(reader, predictionValues);
 			String outputFile = filename + suffix + beta;
 			writer.writeFile(outputFile);
 			
-			Utilities.writeStringToFile("./data/metrics/" + outputFile + "_TIME.txt", timeString);
+			Utilities.writeStringToFile("./data/metrics/" + outputFile + "_TIME.txt", context.getTimeString());
 		} else {
 			if (!userBased && !allResources) {
 				suffix += "mixed_";
@@ -343,39 +413,40 @@ public class BM25Calculator {
 				suffix += "bll_";
 			}
 			PredictionFileWriter writer = new PredictionFileWriter(reader, predictionValues);
-			writer.writeResourcePredictionsToFile(filename + suffix + beta, trainSize, MAX_NEIGHBORS);
+			writer.writeResourcePredictionsToFile(filename + suffix + beta, trainSize, neighbors);
 		}
 		return reader;
 	}
 	
-	private static String timeString;
-	
-	private static List<Map<Integer, Double>> startBM25CreationForTagPrediction(BookmarkReader reader, int sampleSize, boolean userBased, boolean resBased, int beta) {
-		timeString = "";
+	private static List<Map<Integer, Double>> startBM25CreationForTagPrediction(final BookmarkReader reader, int sampleSize, boolean userBased, boolean resBased, int beta, int neighbors,
+			int bands, int rows, RunContext context) {
+		String timeString = "";
 		int size = reader.getBookmarks().size();
 		int trainSize = size - sampleSize;
 		Stopwatch timer = new Stopwatch();
 		timer.start();
-		BM25Calculator calculator = new BM25Calculator(reader, trainSize, true, userBased, resBased, beta, Similarity.JACCARD, Features.TAGS);
+		final BM25Calculator calculator = new BM25Calculator(reader, trainSize, true, userBased, resBased, beta, Similarity.JACCARD, Features.TAGS, neighbors, bands, rows);
 		timer.stop();
 		long trainingTime = timer.elapsed(TimeUnit.MILLISECONDS);
 		
-		List<Map<Integer, Double>> results = new ArrayList<Map<Integer, Double>>();
 		timer = new Stopwatch();
 		timer.start();
-		for (int i = trainSize; i < size; i++) {
-			Bookmark data = reader.getBookmarks().get(i);
-			Map<Integer, Double> map = null;
-			map = calculator.getRankedTagList(data.getUserID(), data.getWikiID(), true);
-			results.add(map);
-			System.out.println(data.getTags() + "|" + map.keySet());
-		}
+		TestSetEvaluator<Map<Integer, Double>> evaluator = new TestSetEvaluator<Map<Integer, Double>>(new TestSetEvaluator.Scorer<Map<Integer, Double>>() {
+			@Override
+			public Map<Integer, Double> score(int index) {
+				Bookmark data = reader.getBookmarks().get(index);
+				return calculator.getRankedTagList(data.getUserID(), data.getWikiID(), true);
+			}
+		});
+		List<Map<Integer, Double>> results = evaluator.evaluate(trainSize, size);
 		timer.stop();
 		long testTime = timer.elapsed(TimeUnit.MILLISECONDS);
 		timeString += ("Full training time: " + trainingTime + "\n");
 		timeString += ("Full test time: " + testTime + "\n");
 		timeString += ("Average test time: " + testTime / (double)sampleSize) + "\n";
 		timeString += ("Total time: " + (trainingTime + testTime) + "\n");
+		timeString += evaluator.getTimeString();
+		context.setTimeString(timeString);
 	
 		return results;
 	}	
@@ -36,8 +36,6 @@ import file.PredictionFileWriter;
 import file.BookmarkReader;
 
 public class BaselineCalculator {
-
-	private static String timeString = "";
 	
 	public static int[] getPopularTagList(BookmarkReader reader, int size) {
 		Map<Integer, Integer> countMap = new LinkedHashMap<Integer, Integer>();
@@ -72,8 +70,8 @@ public class BaselineCalculator {
 		return tags;
 	}
 	
-	private static List<int[]> getPopularTags(BookmarkReader reader, int sampleSize, int limit) {
-		timeString = "";
+	private static List<int[]> getPopularTags(BookmarkReader reader, int sampleSize, int limit, RunContext context) {
+		String timeString = "";
 		List<int[]> tags = new ArrayList<int[]>();
 		Stopwatch timer = new Stopwatch();
 		timer.start();
@@ -93,6 +91,7 @@ public class BaselineCalculator {
 		timeString += ("Full test time: " + testTime + "\n");
 		timeString += ("Average test time: " + testTime / sampleSize) + "\n";
 		timeString += ("Total time: " + (trainingTime + testTime) + "\n");
+		context.setTimeString(timeString);
 		return tags;
 	}
 	
@@ -106,7 +105,7 @@ public class BaselineCalculator {
 		sortedCountMap.putAll(countMap);
 		
 		for (int userID : reader.getUniqueUserListFromTestSet(trainSize)) {
-			List<Integer> userResources = Bookmark.getResourcesFromUser(reader.getBookmarks().subList(0, trainSize), userID);
+			List<Integer> userResources = Bookmark.getResourcesFromUser(reader.getBookmarkIndex(0, trainSize), userID);
 			//System.out.println(userResources.size());
 			List<Integer> resIDs = new ArrayList<Integer>();
 			int i = 0;
@@ -130,7 +129,7 @@ public class BaselineCalculator {
 		int resCount = reader.getResources().size();
 	
 		for (int userID : reader.getUniqueUserListFromTestSet(trainSize)) {
-			List<Integer> userResources = Bookmark.getResourcesFromUser(reader.getBookmarks().subList(0, trainSize), userID);
+			List<Integer> userResources = Bookmark.getResourcesFromUser(reader.getBookmarkIndex(0, trainSize), userID);
 			
 			List<Integer> resIDs = new ArrayList<Integer>();
 			int i = 0;
@@ -155,13 +154,14 @@ public class BaselineCalculator {
 		BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 
-		List<int[]> values = getPopularTags(reader, sampleSize, 10);
+		RunContext context = new RunContext();
+		List<int[]> values = getPopularTags(reader, sampleSize, 10, context);
 		//List<int[]> values = getPerfectTags(reader, sampleSize, 10);
 		
 		reader.setUserLines(reader.getBookmarks().subList(trainSize, reader.getBookmarks().size()));
 		PredictionFileWriter writer = new PredictionFileWriter(reader, values);
 		writer.writeFile(filename + "_mp");
-		Utilities.writeStringToFile("./data/metrics/" + filename + "_mp" + "_TIME.txt", timeString);
+		Utilities.writeStringToFile("./data/metrics/" + filename + "_mp" + "_TIME.txt", context.getTimeString());
 	}
 	
 	public static BookmarkReader predictPopularResources(String filename, int trainSize) {
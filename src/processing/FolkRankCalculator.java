@@ -80,7 +80,7 @@ public class FolkRankCalculator {
 	        FolkRankResult result = folk.computeFolkRank(facts, pref);
 	        SortedSet<ItemWithWeight> topKTags = ItemWithWeight.getTopK(facts, result.getWeights(), 100, 2); // TODO
 	        int count = 0;
-	        List<Integer> userResources = Bookmark.getResourcesFromUser(reader.getBookmarks().subList(0, trainSize), userID);
+	        List<Integer> userResources = Bookmark.getResourcesFromUser(reader.getBookmarkIndex(0, trainSize), userID);
 	        for (ItemWithWeight item : topKTags) {
 	        	if (count < 10) {
 	        		if (!userResources.contains(item.getItem())) {
@@ -96,15 +96,9 @@ public class FolkRankCalculator {
 		return results;
 	}
 	
-	private static List<int[]> frResults;
-	private static List<int[]> prResults;
-	private static String timeString;
-	
-	private static void startFolkRankCreation(BookmarkReader reader, int sampleSize) {
-		timeString = "";
+	private static void startFolkRankCreation(BookmarkReader reader, int sampleSize, List<int[]> frResults, List<int[]> prResults, RunContext context) {
+		String timeString = "";
 		System.out.println("\nStart FolkRank Calculation for Tags");
-		frResults = new ArrayList<int[]>();
-		prResults = new ArrayList<int[]>();
 		int size = reader.getBookmarks().size();
 		int trainSize = size - sampleSize;
 		Stopwatch timer = new Stopwatch();
@@ -162,6 +156,7 @@ public class FolkRankCalculator {
 		timeString += ("Full test time: " + testTime + "\n");
 		timeString += ("Average test time: " + testTime / (double)sampleSize) + "\n";
 		timeString += ("Total time: " + (trainingTime + testTime) + "\n");
+		context.setTimeString(timeString);
 	}
 	
 	public static void predictSample(String filename, int trainSize, int sampleSize, boolean predictTags) {
@@ -175,10 +170,11 @@ public class FolkRankCalculator {
 		reader.readFile(filename);
 		List<int[]> predictionValues = null;
 		List<int[]> prPredictionValues = null;
+		RunContext context = new RunContext();
 		if (predictTags) {
-			startFolkRankCreation(reader, sampleSize);
-			predictionValues = frResults;
-			prPredictionValues = prResults;
+			predictionValues = new ArrayList<int[]>();
+			prPredictionValues = new ArrayList<int[]>();
+			startFolkRankCreation(reader, sampleSize, predictionValues, prPredictionValues, context);
 		} else {
 			predictionValues = startFolkRankCreationForResources(reader, sampleSize);
 		}
@@ -190,7 +186,7 @@ public class FolkRankCalculator {
 			PredictionFileWriter prWriter = new PredictionFileWriter(reader, prPredictionValues);
 			prWriter.writeFile(filename + "_apr");
 			
-			Utilities.writeStringToFile("./data/metrics/" + filename + "_fr" + "_TIME.txt", timeString);
+			Utilities.writeStringToFile("./data/metrics/" + filename + "_fr" + "_TIME.txt", context.getTimeString());
 		} else {
 			PredictionFileWriter writer = new PredictionFileWriter(reader, predictionValues);
 			writer.writeResourcePredictionsToFile(filename + "_fr", trainSize, 0);
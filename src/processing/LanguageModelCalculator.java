@@ -23,7 +23,6 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Stopwatch;
@@ -32,8 +31,8 @@ import com.google.common.primitives.Ints;
 import file.PredictionFileWriter;
 import file.BookmarkReader;
 import file.BookmarkSplitter;
-import common.DoubleMapComparator;
 import common.Bookmark;
+import common.TopKSelector;
 import common.Utilities;
 
 public class LanguageModelCalculator {
@@ -101,65 +100,63 @@ public class LanguageModelCalculator {
 		}
 				
 		if (sorting) {
-			Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(new DoubleMapComparator(resultMap));
-			sortedResultMap.putAll(resultMap);
-			
-			Map<Integer, Double> returnMap = new LinkedHashMap<Integer, Double>(REC_LIMIT);
-			int i = 0;
-			for (Map.Entry<Integer, Double> entry : sortedResultMap.entrySet()) {
-				if (i++ < REC_LIMIT) {
-					returnMap.put(entry.getKey(), entry.getValue());
-				} else {
-					break;
-				}
-			}
-			return returnMap;
+			return TopKSelector.select(resultMap, REC_LIMIT);
 		}
 		return resultMap;
 	}
 	
 	//---------------------------------------------------------------------------------------------------------------------------------------------------------------------------------
 	
-	private static String timeString = "";
-	
 	public static List<Map<Integer, Double>> startLanguageModelCreation(BookmarkReader reader, int sampleSize, boolean sorting, boolean userBased, boolean resBased, int beta, boolean smoothing) {
-		timeString = "";
+		return startLanguageModelCreation(reader, sampleSize, sorting, userBased, resBased, beta, smoothing, new RunContext());
+	}
+	
+	public static List<Map<Integer, Double>> startLanguageModelCreation(final BookmarkReader reader, int sampleSize, final boolean sorting, boolean userBased, boolean resBased, int beta, final boolean smoothing, RunContext context) {
+		String timeString = "";
 		int size = reader.getBookmarks().size();
 		int trainSize = size - sampleSize;
 		
 		Stopwatch timer = new Stopwatch();
 		timer.start();
-		LanguageModelCalculator calculator = new LanguageModelCalculator(reader, trainSize, beta, userBased, resBased);
+		final LanguageModelCalculator calculator = new LanguageModelCalculator(reader, trainSize, beta, userBased, resBased);
 		timer.stop();
 		long trainingTime = timer.elapsed(TimeUnit.MILLISECONDS);
-		List<Map<Integer, Double>> results = new ArrayList<Map<Integer, Double>>();
 		if (trainSize == size) {
 			trainSize = 0;
 		}
 		
 		timer = new Stopwatch();
 		timer.start();
-		for (int i = trainSize; i < size; i++) { // the test-set
-			Bookmark data = reader.getBookmarks().get(i);
-			Map<Integer, Double> map = calculator.getRankedTagList(data.getUserID(), data.getWikiID(), sorting, smoothing);
-			results.add(map);
-		}
+		TestSetEvaluator<Map<Integer, Double>> evaluator = new TestSetEvaluator<Map<Integer, Double>>(new TestSetEvaluator.Scorer<Map<Integer, Double>>() {
+			@Override
+			public Map<Integer, Double> score(int index) {
+				Bookmark data = reader.getBookmarks().get(index);
+				return calculator.getRankedTagList(data.getUserID(), data.getWikiID(), sorting, smoothing);
+			}
+		});
+		List<Map<Integer, Double>> results = evaluator.evaluate(trainSize, size); // the test-set
 		timer.stop();
 		long testTime = timer.elapsed(TimeUnit.MILLISECONDS);
 		timeString += ("Full training time: " + trainingTime + "\n");
 		timeString += ("Full test time: " + testTime + "\n");
 		timeString += ("Average test time: " + testTime / (double)sampleSize) + "\n";
 		timeString += ("Total time: " + (trainingTime + testTime) + "\n");
+		timeString += evaluator.getTimeString();
+		context.setTimeString(timeString);
 		return results;
 	}
 	
 	public static void predictSample(String filename, int trainSize, int sampleSize, boolean userBased, boolean resBased, int beta) {
+		predictSample(filename, trainSize, sampleSize, userBased, resBased, beta, new RunContext());
+	}
+	
+	public static void predictSample(String filename, int trainSize, int sampleSize, boolean userBased, boolean resBased, int beta, RunContext context) {
 		//filename += "_res";
 
 		BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 
-		List<Map<Integer, Double>> modelValues = startLanguageModelCreation(reader, sampleSize, true, userBased, resBased, beta, true);
+		List<Map<Integer, Double>> modelValues = startLanguageModelCreation(reader, sampleSize, true, userBased, resBased, beta, true, context);
 		
 		List<int[]> predictionValues = new ArrayList<int[]>();
 		for (int i = 0; i < modelValues.size(); i++) {
@@ -177,6 +174,6 @@ public class LanguageModelCalculator {
 		String outputFile = filename + suffix + beta;
 		writer.writeFile(outputFile);
 		
-		Utilities.writeStringToFile("./data/metrics/" + outputFile + "_TIME.txt", timeString);
+		Utilities.writeStringToFile("./data/metrics/" + outputFile + "_TIME.txt", context.getTimeString());
 	}
 }
@@ -38,6 +38,7 @@ import com.google.common.primitives.Ints;
 
 import common.DoubleMapComparator;
 import common.Bookmark;
+import common.TopKSelector;
 import common.Utilities;
 import cc.mallet.pipe.Array2FeatureVector;
 import cc.mallet.pipe.CharSequence2TokenSequence;
@@ -226,19 +227,7 @@ public class MalletCalculator {
 		}
 				
 		if (sorting) {
-			Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(new DoubleMapComparator(resultMap));
-			sortedResultMap.putAll(resultMap);
-			
-			Map<Integer, Double> returnMap = new LinkedHashMap<Integer, Double>(MAX_RECOMMENDATIONS);
-			int i = 0;
-			for (Map.Entry<Integer, Double> entry : sortedResultMap.entrySet()) {
-				if (i++ < MAX_RECOMMENDATIONS) {
-					returnMap.put(entry.getKey(), entry.getValue());
-				} else {
-					break;
-				}
-			}
-			return returnMap;
+			return TopKSelector.select(resultMap, MAX_RECOMMENDATIONS);
 		}
 		return resultMap;
 		/*
@@ -286,10 +275,12 @@ public class MalletCalculator {
 		*/
 	}
 	
-	private static String timeString;
-	
 	public static List<Map<Integer, Double>> startLdaCreation(BookmarkReader reader, int sampleSize, boolean sorting, int numTopics, boolean userBased, boolean resBased, boolean topicCreation, boolean smoothing) {
-		timeString = "";
+		return startLdaCreation(reader, sampleSize, sorting, numTopics, userBased, resBased, topicCreation, smoothing, new RunContext());
+	}
+	
+	public static List<Map<Integer, Double>> startLdaCreation(BookmarkReader reader, int sampleSize, boolean sorting, int numTopics, boolean userBased, boolean resBased, boolean topicCreation, boolean smoothing, RunContext context) {
+		String timeString = "";
 		int size = reader.getBookmarks().size();
 		int trainSize = size - sampleSize;
 		
@@ -365,6 +356,7 @@ public class MalletCalculator {
 		timeString += ("Full test time: " + testTime + "\n");
 		timeString += ("Average test time: " + testTime / (double)sampleSize) + "\n";
 		timeString += ("Total time: " + (trainingTime + testTime) + "\n");
+		context.setTimeString(timeString);
 		return results;
 	}
     
@@ -373,7 +365,8 @@ public class MalletCalculator {
 		BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 
-		List<Map<Integer, Double>> ldaValues = startLdaCreation(reader, sampleSize, true, numTopics, userBased, resBased, false, true);
+		RunContext context = new RunContext();
+		List<Map<Integer, Double>> ldaValues = startLdaCreation(reader, sampleSize, true, numTopics, userBased, resBased, false, true, context);
 		
 		List<int[]> predictionValues = new ArrayList<int[]>();
 		for (int i = 0; i < ldaValues.size(); i++) {
@@ -384,7 +377,7 @@ public class MalletCalculator {
 		PredictionFileWriter writer = new PredictionFileWriter(reader, predictionValues);
 		writer.writeFile(filename + "_lda_" + numTopics);
 		
-		Utilities.writeStringToFile("./data/metrics/" + filename + "_lda_" + numTopics + "_TIME.txt", timeString);
+		Utilities.writeStringToFile("./data/metrics/" + filename + "_lda_" + numTopics + "_TIME.txt", context.getTimeString());
 	}
 	
 	public static void createSample(String filename, int sampleSize, short numTopics, boolean userBased, boolean resBased) {
@@ -52,16 +52,8 @@ public class MetricsCalculator {
 
 	private BookmarkReader wikiReader;
 	
-	// used for averages
-	public static double precisionSum = 0.0;
-	public static double recallSum = 0.0;
-	public static double fMeasureSum = 0.0;
-	public static double mrrSum = 0.0;
-	public static double mapSum = 0.0;	
-	public static double userCoverageSum = 0.0;
-	public static double diversitySum = 0.0;
-	public static double serendipitySum = 0.0;
-	public static double nDCGSum = 0.0;
+	// used for averages by the callers without a context of their own
+	private final static RunContext DEFAULT_CONTEXT = new RunContext();
 	
 	public MetricsCalculator(PredictionFileReader reader, String outputFile, int k, BookmarkReader wikiReader) {
 		this.reader = reader;
@@ -112,7 +104,7 @@ public class MetricsCalculator {
 			mrr += data.getMRR();
 			map += data.getMAP();
 			if (resourceTopics != null) {
-				List<Integer> knownResources = Bookmark.getResourcesFromUser(wikiReader.getBookmarks().subList(0, trainSize), data.getUserID());
+				List<Integer> knownResources = Bookmark.getResourcesFromUser(wikiReader.getBookmarkIndex(0, trainSize), data.getUserID());
 				diversity += data.getDiversity(resourceTopics);
 				serendipity += data.getSerendipity(resourceTopics, knownResources);
 			}
@@ -197,19 +189,15 @@ public class MetricsCalculator {
 	// Statics ----------------------------------------------------------------------------------------------------------------------
 	
 	public static void calculateMetrics(String filename, int k, String outputFile, boolean endline, BookmarkReader wikiReader, Integer minBookmarks, Integer maxBookmarks, Integer minResBookmarks, Integer maxResBookmarks, boolean calcTags) {
+		calculateMetrics(filename, k, outputFile, endline, wikiReader, minBookmarks, maxBookmarks, minResBookmarks, maxResBookmarks, calcTags, DEFAULT_CONTEXT);
+	}
+	
+	public static void calculateMetrics(String filename, int k, String outputFile, boolean endline, BookmarkReader wikiReader, Integer minBookmarks, Integer maxBookmarks, Integer minResBookmarks, Integer maxResBookmarks, boolean calcTags, RunContext context) {
 		PredictionFileReader reader = new PredictionFileReader();
 		reader.readFile(filename, k, wikiReader, minBookmarks, maxBookmarks, minResBookmarks, maxResBookmarks);
 		
 		MetricsCalculator calc = new MetricsCalculator(reader, "./data/metrics/" + outputFile + "_all", k, calcTags ? null : wikiReader);
-		recallSum += calc.getRecall();
-		precisionSum += calc.getPrecision();
-		fMeasureSum += calc.getFMeasure();
-		mrrSum += calc.getMRR();
-		mapSum += calc.getMAP();
-		userCoverageSum += calc.getUserCoverage();
-		diversitySum += calc.getDiversity();
-		serendipitySum += calc.getSerendipity();
-		nDCGSum += calc.getNDCG();
+		context.addMetrics(calc);
 		
 		/*
 		if (outputFile != null) {
@@ -230,23 +218,27 @@ public class MetricsCalculator {
 	}
 	
 	public static void writeAverageMetrics(String outputFile, int k, double size, boolean calcTags, boolean endLine) {
+		writeAverageMetrics(outputFile, k, size, calcTags, endLine, DEFAULT_CONTEXT);
+	}
+	
+	public static void writeAverageMetrics(String outputFile, int k, double size, boolean calcTags, boolean endLine, RunContext context) {
 		try {
 			FileWriter writer = new FileWriter(new File("./data/metrics/" + outputFile + "_avg.txt"), true);
 			BufferedWriter bw = new BufferedWriter(writer);
-			double recall = recallSum / size;
-			double precision = precisionSum / size;
+			double recall = context.recallSum / size;
+			double precision = context.precisionSum / size;
 			bw.write(Double.toString(recall).replace('.', ',') + ";");		
 			bw.write(Double.toString(precision).replace('.', ',') + ";");		
-			//bw.write(Double.toString((fMeasureSum / size)).replace('.', ',') + ";");
+			//bw.write(Double.toString((context.fMeasureSum / size)).replace('.', ',') + ";");
 			bw.write(Double.toString(2.0 * recall * precision / (recall + precision == 0 ? 1.0 : recall + precision)).replace('.', ',') + ";");
-			bw.write(Double.toString((mrrSum / size)).replace('.', ',') + ";");		
-			bw.write(Double.toString((mapSum / size)).replace('.', ',') + ";");
-			bw.write(Double.toString((nDCGSum / size)).replace('.', ',') + ";");
-			bw.write(Double.toString((userCoverageSum / size)).replace('.', ','));
+			bw.write(Double.toString((context.mrrSum / size)).replace('.', ',') + ";");		
+			bw.write(Double.toString((context.mapSum / size)).replace('.', ',') + ";");
+			bw.write(Double.toString((context.nDCGSum / size)).replace('.', ',') + ";");
+			bw.write(Double.toString((context.userCoverageSum / size)).replace('.', ','));
 			if (!calcTags) {
 				bw.write(";");
-				bw.write(Double.toString((diversitySum / size)).replace('.', ',') + ";");		
-				bw.write(Double.toString((serendipitySum / size)).replace('.', ',') + ";");
+				bw.write(Double.toString((context.diversitySum / size)).replace('.', ',') + ";");		
+				bw.write(Double.toString((context.serendipitySum / size)).replace('.', ',') + ";");
 			}
 			if (endLine)
 				bw.write("\n");
@@ -254,22 +246,61 @@ public class MetricsCalculator {
 			bw.write("\n");
 			bw.close();
 			
-			resetMetrics();
+			context.resetMetrics();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 	
 	public static void resetMetrics() {
-		recallSum = 0.0;
-		precisionSum = 0.0;
-		fMeasureSum = 0.0;
-		mrrSum = 0.0;
-		mapSum = 0.0;
-		userCoverageSum = 0.0;
-		diversitySum = 0.0;
-		serendipitySum = 0.0;
-		nDCGSum = 0.0;
+		DEFAULT_CONTEXT.resetMetrics();
+	}
+	
+	// Read-only access to the sums of the default context, which replaced the former public static *Sum fields.
+	// Callers with a RunContext of their own should use that instead.
+	@Deprecated
+	public static double getPrecisionSum() {
+		return DEFAULT_CONTEXT.precisionSum;
+	}
+	
+	@Deprecated
+	public static double getRecallSum() {
+		return DEFAULT_CONTEXT.recallSum;
+	}
+	
+	@Deprecated
+	public static double getFMeasureSum() {
+		return DEFAULT_CONTEXT.fMeasureSum;
+	}
+	
+	@Deprecated
+	public static double getMrrSum() {
+		return DEFAULT_CONTEXT.mrrSum;
+	}
+	
+	@Deprecated
+	public static double getMapSum() {
+		return DEFAULT_CONTEXT.mapSum;
+	}
+	
+	@Deprecated
+	public static double getUserCoverageSum() {
+		return DEFAULT_CONTEXT.userCoverageSum;
+	}
+	
+	@Deprecated
+	public static double getDiversitySum() {
+		return DEFAULT_CONTEXT.diversitySum;
+	}
+	
+	@Deprecated
+	public static double getSerendipitySum() {
+		return DEFAULT_CONTEXT.serendipitySum;
+	}
+	
+	@Deprecated
+	public static double getNDCGSum() {
+		return DEFAULT_CONTEXT.nDCGSum;
 	}
 	
 	public static void calcF1Score(String dirName) {
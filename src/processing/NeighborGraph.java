@@ -0,0 +1,242 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package processing;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.Bookmark;
+import common.BookmarkIndex;
+import common.ProfileIndex;
+import common.Similarity;
+import common.Utilities;
+
+/**
+ * Precomputed k-nearest-neighbor graph of the users for user-based CF. For every user it holds the first k entries
+ * Utilities.getNeighbors returns without a resource - the same users (the user itself included) in the same order
+ * (equal similarities go to the user added to allUsers last) with the same values. A row is a top-k search on a
+ * ProfileIndex of the profiles, which only visits the users sharing a feature with the user, instead of a pass over
+ * all users and a sort. The rows are scored in parallel on the pool of TestSetEvaluator and kept in flat arrays.
+ * The profiles are read on build and refresh, so after they changed refresh recomputes the rows that can be affected.
+ * Refreshing has to be synchronized with the queries by the caller. A refreshed graph has the same rows as one built
+ * from scratch on the changed profiles (compared by startNeighborGraphRefreshBenchmark in test.Benchmarks).
+ */
+public class NeighborGraph {
+
+	private final List<Map<Integer, Double>> userMaps;
+	private final Map<Integer, Double> allUsers;
+	private final Similarity sim;
+	private final int k;
+	
+	private ProfileIndex index;
+	// row u: counts[u] neighbors starting at neighbors[u * k] in descending order of their scores
+	private int rows;
+	private int[] counts;
+	private int[] neighbors;
+	private double[] scores;
+	
+	/**
+	 * Builds the graph for all users of userMaps, the candidates are the users of allUsers (as in Utilities.getNeighbors).
+	 */
+	public NeighborGraph(List<Map<Integer, Double>> userMaps, Map<Integer, Double> allUsers, Similarity sim, int k) {
+		this.userMaps = userMaps;
+		this.allUsers = allUsers;
+		this.sim = sim;
+		this.k = Math.max(k, 0);
+		this.rows = 0;
+		this.counts = new int[0];
+		this.neighbors = new int[0];
+		this.scores = new double[0];
+		
+		this.index = new ProfileIndex(this.userMaps, this.allUsers.keySet(), this.sim);
+		int[] userIDs = new int[this.userMaps.size()];
+		for (int i = 0; i < userIDs.length; i++) {
+			userIDs[i] = i;
+		}
+		scoreRows(userIDs);
+	}
+	
+	private void scoreRows(final int[] userIDs) {
+		TestSetEvaluator<Row> evaluator = new TestSetEvaluator<Row>(new TestSetEvaluator.Scorer<Row>() {
+			@Override
+			public Row score(int index) {
+				return scoreRow(userIDs[index]);
+			}
+		});
+		List<Row> results = evaluator.evaluate(0, userIDs.length);
+		
+		int userCount = this.userMaps.size();
+		if (userCount > this.rows) {
+			this.counts = Arrays.copyOf(this.counts, userCount);
+			this.neighbors = Arrays.copyOf(this.neighbors, userCount * this.k);
+			this.scores = Arrays.copyOf(this.scores, userCount * this.k);
+			this.rows = userCount;
+		}
+		for (int i = 0; i < userIDs.length; i++) {
+			Row row = results.get(i);
+			int base = userIDs[i] * this.k;
+			System.arraycopy(row.users, 0, this.neighbors, base, row.count);
+			System.arraycopy(row.scores, 0, this.scores, base, row.count);
+			this.counts[userIDs[i]] = row.count;
+		}
+	}
+	
+	private Row scoreRow(int userID) {
+		Row row = new Row(this.k);
+		row.count = this.index.search(this.userMaps.get(userID), null, this.k, row.users, row.scores);
+		return row;
+	}
+	
+	/**
+	 * Recomputes the rows that can have changed after the profiles of the given users were changed or the users were
+	 * added (at the end of allUsers, users cannot be removed): the rows of these users, of the users sharing a feature
+	 * with their old or new profiles and - if users were added - the rows still containing a similarity of 0 or less.
+	 * Returns the number of recomputed rows.
+	 */
+	public int refresh(Collection<Integer> userIDs) {
+		int oldRows = this.rows;
+		int oldCandidates = this.index.getCandidateCount();
+		boolean[] affected = new boolean[this.userMaps.size()];
+		for (Integer userID : userIDs) {
+			this.index.markCoProfiles(userID, affected);
+		}
+		this.index = new ProfileIndex(this.userMaps, this.allUsers.keySet(), this.sim);
+		for (Integer userID : userIDs) {
+			if (userID >= 0 && userID < affected.length) {
+				affected[userID] = true;
+			}
+			this.index.markCoProfiles(userID, affected);
+		}
+		for (int u = oldRows; u < affected.length; u++) {
+			affected[u] = true;
+		}
+		if (this.index.getCandidateCount() > oldCandidates) {
+			for (int u = 0; u < oldRows; u++) {
+				int count = this.counts[u];
+				if (count < this.k || (count > 0 && this.scores[u * this.k + count - 1] <= 0.0)) {
+					affected[u] = true;
+				}
+			}
+		}
+		
+		int size = 0;
+		int[] affectedIDs = new int[affected.length];
+		for (int u = 0; u < affected.length; u++) {
+			if (affected[u]) {
+				affectedIDs[size++] = u;
+			}
+		}
+		scoreRows(Arrays.copyOf(affectedIDs, size));
+		return size;
+	}
+	
+	public int size() {
+		return this.rows;
+	}
+	
+	public int getLimit() {
+		return this.k;
+	}
+	
+	public boolean contains(int userID) {
+		return userID >= 0 && userID < this.rows;
+	}
+	
+	public int getNeighborCount(int userID) {
+		return (contains(userID) ? this.counts[userID] : 0);
+	}
+	
+	public int getNeighborAt(int userID, int index) {
+		return this.neighbors[userID * this.k + index];
+	}
+	
+	public double getScoreAt(int userID, int index) {
+		return this.scores[userID * this.k + index];
+	}
+	
+	/**
+	 * Returns the neighbors of the user with their similarities in descending order - an empty map for unknown users.
+	 */
+	public Map<Integer, Double> getNeighbors(int userID) {
+		int count = getNeighborCount(userID);
+		Map<Integer, Double> neighborMap = new LinkedHashMap<Integer, Double>(count * 2);
+		for (int i = 0; i < count; i++) {
+			neighborMap.put(getNeighborAt(userID, i), getScoreAt(userID, i));
+		}
+		return neighborMap;
+	}
+	
+	/**
+	 * Drop-in for the first k entries of Utilities.getNeighbors: if somebody else has tagged the resource, its users are
+	 * ranked as before, otherwise the row of the graph is returned. Users without a profile are not scored there, so
+	 * they get the first k candidates with their values in allUsers. Users added after the last refresh are passed on.
+	 */
+	public Map<Integer, Double> getNeighbors(int userID, int resID, BookmarkIndex trainIndex) {
+		if (resID != -1) {
+			for (Bookmark data : trainIndex.getResourceBookmarks(resID)) {
+				if (data.getUserID() != userID) {
+					return Utilities.getNeighbors(userID, resID, this.allUsers, this.userMaps, trainIndex, this.sim);
+				}
+			}
+		}
+		if (userID >= this.userMaps.size()) {
+			return getFirstCandidates();
+		}
+		if (!contains(userID)) {
+			return Utilities.getNeighbors(userID, -1, this.allUsers, this.userMaps, trainIndex, this.sim);
+		}
+		return getNeighbors(userID);
+	}
+	
+	// the first k entries of allUsers - what Utilities.getNeighbors returns for a user without a profile
+	private Map<Integer, Double> getFirstCandidates() {
+		Map<Integer, Double> candidateMap = new LinkedHashMap<Integer, Double>(this.k * 2);
+		for (Map.Entry<Integer, Double> entry : this.allUsers.entrySet()) {
+			if (candidateMap.size() == this.k) {
+				break;
+			}
+			candidateMap.put(entry.getKey(), entry.getValue());
+		}
+		return candidateMap;
+	}
+	
+	/**
+	 * Approximate number of bytes the graph and its index occupy on the heap (without the profiles).
+	 */
+	public long getMemoryUsage() {
+		return 48 + this.index.getMemoryUsage() + (16 + 4L * this.counts.length) + (16 + 4L * this.neighbors.length) + (16 + 8L * this.scores.length);
+	}
+	
+	private static class Row {
+		
+		private final int[] users;
+		private final double[] scores;
+		private int count;
+		
+		Row(int k) {
+			this.users = new int[k];
+			this.scores = new double[k];
+		}
+	}
+}
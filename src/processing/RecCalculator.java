@@ -24,14 +24,13 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.primitives.Ints;
 
-import common.DoubleMapComparator;
 import common.Bookmark;
+import common.TopKSelector;
 import common.Utilities;
 import file.PredictionFileWriter;
 import file.BookmarkReader;
@@ -80,18 +79,7 @@ public class RecCalculator {
 		}
 		
 		// sort and return
-		Map<Integer, Double> returnMap = new LinkedHashMap<Integer, Double>();
-		Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(new DoubleMapComparator(resultMap));
-		sortedResultMap.putAll(resultMap);
-		int count = 0;
-		for (Map.Entry<Integer, Double> entry : sortedResultMap.entrySet()) {
-			if (count++ < 10) {
-				returnMap.put(entry.getKey(), entry.getValue());
-			} else {
-				break;
-			}
-		}		
-		return returnMap;
+		return TopKSelector.select(resultMap, 10);
 	}
 	
 	private Map<Integer, Double> getTagRecencies(List<Bookmark> bookmarks) {
@@ -127,17 +115,19 @@ public class RecCalculator {
 	//----------------------------------------------------------------------------------------------------------------------
 	public static void predictSample(String filename, int trainSize, int sampleSize, boolean userBased, boolean resBased) {
 		//filename += "_res";
-		BookmarkReader reader = new BookmarkReader(trainSize, false);
+		final BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 		
-		List<int[]> predictionValues = new ArrayList<int[]>();
-		RecCalculator calculator = new RecCalculator(reader, trainSize, userBased, resBased);
+		final RecCalculator calculator = new RecCalculator(reader, trainSize, userBased, resBased);
+		List<int[]> predictionValues = new TestSetEvaluator<int[]>(new TestSetEvaluator.Scorer<int[]>() {
+			@Override
+			public int[] score(int index) {
+				Bookmark data = reader.getBookmarks().get(index);
+				Map<Integer, Double> map = calculator.getRankedTagList(data.getUserID(), data.getWikiID());
+				return Ints.toArray(map.keySet());
+			}
+		}).evaluate(trainSize, trainSize + sampleSize); // the test-set
 
-		for (int i = trainSize; i < trainSize + sampleSize; i++) { // the test-set
-			Bookmark data = reader.getBookmarks().get(i);
-			Map<Integer, Double> map = calculator.getRankedTagList(data.getUserID(), data.getWikiID());
-			predictionValues.add(Ints.toArray(map.keySet()));
-		}		
 		String suffix = "_girptm";
 		if (!userBased) {
 			suffix = "_gitm";
@@ -0,0 +1,74 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package processing;
+
+/**
+ * State of one prediction and evaluation run, e.g., one point of a parameter sweep: the timings written to the
+ * _TIME file and the metric sums that are averaged over the samples. The calculators used to keep both in static
+ * fields - with a context per run, runs can execute concurrently (see SweepExecutor).
+ */
+public class RunContext {
+
+	private String timeString = "";
+	
+	// used for averages
+	double precisionSum = 0.0;
+	double recallSum = 0.0;
+	double fMeasureSum = 0.0;
+	double mrrSum = 0.0;
+	double mapSum = 0.0;
+	double userCoverageSum = 0.0;
+	double diversitySum = 0.0;
+	double serendipitySum = 0.0;
+	double nDCGSum = 0.0;
+	
+	public String getTimeString() {
+		return this.timeString;
+	}
+	
+	public void setTimeString(String timeString) {
+		this.timeString = timeString;
+	}
+	
+	void addMetrics(MetricsCalculator calc) {
+		this.recallSum += calc.getRecall();
+		this.precisionSum += calc.getPrecision();
+		this.fMeasureSum += calc.getFMeasure();
+		this.mrrSum += calc.getMRR();
+		this.mapSum += calc.getMAP();
+		this.userCoverageSum += calc.getUserCoverage();
+		this.diversitySum += calc.getDiversity();
+		this.serendipitySum += calc.getSerendipity();
+		this.nDCGSum += calc.getNDCG();
+	}
+	
+	public void resetMetrics() {
+		this.recallSum = 0.0;
+		this.precisionSum = 0.0;
+		this.fMeasureSum = 0.0;
+		this.mrrSum = 0.0;
+		this.mapSum = 0.0;
+		this.userCoverageSum = 0.0;
+		this.diversitySum = 0.0;
+		this.serendipitySum = 0.0;
+		this.nDCGSum = 0.0;
+	}
+}
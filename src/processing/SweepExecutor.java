@@ -0,0 +1,103 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package processing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the points of a parameter sweep (e.g., the d and beta values of BLL) concurrently on a bounded pool.
+ * Every point gets its own RunContext and writes its own prediction and metrics files, so the results are the same
+ * as in a serial run. The points share the parsed dataset through the DatasetCache if it is enabled - the
+ * calculators build their models per point.
+ */
+public class SweepExecutor {
+
+	public interface GridPoint {
+		void run(RunContext context);
+	}
+	
+	private final int threads;
+	private final List<GridPoint> points = new ArrayList<GridPoint>();
+	
+	public SweepExecutor(int threads) {
+		this.threads = Math.max(threads, 1);
+	}
+	
+	public int getThreads() {
+		return this.threads;
+	}
+	
+	public void add(GridPoint point) {
+		this.points.add(point);
+	}
+	
+	/**
+	 * Runs the added points and waits for all of them, with one thread they run in order in the calling thread.
+	 * The first failure is rethrown once all points have finished.
+	 */
+	public void run() {
+		List<GridPoint> points = new ArrayList<GridPoint>(this.points);
+		this.points.clear();
+		if (this.threads == 1 || points.size() <= 1) {
+			for (GridPoint point : points) {
+				point.run(new RunContext());
+			}
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(points.size());
+		for (final GridPoint point : points) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					point.run(new RunContext());
+					return null;
+				}
+			});
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.threads, points.size()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sweep");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package processing;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scores the bookmarks of a test range in parallel for the evaluation loops of the calculators. The range is split
+ * into contiguous chunks on a shared fork-join pool, the results come back in index order (as PredictionFileWriter
+ * expects them) and the busy time of every worker thread is recorded. The scorer is called concurrently - the
+ * trained models can be used as long as they are only read.
+ */
+public class TestSetEvaluator<T> {
+
+	private final static int MIN_CHUNK = 16;
+	
+	private static int parallelism = Runtime.getRuntime().availableProcessors();
+	private static ForkJoinPool pool = null;
+	// evaluations running on each pool - a replaced pool is shut down when its last one has finished
+	private static final Map<ForkJoinPool, Integer> poolUsers = new IdentityHashMap<ForkJoinPool, Integer>();
+	
+	public interface Scorer<T> {
+		T score(int index);
+	}
+	
+	private final Scorer<T> scorer;
+	private final Map<String, Long> threadNanos = new TreeMap<String, Long>();
+	
+	public TestSetEvaluator(Scorer<T> scorer) {
+		this.scorer = scorer;
+	}
+	
+	public static synchronized int getParallelism() {
+		return parallelism;
+	}
+	
+	/**
+	 * Sets the number of threads of the pool - with 1 the test sets are scored in the calling thread. Evaluations
+	 * that are running keep their pool until they are done, later ones get a new pool.
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		parallelism = Math.max(parallelism, 1);
+		if (parallelism == TestSetEvaluator.parallelism) {
+			return;
+		}
+		TestSetEvaluator.parallelism = parallelism;
+		if (pool != null && !poolUsers.containsKey(pool)) {
+			pool.shutdown();
+		}
+		pool = null;
+	}
+	
+	private static synchronized ForkJoinPool acquirePool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+		}
+		Integer users = poolUsers.get(pool);
+		poolUsers.put(pool, users != null ? users.intValue() + 1 : 1);
+		return pool;
+	}
+	
+	private static synchronized void releasePool(ForkJoinPool usedPool) {
+		int users = poolUsers.get(usedPool).intValue() - 1;
+		if (users > 0) {
+			poolUsers.put(usedPool, users);
+		} else {
+			poolUsers.remove(usedPool);
+			if (usedPool != pool) {
+				usedPool.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the scores of the indices from (inclusive) to to (exclusive) in this order.
+	 */
+	public List<T> evaluate(int from, int to) {
+		Object[] results = new Object[Math.max(to - from, 0)];
+		int threads = getParallelism();
+		if (threads == 1 || results.length < 2 * MIN_CHUNK) {
+			score(from, from, to, results);
+		} else {
+			int chunkSize = Math.max(MIN_CHUNK, results.length / (threads * 4));
+			ForkJoinPool usedPool = acquirePool();
+			try {
+				usedPool.invoke(new Chunk(from, from, to, chunkSize, results));
+			} finally {
+				releasePool(usedPool);
+			}
+		}
+		@SuppressWarnings("unchecked")
+		List<T> resultList = (List<T>)Arrays.asList(results);
+		return resultList;
+	}
+	
+	private void score(int offset, int from, int to, Object[] results) {
+		long start = System.nanoTime();
+		for (int i = from; i < to; i++) {
+			results[i - offset] = this.scorer.score(i);
+		}
+		long nanos = System.nanoTime() - start;
+		String thread = Thread.currentThread().getName();
+		synchronized (this.threadNanos) {
+			Long sum = this.threadNanos.get(thread);
+			this.threadNanos.put(thread, sum != null ? sum.longValue() + nanos : nanos);
+		}
+	}
+	
+	/**
+	 * Returns the time (in ms) every thread spent scoring, by thread name.
+	 */
+	public Map<String, Long> getThreadTimes() {
+		Map<String, Long> times = new TreeMap<String, Long>();
+		synchronized (this.threadNanos) {
+			for (Map.Entry<String, Long> entry : this.threadNanos.entrySet()) {
+				times.put(entry.getKey(), entry.getValue() / 1000000);
+			}
+		}
+		return times;
+	}
+	
+	/**
+	 * Returns the thread times as a line for the _TIME files.
+	 */
+	public String getTimeString() {
+		Map<String, Long> times = getThreadTimes();
+		StringBuilder builder = new StringBuilder("Test threads: " + times.size());
+		String separator = " (ms per thread: ";
+		for (Long time : times.values()) {
+			builder.append(separator).append(time);
+			separator = ", ";
+		}
+		return builder.append(times.isEmpty() ? "" : ")").append("\n").toString();
+	}
+	
+	private class Chunk extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int offset;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+		private final Object[] results;
+		
+		Chunk(int offset, int from, int to, int chunkSize, Object[] results) {
+			this.offset = offset;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+			this.results = results;
+		}
+		
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= this.chunkSize) {
+				score(this.offset, this.from, this.to, this.results);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new Chunk(this.offset, this.from, middle, this.chunkSize, this.results),
+					new Chunk(this.offset, middle, this.to, this.chunkSize, this.results));
+		}
+	}
+}
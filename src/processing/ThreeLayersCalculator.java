@@ -21,19 +21,20 @@
 package processing;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.primitives.Ints;
 
-import common.DoubleMapComparator;
 import common.Bookmark;
-import common.Utilities;
+import common.SparseVector;
+import common.TopKSelector;
+import common.UsageHistory;
 
 import file.PredictionFileWriter;
 import file.BookmarkReader;
@@ -48,15 +49,19 @@ public class ThreeLayersCalculator {
 	private boolean resBased;
 	private boolean bookmarkBLL;
 	
-	private List<List<Bookmark>> userBookmarks;
+	private List<UserIndex> userIndices;
 	List<Map<Integer, Double>> resMaps;
+	private List<Double> resDenoms;
 	
 	private BM25Calculator cfCalc;
 	
 	public ThreeLayersCalculator(BookmarkReader reader, int trainSize, int dValue, int beta, boolean userBased, boolean resBased, boolean bookmarkBLL) {
 		this.reader = reader;
 		this.trainList = this.reader.getBookmarks().subList(0, trainSize);
-		this.userBookmarks = Utilities.getBookmarks(this.trainList, false);
+		this.userIndices = new ArrayList<UserIndex>();
+		for (Bookmark data : this.trainList) {
+			getUserIndex(data.getUserID()).add(data);
+		}
 		this.beta = (double)beta / 10.0;
 		this.dValue = (double)dValue / 10.0;
 		this.userBased = userBased;
@@ -64,42 +69,57 @@ public class ThreeLayersCalculator {
 		this.bookmarkBLL = bookmarkBLL;
 		
 		if (this.resBased) {
-			this.resMaps = ActCalculator.getArtifactMaps(reader, this.trainList, null, true, new ArrayList<Long>(), new ArrayList<Double>(), 0, true);		
+			this.resDenoms = new ArrayList<Double>();
+			this.resMaps = ActCalculator.getArtifactMaps(reader, this.trainList, null, true, new ArrayList<Long>(), this.resDenoms, 0, true);		
 			//this.cfCalc = new BM25Calculator(this.reader, trainSize, true, true, false, 5);
 		}
 	}
 	
-	private Map<Integer, Double> getLastUsages(List<Bookmark> bookmarks, double timestamp, boolean categories) {
-		Map<Integer, Double> usageMap = new LinkedHashMap<Integer, Double>();
-		for (Bookmark data : bookmarks) {
-			List<Integer> keys = (categories ? data.getCategories() : data.getTags());
-			double targetTimestamp = Double.parseDouble(data.getTimestamp());
-			for (int key : keys) {
-				Double val = usageMap.get(key);
-				if (val == null || targetTimestamp > val.doubleValue()) {
-					usageMap.put(key, targetTimestamp);
-				}
+	/**
+	 * Adds a bookmark that was added to the reader after training (e.g., by an online update of the engine).
+	 */
+	public void addBookmark(Bookmark data) {
+		getUserIndex(data.getUserID()).add(data);
+		if (this.resMaps != null) {
+			while (data.getWikiID() >= this.resMaps.size()) {
+				this.resMaps.add(new SparseVector());
+				this.resDenoms.add(0.0);
 			}
+			int resID = data.getWikiID();
+			this.resDenoms.set(resID, ActCalculator.addActivation((SparseVector)this.resMaps.get(resID), this.resDenoms.get(resID), data.getTags(), 1.0));
+		}
+	}
+	
+	private UserIndex getUserIndex(int userID) {
+		while (userID >= this.userIndices.size()) {
+			this.userIndices.add(new UserIndex());
 		}
-		for (Map.Entry<Integer, Double> entry : usageMap.entrySet()) {
-			Double rec = Math.pow(timestamp - entry.getValue() + 1.0, this.dValue * (-1.0));
-			//Double rec = Math.exp((timestamp - entry.getValue() + 1.0) * -1.0);
+		return this.userIndices.get(userID);
+	}
+	
+	// recency of the last usage of each tag (or topic) of the user
+	private SparseVector getLastUsages(UsageHistory history, double timestamp) {
+		int[] keys = new int[history.size()];
+		double[] values = new double[history.size()];
+		for (int i = 0; i < history.size(); i++) {
+			keys[i] = history.getTagAt(i);
+			Double rec = Math.pow(timestamp - history.getRecentAt(i, 0) + 1.0, this.dValue * (-1.0));
+			//Double rec = Math.exp((timestamp - history.getRecentAt(i, 0) + 1.0) * -1.0);
 			if (!rec.isInfinite() && !rec.isNaN()) {
-				entry.setValue(rec.doubleValue());
+				values[i] = rec.doubleValue();
 			} else {
 				System.out.println("BLL - NAN");
-				entry.setValue(0.0);
+				values[i] = 0.0;
 			}
 		}
-		return usageMap;
+		return new SparseVector(keys, values, history.size());
 	}
 	
-	private Map<Integer, Double> getAllUsages(List<Bookmark> bookmarks, double timestamp, boolean categories) {
+	private Map<Integer, Double> getAllUsages(UserIndex index, double timestamp, boolean categories) {
 		Map<Integer, Double> usageMap = new LinkedHashMap<Integer, Double>();
-		for (Bookmark data : bookmarks) {
-			List<Integer> keys = (categories ? data.getCategories() : data.getTags());
-			double targetTimestamp = Double.parseDouble(data.getTimestamp());
-			Double rec = Math.pow(timestamp - targetTimestamp + 1.0, this.dValue * (-1.0));
+		for (IndexedBookmark data : index.bookmarks) {
+			int[] keys = (categories ? data.categories : data.tags);
+			Double rec = Math.pow(timestamp - data.timestamp + 1.0, this.dValue * (-1.0));
 			if (!rec.isInfinite() && !rec.isNaN()) {
 				for (int key : keys) {
 					Double oldVal = usageMap.get(key);
@@ -115,21 +135,19 @@ public class ThreeLayersCalculator {
 	public Map<Integer, Double> getRankedTagList(int userID, int resID, List<Integer> testCats, double testTimestamp, int limit, boolean tagBLL, boolean topicBLL) {	
 		Map<Integer, Double> userResultMap = null;
 		if (this.userBased) {
-			List<Bookmark> userB = null;
-			Map<Integer, Double> userTagMap = null;
-			Map<Integer, Double> userCatMap = null;
-			if (userID != -1 && userID < this.userBookmarks.size()) {
-				userB = this.userBookmarks.get(userID);
+			UserIndex index = null;
+			SparseVector userTagMap = null;
+			SparseVector userCatMap = null;
+			if (userID != -1 && userID < this.userIndices.size()) {
+				index = this.userIndices.get(userID);
 				if (tagBLL) {
-					userTagMap = getLastUsages(userB, testTimestamp, false);
+					userTagMap = getLastUsages(index.tagHistory, testTimestamp);
 				}
 				if (topicBLL) {
-					userCatMap = getLastUsages(userB, testTimestamp, true);
+					userCatMap = getLastUsages(index.topicHistory, testTimestamp);
 				}
-			} else {
-				userB = new ArrayList<Bookmark>();
 			}
-			userResultMap = getResultMap(userB, testCats, userTagMap, userCatMap, testTimestamp, topicBLL);
+			userResultMap = getResultMap(index, testCats, userTagMap, userCatMap, testTimestamp, topicBLL);
 		} else {
 			userResultMap = new LinkedHashMap<Integer, Double>();
 		}
@@ -156,47 +174,33 @@ public class ThreeLayersCalculator {
 			*/
 		}
 
-		// merge user and resource results
-		Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>();
-		for (int i = 0; i < this.reader.getTags().size(); i++) {
-			double userVal = 0.0;
-			if (userResultMap != null && userResultMap.containsKey(i)) {
-				userVal = userResultMap.get(i);
-			}
-			double resVal = 0.0;
-			if (resResultMap != null && resResultMap.containsKey(i)) {
-				resVal = resResultMap.get(i);
-			}
-			if (userVal != 0.0 || resVal != 0.0) {
-				resultMap.put(i, this.beta * userVal + (1.0 - this.beta) * resVal);
-				//resultMap.put(i, userVal + resVal);
-			}
-		}
-		
-		// sort and return
-		Map<Integer, Double> returnMap = new LinkedHashMap<Integer, Double>();
-		Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(new DoubleMapComparator(resultMap));
-		sortedResultMap.putAll(resultMap);
-		int count = 0;
-		for (Map.Entry<Integer, Double> entry : sortedResultMap.entrySet()) {
-			if (count++ < limit) {
-				returnMap.put(entry.getKey(), entry.getValue());
-			} else {
-				break;
-			}
-		}		
-		return returnMap;
+		// merge user and resource results and return the best ones
+		return mergeAndSelect(userResultMap, resResultMap, limit);
+	}
+
+	/**
+	 * Combines the user and resource results to beta * user + (1 - beta) * resource. Only the tags of the two maps are
+	 * visited, so a query costs O(|user tags| + |resource tags|) independent of the size of the tag vocabulary.
+	 */
+	private Map<Integer, Double> mergeAndSelect(Map<Integer, Double> userResultMap, Map<Integer, Double> resResultMap, int limit) {
+		MergeScratch scratch = MERGE_SCRATCH.get();
+		scratch.add(userResultMap, this.beta);
+		scratch.add(resResultMap, 1.0 - this.beta);
+		//scratch.add(userResultMap, 1.0); scratch.add(resResultMap, 1.0);
+		return scratch.select(limit);
 	}
 
-	private Map<Integer, Double> getResultMap(List<Bookmark> bookmarks, List<Integer> testCats, Map<Integer, Double> userTagMap, Map<Integer, Double> userCatMap, double testTimestamp, boolean topicBLL) {
+	private Map<Integer, Double> getResultMap(UserIndex index, List<Integer> testCats, SparseVector userTagMap, SparseVector userCatMap, double testTimestamp, boolean topicBLL) {
 		Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>();
-		Map<Integer, Double> testCatsMap = getMapFromList(testCats, null);
-		for (Bookmark data : bookmarks) {
+		if (index == null) {
+			return resultMap;
+		}
+		int[] testCatIDs = getDistinctKeys(testCats);
+		double testCatsNorm = getUniformNorm(testCatIDs.length);
+		for (IndexedBookmark data : index.bookmarks) {
 			// old version for topicBLL
-			Map<Integer, Double> catsMap = getMapFromList(data.getCategories(), null/*userCatMap*/);
-			
-			//Double ajhid = Math.exp((1.0 - Utilities.getCosineFloatSim(catsMap, testCatsMap)) * (-1.0));
-			Double sim = Utilities.getCosineFloatSim(catsMap, testCatsMap);
+			//Double ajhid = Math.exp((1.0 - sim) * (-1.0));
+			Double sim = getUniformCosineSim(data.categories, data.categoryNorm, testCatIDs, testCatsNorm);
 			Double ajhid = Math.pow(sim, 3);
 			if (ajhid.isNaN() || ajhid.isInfinite()) {
 				ajhid = 0.0;
@@ -205,21 +209,19 @@ public class ThreeLayersCalculator {
 			// new version for topicBLL
 			if (topicBLL) {
 				double topicRecSum = 0.0;
-				Map<Integer, Double> catsRecMap = getMapFromList(data.getCategories(), userCatMap);
-				for (double catRec : catsRecMap.values()) {
-					topicRecSum += catRec;
+				for (int cat : data.categories) {
+					topicRecSum += getLogValue(userCatMap, cat);
  				}
 				ajhid *= topicRecSum;
 			}
 			if (this.bookmarkBLL) {
-				ajhid *= getBookmarkBLL(data, testTimestamp);
+				ajhid *= getBookmarkBLL(data.timestamp, testTimestamp);
 			}
 			
-			Map<Integer, Double> tagsMap = getMapFromList(data.getTags(), userTagMap);			
-			for (Map.Entry<Integer, Double> entry : tagsMap.entrySet()) {
-				Double akout = ajhid.doubleValue() * entry.getValue().doubleValue();
-				Double value = resultMap.get(entry.getKey());
-				resultMap.put(entry.getKey(), value == null ? akout.doubleValue() : value.doubleValue() + akout.doubleValue());
+			for (int tag : data.tags) {
+				Double akout = ajhid.doubleValue() * getLogValue(userTagMap, tag);
+				Double value = resultMap.get(tag);
+				resultMap.put(tag, value == null ? akout.doubleValue() : value.doubleValue() + akout.doubleValue());
 			}
 		}
 		
@@ -236,8 +238,8 @@ public class ThreeLayersCalculator {
 		return resultMap;
 	}
 	
-	private double getBookmarkBLL(Bookmark data, double testTimestamp) {
-		Double rec = Math.pow(testTimestamp - Double.parseDouble(data.getTimestamp()) + 1.0, this.dValue * (-1.0));
+	private double getBookmarkBLL(long timestamp, double testTimestamp) {
+		Double rec = Math.pow(testTimestamp - timestamp + 1.0, this.dValue * (-1.0));
 		if (!rec.isInfinite() && !rec.isNaN()) {
 			return Math.log(rec + 1.0);
 		}
@@ -246,50 +248,214 @@ public class ThreeLayersCalculator {
 		return Math.log(1.0);
 	}
 
-	private Map<Integer, Double> getMapFromList(List<Integer> keys, Map<Integer, Double> values) {
-		Map<Integer, Double> map = new LinkedHashMap<Integer, Double>();
+	private static double getLogValue(SparseVector values, int key) {
+		int index = (values != null ? values.indexOf(key) : -1);
+		if (index >= 0) {
+			return Math.log(values.getValueAt(index) + 1.0);
+			//return values.getValueAt(index);
+		}
+		return UNIFORM_VALUE;
+		//return 1.0;
+	}
+	
+	// Indices -----------------------------------------------------------------------------------------------------------------------
+	
+	// value of a tag or topic without recency information
+	private final static double UNIFORM_VALUE = Math.log(1.0 + 1.0);
+	
+	/**
+	 * Cosine similarity of two topic vectors with all values set to UNIFORM_VALUE. The norms are the squared sums as
+	 * returned by getUniformNorm - summed up in the same way as Utilities.getCosineFloatSim does.
+	 */
+	private static double getUniformCosineSim(int[] cats, double catsNorm, int[] testCats, double testCatsNorm) {
+		double scalar = 0.0;
+		for (int cat : cats) {
+			for (int testCat : testCats) {
+				if (cat == testCat) {
+					scalar += (UNIFORM_VALUE * UNIFORM_VALUE);
+					break;
+				}
+			}
+		}
+		return scalar / Math.sqrt(catsNorm * testCatsNorm);
+	}
+	
+	private static double getUniformNorm(int size) {
+		double norm = 0.0;
+		for (int i = 0; i < size; i++) {
+			norm += (UNIFORM_VALUE * UNIFORM_VALUE);
+		}
+		return norm;
+	}
+	
+	// the keys without duplicates in the order of their first occurrence
+	private static int[] getDistinctKeys(List<Integer> keys) {
+		int[] distinctKeys = new int[keys.size()];
+		int size = 0;
 		for (int key : keys) {
-			if (values != null && values.containsKey(key)) {
-				map.put(key, Math.log(values.get(key) + 1.0));
-				//map.put(key, values.get(key));
-			} else {
-				map.put(key, Math.log(1.0 + 1.0));
-				//map.put(key, 1.0);
+			boolean contained = false;
+			for (int i = 0; i < size && !contained; i++) {
+				contained = (distinctKeys[i] == key);
+			}
+			if (!contained) {
+				distinctKeys[size++] = key;
+			}
+		}
+		return Arrays.copyOf(distinctKeys, size);
+	}
+	
+	/**
+	 * A user's bookmark with its timestamp parsed and its tags and topics de-duplicated.
+	 */
+	private static class IndexedBookmark {
+		
+		final long timestamp;
+		final int[] tags;
+		final int[] categories;
+		final double categoryNorm;
+		
+		IndexedBookmark(Bookmark data) {
+			this.timestamp = (data.hasTimestamp() ? data.getTimestamp() : 0L);
+			this.tags = getDistinctKeys(data.getTags());
+			this.categories = getDistinctKeys(data.getCategories());
+			this.categoryNorm = getUniformNorm(this.categories.length);
+		}
+	}
+	
+	/**
+	 * Everything the user-based part of a query needs from the user's past: the bookmarks and the last usage and
+	 * count of every tag and topic. It is built once while training and extended by addBookmark.
+	 */
+	private static class UserIndex {
+		
+		final List<IndexedBookmark> bookmarks = new ArrayList<IndexedBookmark>();
+		final UsageHistory tagHistory = new UsageHistory(1, 4);
+		final UsageHistory topicHistory = new UsageHistory(1, 4);
+		
+		void add(Bookmark data) {
+			IndexedBookmark indexedData = new IndexedBookmark(data);
+			this.bookmarks.add(indexedData);
+			for (int tag : indexedData.tags) {
+				this.tagHistory.addUsage(tag, indexedData.timestamp);
+			}
+			for (int cat : indexedData.categories) {
+				this.topicHistory.addUsage(cat, indexedData.timestamp);
 			}
 		}
-		return map;
 	}
 		
 	// Statics -----------------------------------------------------------------------------------------------------------------------
 		
-	private static String timeString = "";
+	private final static ThreadLocal<MergeScratch> MERGE_SCRATCH = new ThreadLocal<MergeScratch>() {
+		@Override
+		protected MergeScratch initialValue() {
+			return new MergeScratch();
+		}
+	};
+	
+	/**
+	 * Per-thread dense accumulator indexed by tag ID. Only the touched slots are remembered and reset after a
+	 * selection, so the arrays are allocated once (and grown with the vocabulary) instead of once per query.
+	 */
+	private static class MergeScratch {
+		
+		private double[] values = new double[1024];
+		private boolean[] used = new boolean[1024];
+		private int[] touched = new int[64];
+		private int size = 0;
+		private TopKSelector selector = new TopKSelector(10);
+		
+		void add(Map<Integer, Double> map, double weight) {
+			if (map == null) {
+				return;
+			}
+			if (map instanceof SparseVector) {
+				SparseVector vector = (SparseVector)map;
+				for (int i = 0; i < vector.size(); i++) {
+					add(vector.getKeyAt(i), vector.getValueAt(i), weight);
+				}
+			} else {
+				for (Map.Entry<Integer, Double> entry : map.entrySet()) {
+					add(entry.getKey().intValue(), entry.getValue().doubleValue(), weight);
+				}
+			}
+		}
+		
+		// a tag takes part if one of its values is not 0 - like in the former loop over all tags
+		private void add(int tag, double value, double weight) {
+			if (value == 0.0) {
+				return;
+			}
+			if (tag >= this.values.length) {
+				int capacity = Math.max(tag + 1, this.values.length * 2);
+				this.values = Arrays.copyOf(this.values, capacity);
+				this.used = Arrays.copyOf(this.used, capacity);
+			}
+			if (!this.used[tag]) {
+				if (this.size == this.touched.length) {
+					this.touched = Arrays.copyOf(this.touched, this.size * 2);
+				}
+				this.touched[this.size++] = tag;
+				this.used[tag] = true;
+			}
+			this.values[tag] += weight * value;
+		}
+		
+		Map<Integer, Double> select(int limit) {
+			if (this.selector.getLimit() != limit) {
+				this.selector = new TopKSelector(limit);
+			}
+			this.selector.clear();
+			for (int i = 0; i < this.size; i++) {
+				int tag = this.touched[i];
+				this.selector.offer(tag, this.values[tag]);
+				this.values[tag] = 0.0;
+				this.used[tag] = false;
+			}
+			this.size = 0;
+			return this.selector.getSortedMap();
+		}
+	}
 	
 	public static BookmarkReader predictSample(String filename, int trainSize, int sampleSize, int d, int beta, boolean userBased, boolean resBased, boolean tagBLL, boolean topicBLL) {
+		return predictSample(filename, trainSize, sampleSize, d, beta, userBased, resBased, tagBLL, topicBLL, new RunContext());
+	}
+	
+	public static BookmarkReader predictSample(String filename, int trainSize, int sampleSize, int d, int beta, boolean userBased, boolean resBased, final boolean tagBLL, final boolean topicBLL, RunContext context) {
 		filename += "_res";
-		BookmarkReader reader = new BookmarkReader(trainSize, false);
+		final BookmarkReader reader = new BookmarkReader(trainSize, false);
 		reader.readFile(filename);
 		
-		List<int[]> predictionValues = new ArrayList<int[]>();
 		Stopwatch timer = new Stopwatch();
 		timer.start();
-		ThreeLayersCalculator calculator = new ThreeLayersCalculator(reader, trainSize, d, beta, userBased, resBased, false);
+		final ThreeLayersCalculator calculator = new ThreeLayersCalculator(reader, trainSize, d, beta, userBased, resBased, false);
 		timer.stop();
 		long trainingTime = timer.elapsed(TimeUnit.MILLISECONDS);
 		
 		timer = new Stopwatch();
 		timer.start();
-		for (int i = trainSize; i < trainSize + sampleSize; i++) { // the test-set
-			Bookmark data = reader.getBookmarks().get(i);
-			double timestamp = Double.parseDouble((data.getTimestamp()));
-			Map<Integer, Double> map = calculator.getRankedTagList(data.getUserID(), data.getWikiID(), data.getCategories(), timestamp, 10, tagBLL, topicBLL);
-			predictionValues.add(Ints.toArray(map.keySet()));
-		}
+		TestSetEvaluator<int[]> evaluator = new TestSetEvaluator<int[]>(new TestSetEvaluator.Scorer<int[]>() {
+			@Override
+			public int[] score(int index) {
+				Bookmark data = reader.getBookmarks().get(index);
+				if ((tagBLL || topicBLL) && !data.hasTimestamp()) {
+					throw new IllegalArgumentException("the BLL variants of 3L need timestamps, test bookmark " + index + " has none");
+				}
+				double timestamp = data.getTimestamp();
+				Map<Integer, Double> map = calculator.getRankedTagList(data.getUserID(), data.getWikiID(), data.getCategories(), timestamp, 10, tagBLL, topicBLL);
+				return Ints.toArray(map.keySet());
+			}
+		});
+		List<int[]> predictionValues = evaluator.evaluate(trainSize, trainSize + sampleSize); // the test-set
 		timer.stop();
 		long testTime = timer.elapsed(TimeUnit.MILLISECONDS);
+		String timeString = "";
 		timeString += ("Full training time: " + trainingTime + "\n");
 		timeString += ("Full test time: " + testTime + "\n");
 		timeString += ("Average test time: " + testTime / (double)sampleSize) + "\n";
 		timeString += ("Total time: " + (trainingTime + testTime) + "\n");
+		timeString += evaluator.getTimeString();
+		context.setTimeString(timeString);
 		
 		String suffix = "_layers";
 		if (!userBased) {
@@ -306,7 +472,7 @@ public class ThreeLayersCalculator {
 		}
 		String outputFile = filename + suffix + "_" + beta + "_" + d;
 		// TODO: time
-		//Utilities.writeStringToFile("./data/metrics/" + outputFile + "_TIME.txt", timeString);		
+		//Utilities.writeStringToFile("./data/metrics/" + outputFile + "_TIME.txt", context.getTimeString());		
 		reader.setUserLines(reader.getBookmarks().subList(trainSize, reader.getBookmarks().size()));
 		PredictionFileWriter writer = new PredictionFileWriter(reader, predictionValues);
 		writer.writeFile(outputFile);
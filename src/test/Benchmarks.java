@@ -0,0 +1,662 @@
+/*
+ TagRecommender:
+ A framework to implement and evaluate algorithms for the recommendation
+ of tags.
+ Copyright (C) 2013 Dominik Kowald
+ 
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ 
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+ 
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package test;
+
+import itemrecommendations.HuangCalculator;
+import itemrecommendations.Resource3LTCalculator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import common.Bookmark;
+import common.BookmarkIndex;
+import common.CalculationType;
+import common.DoubleMapComparator;
+import common.Features;
+import common.MinHashIndex;
+import common.ProfileIndex;
+import common.Similarity;
+import common.SimilarityCache;
+import common.TopKSelector;
+import common.Utilities;
+import processing.ActCalculator;
+import processing.ActStatistics;
+import processing.NeighborGraph;
+import processing.TestSetEvaluator;
+import processing.ThreeLayersCalculator;
+import engine.BaseLevelLearningEngine;
+import engine.Query;
+import file.BookmarkReader;
+import file.DatasetCache;
+
+/**
+ * Micro-benchmarks of the data structures, engines and parallel evaluation. Each benchmark prints its timings
+ * and restores the process-wide settings it changes (e.g., the DatasetCache and SimilarityCache configuration).
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) {
+		// Engine throughput with 1 to #cores concurrent request threads
+		//startEngineBenchmark("bib_core/bib_sample", 100000);
+		// Top-10 selection for users with 5000 distinct tags: TreeMap sort vs. bounded heap
+		//startTopKBenchmark(5000, 1000);
+		// Heap used by the user/resource profiles as SparseVectors vs. LinkedHashMaps
+		//startProfileMemoryBenchmark("bib_core/bib_sample");
+		// Single getTagsWithLikelihood calls vs. getTagsWithLikelihoodBatch
+		//startBatchBenchmark("bib_core/bib_sample", 100);
+		// 3L query latency with the tag vocabulary padded to 1x, 10x and 100x its size
+		//startThreeLayersMergeBenchmark("bib_core/bib_sample", 100);
+		// Sorting the bookmarks (by user and time) of a dataset repeated 100 times
+		//startSortBenchmark("bib_core/bib_sample", 100, 10);
+		// Lines per second read by the BookmarkReader with 1, 2, 4, ... threads
+		//startReaderBenchmark("bib_core/bib_sample", 10);
+		// Heap used by the bookmarks as objects vs. in a BookmarkStore, and the time to build the tag profiles from both
+		//startBookmarkStoreBenchmark("bib_core/bib_sample", 10);
+		// Per-user lookups of the training resources and baseline timestamps: list scans vs. the posting index
+		//startBookmarkIndexBenchmark("bib_core/bib_sample", 0.8);
+		// Loading a dataset from the text file vs. from its binary form (written by convert first)
+		//startBinaryDatasetBenchmark("bib_core/bib_sample", 5);
+		// Readers of the same sample (as in a sweep) with and without the DatasetCache
+		//startDatasetCacheBenchmark("bib_core/bib_sample", 20);
+		// A d x beta sweep of BLL+C with a model per grid point vs. with the shared ActStatistics
+		//startActSweepBenchmark("bib_core/bib_sample", 0.8, 10, 10);
+		// The 20 nearest neighbors of every test user: a similarity pass and sort per user vs. the NeighborGraph
+		//startNeighborGraphBenchmark("bib_core/bib_sample", 0.8, 20);
+		// Refreshing the neighbor graph after the last 1% of the training bookmarks came in vs. building it again (the rows have to be the same)
+		//startNeighborGraphRefreshBenchmark("bib_core/bib_sample", 0.8, 20, 0.01);
+		// Recall@20 and speed of the Jaccard neighbors found on a MinHash LSH index with 20 bands of 2 rows vs. the exact ones
+		//startMinHashBenchmark("bib_core/bib_sample", 0.8, 20, 20, 2);
+		// Cosine and Jaccard similarities of 1000 user profiles with each other: map based vs. SparseVector with cached norms
+		//startSimilarityBenchmark("bib_core/bib_sample", 1000, 5);
+		// 3LT and Huang resource recommendations without and with the resource similarity cache (hit rates are logged)
+		//startSimilarityCacheBenchmark("bib_core/bib_sample", 20);
+	}
+	
+	private static void startEngineBenchmark(String sampleName, final int lookupsPerThread) {
+		final BaseLevelLearningEngine engine = new BaseLevelLearningEngine();
+		try {
+			engine.loadFile(sampleName);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		final List<String[]> queries = new ArrayList<String[]>();
+		for (Bookmark data : reader.getBookmarks()) {
+			queries.add(new String[] {reader.getUsers().get(data.getUserID()), reader.getResources().get(data.getWikiID())});
+		}
+		if (queries.isEmpty()) {
+			return;
+		}
+		
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= cores; threads = (threads * 2 > cores && threads < cores ? cores : threads * 2)) {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+			for (int t = 0; t < threads; t++) {
+				final int offset = t;
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						int tags = 0;
+						for (int i = 0; i < lookupsPerThread; i++) {
+							String[] q = queries.get((offset + i) % queries.size());
+							tags += engine.getTagsWithLikelihood(q[0], q[1], null, 10).size();
+						}
+						return tags;
+					}
+				});
+			}
+			long start = System.nanoTime();
+			try {
+				pool.invokeAll(tasks);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			double seconds = (System.nanoTime() - start) / 1000000000.0;
+			pool.shutdown();
+			System.out.println(threads + " threads: " + (long)(threads * (double)lookupsPerThread / seconds) + " lookups/s");
+		}
+	}
+	
+	private static void startTopKBenchmark(int tagCount, int rounds) {
+		Random random = new Random(42);
+		List<Map<Integer, Double>> candidates = new ArrayList<Map<Integer, Double>>();
+		for (int i = 0; i < 100; i++) {
+			Map<Integer, Double> resultMap = new LinkedHashMap<Integer, Double>();
+			for (int tag = 0; tag < tagCount; tag++) {
+				resultMap.put(tag, random.nextDouble());
+			}
+			candidates.add(resultMap);
+		}
+		
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			Map<Integer, Double> resultMap = candidates.get(r % candidates.size());
+			Map<Integer, Double> sortedResultMap = new TreeMap<Integer, Double>(new DoubleMapComparator(resultMap));
+			sortedResultMap.putAll(resultMap);
+			int i = 0;
+			for (Integer tag : sortedResultMap.keySet()) {
+				if (i++ < 10) {
+					checksum += tag;
+				} else {
+					break;
+				}
+			}
+		}
+		double treeMapTime = (System.nanoTime() - start) / 1000000.0 / rounds;
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (Integer tag : TopKSelector.select(candidates.get(r % candidates.size()), 10).keySet()) {
+				checksum -= tag;
+			}
+		}
+		double topKTime = (System.nanoTime() - start) / 1000000.0 / rounds;
+		System.out.println("TreeMap: " + treeMapTime + " ms, TopKSelector: " + topKTime + " ms per lookup (checksum " + checksum + ")");
+	}
+	
+	private static void startBatchBenchmark(String sampleName, int rounds) {
+		BaseLevelLearningEngine engine = new BaseLevelLearningEngine();
+		try {
+			engine.loadFile(sampleName);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		Collections.sort(reader.getBookmarks()); // by user
+		List<Query> queries = new ArrayList<Query>();
+		for (Bookmark data : reader.getBookmarks()) {
+			queries.add(new Query(reader.getUsers().get(data.getUserID()), reader.getResources().get(data.getWikiID()), null, 10));
+		}
+		
+		long start = System.nanoTime();
+		List<Map<String, Double>> singleResults = null;
+		for (int r = 0; r < rounds; r++) {
+			singleResults = new ArrayList<Map<String, Double>>();
+			for (Query q : queries) {
+				singleResults.add(engine.getTagsWithLikelihood(q.getUser(), q.getResource(), q.getTopics(), q.getCount()));
+			}
+		}
+		double singleSeconds = (System.nanoTime() - start) / 1000000000.0;
+		start = System.nanoTime();
+		List<Map<String, Double>> batchResults = null;
+		for (int r = 0; r < rounds; r++) {
+			batchResults = engine.getTagsWithLikelihoodBatch(queries);
+		}
+		double batchSeconds = (System.nanoTime() - start) / 1000000000.0;
+		System.out.println("Single calls: " + (long)(rounds * queries.size() / singleSeconds) + " queries/s");
+		System.out.println("Batch (" + Runtime.getRuntime().availableProcessors() + " cores): " + (long)(rounds * queries.size() / batchSeconds) + " queries/s");
+		System.out.println("Same results: " + singleResults.equals(batchResults));
+	}
+	
+	private static void startThreeLayersMergeBenchmark(String sampleName, int rounds) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName, Runtime.getRuntime().availableProcessors()); // not from the DatasetCache, the vocabulary is padded below
+		List<Bookmark> bookmarks = reader.getBookmarks();
+		ThreeLayersCalculator calculator = new ThreeLayersCalculator(reader, bookmarks.size(), 5, 5, true, true, false);
+		int vocabularySize = reader.getTags().size();
+		for (int factor : new int[] {1, 10, 100}) {
+			// unused tags only grow the vocabulary, the profiles stay the same
+			while (reader.getTags().size() < vocabularySize * factor) {
+				reader.getTagDictionary().add("__padding_" + reader.getTags().size());
+			}
+			for (int warmup = 0; warmup < 2; warmup++) {
+				long start = System.nanoTime();
+				for (int r = 0; r < rounds; r++) {
+					for (Bookmark data : bookmarks) {
+						calculator.getRankedTagList(data.getUserID(), data.getWikiID(), data.getCategories(), data.getTimestamp(), 10, true, false);
+					}
+				}
+				double micros = (System.nanoTime() - start) / 1000.0 / (rounds * bookmarks.size());
+				if (warmup == 1) {
+					System.out.println(reader.getTags().size() + " tags: " + micros + " us per query");
+				}
+			}
+		}
+	}
+	
+	private static void startReaderBenchmark(String sampleName, int rounds) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int parallelism = 1; parallelism <= cores; parallelism *= 2) {
+			long lines = 0, nanos = 0;
+			for (int r = 0; r <= rounds; r++) {
+				BookmarkReader reader = new BookmarkReader(0, false);
+				long start = System.nanoTime();
+				reader.readFile(sampleName, parallelism);
+				if (r > 0) { // the first round is the warm-up
+					nanos += System.nanoTime() - start;
+					lines += reader.getLineCount();
+				}
+			}
+			System.out.println(lines / rounds + " lines with " + parallelism + " threads: " + (long)(lines / (nanos / 1000000000.0)) + " lines/s");
+		}
+	}
+	
+	private static void startSortBenchmark(String sampleName, int copies, int rounds) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		List<Bookmark> bookmarks = new ArrayList<Bookmark>();
+		for (int i = 0; i < copies; i++) {
+			bookmarks.addAll(reader.getBookmarks());
+		}
+		Random random = new Random(1);
+		long sortNanos = 0;
+		for (int r = 0; r <= rounds; r++) {
+			List<Bookmark> shuffledBookmarks = new ArrayList<Bookmark>(bookmarks);
+			Collections.shuffle(shuffledBookmarks, random);
+			long start = System.nanoTime();
+			Collections.sort(shuffledBookmarks);
+			if (r > 0) { // the first round is the warm-up
+				sortNanos += System.nanoTime() - start;
+			}
+		}
+		System.out.println(bookmarks.size() + " bookmarks: " + sortNanos / 1000000.0 / rounds + " ms per sort");
+	}
+	
+	private static void startBookmarkStoreBenchmark(String sampleName, int rounds) {
+		long before = getUsedMemory();
+		BookmarkReader objectReader = new BookmarkReader(0, false);
+		objectReader.readFile(sampleName);
+		long objectBytes = getUsedMemory() - before;
+		before = getUsedMemory();
+		BookmarkReader columnarReader = new BookmarkReader(0, false, true);
+		columnarReader.readFile(sampleName);
+		long storeBytes = getUsedMemory() - before;
+		int size = columnarReader.getStore().size();
+		System.out.println(size + " bookmarks, " + columnarReader.getTagAssignmentsCount() + " tag assignments");
+		System.out.println("Objects: " + objectBytes + " bytes (" + (double)objectBytes / size + " per bookmark)");
+		System.out.println("BookmarkStore: " + storeBytes + " bytes (" + (double)storeBytes / size + " per bookmark, columns "
+				+ columnarReader.getStore().getMemoryUsage() + " bytes)");
+		
+		long listNanos = 0, storeNanos = 0;
+		for (int r = 0; r <= rounds; r++) {
+			long start = System.nanoTime();
+			Utilities.getRelativeTagMaps(objectReader.getBookmarks(), false);
+			long middle = System.nanoTime();
+			Utilities.getRelativeTagMaps(columnarReader.getStore(), false);
+			if (r > 0) { // the first round is the warm-up
+				listNanos += middle - start;
+				storeNanos += System.nanoTime() - middle;
+			}
+		}
+		System.out.println("User tag profiles from objects: " + listNanos / rounds / 1000000.0 + " ms, from the store: "
+				+ storeNanos / rounds / 1000000.0 + " ms");
+	}
+	
+	private static void startBookmarkIndexBenchmark(String sampleName, double trainShare) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		int trainSize = (int)(reader.getBookmarks().size() * trainShare);
+		List<Bookmark> trainList = reader.getBookmarks().subList(0, trainSize);
+		List<Bookmark> testList = reader.getBookmarks().subList(trainSize, reader.getBookmarks().size());
+		List<Integer> testUsers = reader.getUniqueUserListFromTestSet(trainSize);
+		
+		long start = System.nanoTime();
+		long checksum = 0;
+		for (int userID : testUsers) {
+			checksum += Bookmark.getResourcesFromUser(trainList, userID).size() + Utilities.getBaselineTimestamp(testList, userID, false);
+		}
+		long scanNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		BookmarkIndex trainIndex = reader.getBookmarkIndex(0, trainSize);
+		BookmarkIndex testIndex = reader.getBookmarkIndex(trainSize, reader.getBookmarks().size());
+		long buildNanos = System.nanoTime() - start;
+		for (int userID : testUsers) {
+			checksum -= Bookmark.getResourcesFromUser(trainIndex, userID).size() + Utilities.getBaselineTimestamp(testIndex, userID, false);
+		}
+		long indexNanos = System.nanoTime() - start;
+		System.out.println(testUsers.size() + " test users, " + trainSize + " training bookmarks" + (checksum != 0 ? " - RESULTS DIFFER" : ""));
+		System.out.println("List scans: " + scanNanos / 1000000.0 + " ms, posting index: " + indexNanos / 1000000.0 + " ms (build "
+				+ buildNanos / 1000000.0 + " ms, " + (trainIndex.getMemoryUsage() + testIndex.getMemoryUsage()) + " bytes)");
+	}
+	
+	private static void startBinaryDatasetBenchmark(String sampleName, int rounds) {
+		boolean cacheEnabled = DatasetCache.isEnabled();
+		try {
+			DatasetCache.setEnabled(false); // every read has to go to the file
+			Pipeline.convertDataset(sampleName);
+			int cores = Runtime.getRuntime().availableProcessors();
+			for (boolean columnar : new boolean[] {false, true}) {
+				long textNanos = 0, binaryNanos = 0;
+				for (int r = 0; r <= rounds; r++) {
+					long start = System.nanoTime();
+					new BookmarkReader(0, false, columnar).readFile(sampleName, cores);
+					long middle = System.nanoTime();
+					new BookmarkReader(0, false, columnar).readFile(sampleName);
+					if (r > 0) { // the first round is the warm-up
+						textNanos += middle - start;
+						binaryNanos += System.nanoTime() - middle;
+					}
+				}
+				System.out.println((columnar ? "Columnar" : "Objects") + " - text file: " + textNanos / rounds / 1000000.0 + " ms, binary: "
+						+ binaryNanos / rounds / 1000000.0 + " ms");
+			}
+		} finally {
+			DatasetCache.setEnabled(cacheEnabled);
+		}
+	}
+	
+	private static void startDatasetCacheBenchmark(String sampleName, int readers) {
+		boolean cacheEnabled = DatasetCache.isEnabled();
+		try {
+			for (boolean enabled : new boolean[] {false, true}) {
+				DatasetCache.setEnabled(enabled);
+				DatasetCache.clear();
+				long hits = DatasetCache.getHitCount(), misses = DatasetCache.getMissCount();
+				long start = System.nanoTime();
+				for (int r = 0; r < readers; r++) {
+					BookmarkReader reader = new BookmarkReader(0, false);
+					reader.readFile(sampleName);
+					Collections.sort(reader.getBookmarks());
+				}
+				System.out.println(readers + " readers " + (enabled ? "with" : "without") + " the cache: " + (System.nanoTime() - start) / 1000000.0
+						+ " ms (" + (DatasetCache.getMissCount() - misses) + " parsed, " + (DatasetCache.getHitCount() - hits) + " shared)");
+			}
+		} finally {
+			DatasetCache.setEnabled(cacheEnabled);
+		}
+	}
+	
+	private static void startActSweepBenchmark(String sampleName, double trainShare, int dUpperBound, int betaUpperBound) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		int trainSize = (int)(reader.getBookmarks().size() * trainShare);
+		List<Bookmark> testList = reader.getBookmarks().subList(trainSize, reader.getBookmarks().size());
+		List<Integer> dValues = Pipeline.getBetaValues(dUpperBound);
+		List<Integer> betaValues = Pipeline.getBetaValues(betaUpperBound);
+		
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int dVal : dValues) {
+			for (int beta : betaValues) {
+				ActCalculator calculator = new ActCalculator(reader, trainSize, dVal, beta, true, true, CalculationType.NONE);
+				for (Bookmark data : testList) {
+					checksum += calculator.getRankedTagList(data.getUserID(), data.getWikiID(), true, CalculationType.NONE).keySet().toString().hashCode();
+				}
+			}
+		}
+		long separateNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		ActStatistics statistics = new ActStatistics(reader, trainSize);
+		long buildNanos = System.nanoTime() - start;
+		for (int dVal : dValues) {
+			for (int beta : betaValues) {
+				ActCalculator calculator = new ActCalculator(reader, trainSize, statistics, dVal, beta, true, true, CalculationType.NONE);
+				for (Bookmark data : testList) {
+					checksum -= calculator.getRankedTagList(data.getUserID(), data.getWikiID(), true, CalculationType.NONE).keySet().toString().hashCode();
+				}
+			}
+		}
+		long sharedNanos = System.nanoTime() - start;
+		int points = dValues.size() * betaValues.size();
+		System.out.println(points + " grid points, " + testList.size() + " test bookmarks" + (checksum != 0 ? " - RESULTS DIFFER" : ""));
+		System.out.println("Model per point: " + separateNanos / 1000000.0 + " ms (" + separateNanos / points / 1000000.0 + " ms per point), shared statistics: "
+				+ sharedNanos / 1000000.0 + " ms (build " + buildNanos / 1000000.0 + " ms)");
+	}
+	
+	private static void startNeighborGraphBenchmark(String sampleName, double trainShare, int neighbors) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		int trainSize = (int)(reader.getBookmarks().size() * trainShare);
+		List<Bookmark> trainList = reader.getBookmarks().subList(0, trainSize);
+		BookmarkIndex trainIndex = reader.getBookmarkIndex(0, trainSize);
+		List<Map<Integer, Double>> userMaps = Utilities.getRelativeTagMaps(trainList, false);
+		Map<Integer, Double> allUsers = Utilities.getAllEntities(trainList, false);
+		List<Integer> testUsers = reader.getUniqueUserListFromTestSet(trainSize);
+		
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int userID : testUsers) {
+			Map<Integer, Double> sortedNeighbors = Utilities.getNeighbors(userID, -1, allUsers, userMaps, trainIndex, Similarity.COSINE);
+			checksum += new ArrayList<Integer>(sortedNeighbors.keySet()).subList(0, Math.min(neighbors, sortedNeighbors.size())).hashCode();
+		}
+		long scanNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		NeighborGraph graph = new NeighborGraph(userMaps, allUsers, Similarity.COSINE, neighbors);
+		long buildNanos = System.nanoTime() - start;
+		for (int userID : testUsers) {
+			Map<Integer, Double> sortedNeighbors = graph.getNeighbors(userID, -1, trainIndex);
+			checksum -= new ArrayList<Integer>(sortedNeighbors.keySet()).subList(0, Math.min(neighbors, sortedNeighbors.size())).hashCode();
+		}
+		long graphNanos = System.nanoTime() - start;
+		System.out.println(testUsers.size() + " test users, " + allUsers.size() + " training users" + (checksum != 0 ? " - RESULTS DIFFER" : ""));
+		System.out.println("Similarity pass per user: " + scanNanos / 1000000.0 + " ms, neighbor graph: " + graphNanos / 1000000.0 + " ms (build "
+				+ buildNanos / 1000000.0 + " ms with " + TestSetEvaluator.getParallelism() + " threads, " + graph.getMemoryUsage() + " bytes)");
+	}
+	
+	private static void startNeighborGraphRefreshBenchmark(String sampleName, double trainShare, int neighbors, double updateShare) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		int trainSize = (int)(reader.getBookmarks().size() * trainShare);
+		int oldSize = trainSize - (int)(trainSize * updateShare);
+		List<Bookmark> oldList = reader.getBookmarks().subList(0, oldSize);
+		List<Bookmark> trainList = reader.getBookmarks().subList(0, trainSize);
+		// the graph reads the profiles and candidates it was built from, so they are updated in place
+		List<Map<Integer, Double>> userMaps = new ArrayList<Map<Integer, Double>>(Utilities.getRelativeTagMaps(oldList, false));
+		Map<Integer, Double> allUsers = new LinkedHashMap<Integer, Double>(Utilities.getAllEntities(oldList, false));
+		NeighborGraph graph = new NeighborGraph(userMaps, allUsers, Similarity.COSINE, neighbors);
+		
+		Set<Integer> changedUsers = new TreeSet<Integer>();
+		for (Bookmark data : trainList.subList(oldSize, trainSize)) {
+			changedUsers.add(data.getUserID());
+		}
+		List<Map<Integer, Double>> newMaps = Utilities.getRelativeTagMaps(trainList, false);
+		for (int userID = 0; userID < newMaps.size(); userID++) {
+			if (userID < userMaps.size()) {
+				userMaps.set(userID, newMaps.get(userID));
+			} else {
+				userMaps.add(newMaps.get(userID));
+			}
+		}
+		allUsers.putAll(Utilities.getAllEntities(trainList, false));
+		long start = System.nanoTime();
+		int refreshedRows = graph.refresh(changedUsers);
+		long refreshNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		NeighborGraph newGraph = new NeighborGraph(newMaps, allUsers, Similarity.COSINE, neighbors);
+		long buildNanos = System.nanoTime() - start;
+		
+		int differentRows = Math.abs(graph.size() - newGraph.size());
+		for (int userID = 0; userID < Math.min(graph.size(), newGraph.size()); userID++) {
+			// the same neighbors with the same similarities in the same order
+			if (!new ArrayList<Map.Entry<Integer, Double>>(graph.getNeighbors(userID).entrySet()).equals(
+					new ArrayList<Map.Entry<Integer, Double>>(newGraph.getNeighbors(userID).entrySet()))) {
+				differentRows++;
+			}
+		}
+		System.out.println(trainSize - oldSize + " new bookmarks of " + changedUsers.size() + " users, " + refreshedRows + " of " + newGraph.size() + " rows refreshed"
+				+ (differentRows != 0 ? " - " + differentRows + " ROWS DIFFER FROM THE REBUILD" : ""));
+		System.out.println("Refresh: " + refreshNanos / 1000000.0 + " ms, rebuild: " + buildNanos / 1000000.0 + " ms");
+	}
+	
+	private static void startMinHashBenchmark(String sampleName, double trainShare, int neighbors, int bands, int rows) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		int trainSize = (int)(reader.getBookmarks().size() * trainShare);
+		List<Bookmark> trainList = reader.getBookmarks().subList(0, trainSize);
+		BookmarkIndex trainIndex = reader.getBookmarkIndex(0, trainSize);
+		List<Map<Integer, Double>> userMaps = Utilities.getRelativeTagMaps(trainList, false);
+		Map<Integer, Double> allUsers = Utilities.getAllEntities(trainList, false);
+		List<Integer> testUsers = new ArrayList<Integer>();
+		for (int userID : reader.getUniqueUserListFromTestSet(trainSize)) {
+			if (userID < userMaps.size() && !userMaps.get(userID).isEmpty()) {
+				testUsers.add(userID);
+			}
+		}
+		
+		List<List<Integer>> exactNeighbors = new ArrayList<List<Integer>>();
+		long start = System.nanoTime();
+		for (int userID : testUsers) {
+			Map<Integer, Double> sortedNeighbors = Utilities.getNeighbors(userID, -1, allUsers, userMaps, trainIndex, Similarity.JACCARD);
+			exactNeighbors.add(getPositiveKeys(sortedNeighbors, neighbors));
+		}
+		long scanNanos = System.nanoTime() - start;
+		ProfileIndex index = new ProfileIndex(userMaps, allUsers.keySet(), Similarity.JACCARD);
+		start = System.nanoTime();
+		for (int userID : testUsers) {
+			index.getMostSimilar(userMaps.get(userID), null, neighbors);
+		}
+		long indexNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		MinHashIndex lsh = new MinHashIndex(userMaps, allUsers.keySet(), Similarity.JACCARD, bands, rows);
+		long buildNanos = System.nanoTime() - start;
+		long found = 0, exact = 0, scored = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < testUsers.size(); i++) {
+			Map<Integer, Double> targetMap = userMaps.get(testUsers.get(i));
+			List<Integer> approxNeighbors = getPositiveKeys(lsh.getMostSimilar(targetMap, null, neighbors), neighbors);
+			for (int userID : exactNeighbors.get(i)) {
+				found += (approxNeighbors.contains(userID) ? 1 : 0);
+			}
+			exact += exactNeighbors.get(i).size();
+		}
+		long lshNanos = System.nanoTime() - start;
+		for (int userID : testUsers) {
+			scored += lsh.getBucketCandidateCount(userMaps.get(userID));
+		}
+		System.out.println(testUsers.size() + " test users, " + allUsers.size() + " training users, " + bands + " bands x " + rows + " rows");
+		System.out.println("Recall@" + neighbors + ": " + (exact > 0 ? (double)found / exact : 1.0) + ", candidates scored per user: " + (double)scored / testUsers.size());
+		System.out.println("Similarity pass: " + scanNanos / 1000000.0 + " ms, inverted index: " + indexNanos / 1000000.0 + " ms, LSH: " + lshNanos / 1000000.0
+				+ " ms (" + (double)scanNanos / lshNanos + "x / " + (double)indexNanos / lshNanos + "x, build " + buildNanos / 1000000.0 + " ms, " + lsh.getMemoryUsage() + " bytes)");
+	}
+	
+	private static void startSimilarityBenchmark(String sampleName, int userCount, int rounds) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		List<Map<Integer, Double>> userMaps = Utilities.getRelativeTagMaps(reader.getBookmarks(), false);
+		userMaps = userMaps.subList(0, Math.min(userCount, userMaps.size()));
+		List<Map<Integer, Double>> linkedMaps = new ArrayList<Map<Integer, Double>>();
+		for (Map<Integer, Double> map : userMaps) {
+			linkedMaps.add(new LinkedHashMap<Integer, Double>(map));
+		}
+		long pairs = (long)userMaps.size() * userMaps.size();
+		for (Similarity sim : new Similarity[] { Similarity.COSINE, Similarity.JACCARD }) {
+			long mapNanos = 0, vectorNanos = 0;
+			double mapSum = 0.0, vectorSum = 0.0;
+			// the first round warms up the JIT
+			for (int round = 0; round <= rounds; round++) {
+				long start = System.nanoTime();
+				mapSum = getSimilaritySum(linkedMaps, sim);
+				long nanos = System.nanoTime() - start;
+				mapNanos += (round > 0 ? nanos : 0);
+				start = System.nanoTime();
+				vectorSum = getSimilaritySum(userMaps, sim);
+				nanos = System.nanoTime() - start;
+				vectorNanos += (round > 0 ? nanos : 0);
+			}
+			System.out.println(sim + " of " + pairs + " pairs: maps " + (double)mapNanos / (rounds * pairs) + " ns, SparseVector " + (double)vectorNanos / (rounds * pairs)
+					+ " ns per pair (" + (double)mapNanos / vectorNanos + "x), sums " + mapSum + " / " + vectorSum);
+		}
+	}
+	
+	private static void startSimilarityCacheBenchmark(String sampleName, int neighborSize) {
+		Pipeline.getTrainTestSize(sampleName);
+		int capacity = SimilarityCache.getDefaultCapacity();
+		long[] nanos = new long[4];
+		try {
+			for (int run = 0; run < 2; run++) {
+				SimilarityCache.setDefaultCapacity(run == 0 ? 0 : capacity);
+				long start = System.nanoTime();
+				Resource3LTCalculator.predictSample(sampleName, Pipeline.TRAIN_SIZE, Pipeline.TEST_SIZE, neighborSize, Features.ENTITIES, false, true, false, false);
+				nanos[run * 2] = System.nanoTime() - start;
+				start = System.nanoTime();
+				HuangCalculator.predictSample(sampleName, Pipeline.TRAIN_SIZE);
+				nanos[run * 2 + 1] = System.nanoTime() - start;
+			}
+		} finally {
+			SimilarityCache.setDefaultCapacity(capacity);
+		}
+		System.out.println("3LT: " + nanos[0] / 1000000.0 + " ms without cache, " + nanos[2] / 1000000.0 + " ms with cache");
+		System.out.println("Huang: " + nanos[1] / 1000000.0 + " ms without cache, " + nanos[3] / 1000000.0 + " ms with cache");
+	}
+	
+	private static double getSimilaritySum(List<Map<Integer, Double>> profiles, Similarity sim) {
+		double sum = 0.0;
+		for (Map<Integer, Double> profile : profiles) {
+			for (Map<Integer, Double> other : profiles) {
+				double value = (sim == Similarity.JACCARD ? Utilities.getJaccardFloatSim(profile, other) : Utilities.getCosineFloatSim(profile, other));
+				sum += (Double.isNaN(value) ? 0.0 : value);
+			}
+		}
+		return sum;
+	}
+	
+	// the first k keys with a positive value
+	private static List<Integer> getPositiveKeys(Map<Integer, Double> sortedMap, int k) {
+		List<Integer> keys = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Double> entry : sortedMap.entrySet()) {
+			if (keys.size() == k || entry.getValue() <= 0.0) {
+				break;
+			}
+			keys.add(entry.getKey());
+		}
+		return keys;
+	}
+	
+	private static void startProfileMemoryBenchmark(String sampleName) {
+		BookmarkReader reader = new BookmarkReader(0, false);
+		reader.readFile(sampleName);
+		List<Bookmark> bookmarks = reader.getBookmarks();
+		long before = getUsedMemory();
+		List<Map<Integer, Double>> profiles = new ArrayList<Map<Integer, Double>>();
+		profiles.addAll(ActCalculator.getArtifactMaps(reader, bookmarks, null, false, new ArrayList<Long>(), new ArrayList<Double>(), 0.5, true));
+		profiles.addAll(ActCalculator.getArtifactMaps(reader, bookmarks, null, true, new ArrayList<Long>(), new ArrayList<Double>(), 0.0, true));
+		profiles.addAll(Utilities.getRelativeTagMaps(bookmarks, false));
+		profiles.addAll(Utilities.getRelativeTagMaps(bookmarks, true));
+		long vectorBytes = getUsedMemory() - before;
+		long entries = 0;
+		for (Map<Integer, Double> map : profiles) {
+			entries += (map != null ? map.size() : 0);
+		}
+		
+		before = getUsedMemory();
+		List<Map<Integer, Double>> linkedProfiles = new ArrayList<Map<Integer, Double>>();
+		for (Map<Integer, Double> map : profiles) {
+			linkedProfiles.add(map != null ? new LinkedHashMap<Integer, Double>(map) : null);
+		}
+		long mapBytes = getUsedMemory() - before;
+		System.out.println(linkedProfiles.size() + " profiles, " + entries + " entries");
+		System.out.println("LinkedHashMap: " + mapBytes + " bytes (" + (double)mapBytes / entries + " per entry)");
+		System.out.println("SparseVector: " + vectorBytes + " bytes (" + (double)vectorBytes / entries + " per entry)");
+	}
+	
+	private static long getUsedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -24,6 +24,8 @@ import itemrecommendations.HuangCalculator;
 import itemrecommendations.Resource3LTCalculator;
 import itemrecommendations.ZhengCalculator;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,6 +34,7 @@ import common.Bookmark;
 import common.CalculationType;
 import common.Features;
 import processing.ActCalculator;
+import processing.ActStatistics;
 import processing.BM25Calculator;
 import processing.BaselineCalculator;
 import processing.ContentBasedCalculator;
@@ -40,19 +43,28 @@ import processing.LanguageModelCalculator;
 import processing.MalletCalculator;
 import processing.MetricsCalculator;
 import processing.RecCalculator;
+import processing.RunContext;
+import processing.SweepExecutor;
+import processing.TestSetEvaluator;
 import processing.ThreeLayersCalculator;
 import engine.BaseLevelLearningEngine;
 import engine.EngineInterface;
 import engine.LanguageModelEngine;
 import engine.TagRecommenderEngine;
 import engine.ThreeLayersEngine;
+import file.BinaryDataset;
 import file.BookmarkReader;
 import file.BookmarkSplitter;
+import file.DatasetCache;
 
 public class Pipeline {
 
-	private static int TRAIN_SIZE;
-	private static int TEST_SIZE;
+	static int TRAIN_SIZE;
+	static int TEST_SIZE;
+	// grid points of a parameter sweep that are evaluated concurrently - 1 runs them one after the other
+	private static int SWEEP_THREADS = Runtime.getRuntime().availableProcessors();
+	// threads that score the test set of one calculator - 1 scores it in the calling thread
+	private static int TEST_THREADS = Runtime.getRuntime().availableProcessors();
 
 	public static void main(String[] args) {
 		System.out.println("TagRecommender:\n" + "" +
@@ -71,6 +83,15 @@ public class Pipeline {
 				"along with this program.  If not, see <http://www.gnu.org/licenses/>.\n" + 
 				"-----------------------------------------------------------------------------\n\n");
 		
+		// convert <sampleName>: writes the binary form of the dataset, which is read instead of the text file from then on
+		if (args.length > 1 && args[0].equals("convert")) {
+			convertDataset(args[1]);
+			return;
+		}
+		// the calculators of a parameter sweep read the same sample over and over - parse it once and share it
+		DatasetCache.setEnabled(true);
+		TestSetEvaluator.setParallelism(TEST_THREADS);
+		
 		// TODO: just execute to test your recommender - results can be found in metrics/bib_core
 		startContentBasedCalculator("bib_core", "bib_core/bib_sample");
 		
@@ -140,6 +161,7 @@ public class Pipeline {
 		System.out.println("TagRec with Topics: " + tagrecEngine.getTagsWithLikelihood("41", "545", Arrays.asList("ontology", "conference", "tutorial", "web2.0", "rss", "tools"), 10));
 		System.out.println("TagRec without Topics: " + tagrecEngine.getTagsWithLikelihood("41", "545", null, 10));
 		*/
+		// Benchmarks of the data structures and the parallel evaluation can be found in test.Benchmarks
 		// Resource-Recommender testing
 		//startCfResourceCalculator("bib_core", "bib_core/bib_sample", 1, 20, true, false, false, false, Features.ENTITIES);
 		//startResourceCIRTTCalculator("bib_core", "bib_core/bib_sample", "", 1, 20, Features.ENTITIES, false, true, false, true);
@@ -231,33 +253,52 @@ public class Pipeline {
 		writeMetrics(sampleDir, sampleName, "cb", 1, 10, null);	
 	}
 	
-	private static void startActCalculator(String sampleDir, String sampleName,
-			int sampleCount, int dUpperBound, int betaUpperBound, boolean all, CalculationType type) {
+	private static void startActCalculator(final String sampleDir, final String sampleName,
+			final int sampleCount, int dUpperBound, int betaUpperBound, boolean all, final CalculationType type) {
 		getTrainTestSize(sampleName);
 		List<Integer> dValues = getBetaValues(dUpperBound);
 		List<Integer> betaValues = getBetaValues(betaUpperBound);
-		String ac = type == CalculationType.USER_TO_RESOURCE ? "_ac" : "";
+		final String ac = type == CalculationType.USER_TO_RESOURCE ? "_ac" : "";
+		// the usage gaps and resource activations are built once - the grid points only evaluate them for their d
+		final ActStatistics statistics = ActCalculator.getStatistics(sampleName, TRAIN_SIZE);
 		
+		SweepExecutor sweep = new SweepExecutor(SWEEP_THREADS);
 		for (int i = 1; i <= sampleCount; i++) {
-			for (int dVal : dValues) {
-				ActCalculator.predictSample(sampleName, TRAIN_SIZE,
-						TEST_SIZE, true, false, dVal, 5, type);
-				writeMetrics(sampleDir, sampleName,
-						"bll" + ac + "_" + 5 + "_" + dVal, sampleCount, 10, null);
+			for (final int dVal : dValues) {
+				sweep.add(new SweepExecutor.GridPoint() {
+					@Override
+					public void run(RunContext context) {
+						ActCalculator.predictSample(sampleName, TRAIN_SIZE,
+								TEST_SIZE, true, false, dVal, 5, type, statistics, context);
+						writeMetrics(sampleDir, sampleName,
+								"bll" + ac + "_" + 5 + "_" + dVal, sampleCount, 10, null, context);
+					}
+				});
 				if (all) {
-					for (int betaVal : betaValues) {
-						ActCalculator.predictSample(sampleName,
-								TRAIN_SIZE, TEST_SIZE, true, true, dVal,
-								betaVal, type);
-						writeMetrics(sampleDir, sampleName, "bll_c" + ac + "_" + betaVal
-								+ "_" + dVal, sampleCount, 10, null);
+					for (final int betaVal : betaValues) {
+						sweep.add(new SweepExecutor.GridPoint() {
+							@Override
+							public void run(RunContext context) {
+								ActCalculator.predictSample(sampleName,
+										TRAIN_SIZE, TEST_SIZE, true, true, dVal,
+										betaVal, type, statistics, context);
+								writeMetrics(sampleDir, sampleName, "bll_c" + ac + "_" + betaVal
+										+ "_" + dVal, sampleCount, 10, null, context);
+							}
+						});
 					}
-					ActCalculator.predictSample(sampleName,
-							TRAIN_SIZE, TEST_SIZE, false, true, dVal, 5, type);
-					writeMetrics(sampleDir, sampleName, "bll_r" + ac + "_" + 5 + "_"
-							+ dVal, sampleCount, 10, null);
+					sweep.add(new SweepExecutor.GridPoint() {
+						@Override
+						public void run(RunContext context) {
+							ActCalculator.predictSample(sampleName,
+									TRAIN_SIZE, TEST_SIZE, false, true, dVal, 5, type, statistics, context);
+							writeMetrics(sampleDir, sampleName, "bll_r" + ac + "_" + 5 + "_"
+									+ dVal, sampleCount, 10, null, context);
+						}
+					});
 				}
 			}
+			sweep.run(); // the metrics of a sample are appended to the files before the next sample starts
 		}
 		// n, p, q
 	}
@@ -273,54 +314,75 @@ public class Pipeline {
 		// l, m
 	}
 
-	private static void startModelCalculator(String sampleDir,
-			String sampleName, int sampleCount, int betaUpperBound) {
+	private static void startModelCalculator(final String sampleDir,
+			final String sampleName, final int sampleCount, int betaUpperBound) {
 		getTrainTestSize(sampleName);
 		List<Integer> betaValues = getBetaValues(betaUpperBound);
 
-		for (int i = 1; i <= sampleCount; i++) {
-			LanguageModelCalculator.predictSample(sampleName,
-					TRAIN_SIZE, TEST_SIZE, true, false, 5);
-			LanguageModelCalculator.predictSample(sampleName,
-					TRAIN_SIZE, TEST_SIZE, false, true, 5);
-		}
-		writeMetrics(sampleDir, sampleName, "mp_u_" + 5, sampleCount, 10,
-				null);
-		writeMetrics(sampleDir, sampleName, "mp_r_" + 5, sampleCount, 10,
-				null);
-		for (int beta : betaValues) {
-			for (int i = 1; i <= sampleCount; i++) {
-				LanguageModelCalculator.predictSample(sampleName,
-						TRAIN_SIZE, TEST_SIZE, true, true, beta);
-			}
-			writeMetrics(sampleDir, sampleName, "mp_ur_" + beta, sampleCount,
-					10, null);
+		SweepExecutor sweep = new SweepExecutor(SWEEP_THREADS);
+		for (final boolean userBased : new boolean[] {true, false}) {
+			sweep.add(new SweepExecutor.GridPoint() {
+				@Override
+				public void run(RunContext context) {
+					for (int i = 1; i <= sampleCount; i++) {
+						LanguageModelCalculator.predictSample(sampleName,
+								TRAIN_SIZE, TEST_SIZE, userBased, !userBased, 5, context);
+					}
+					writeMetrics(sampleDir, sampleName, (userBased ? "mp_u_" : "mp_r_") + 5, sampleCount, 10,
+							null, context);
+				}
+			});
 		}
+		for (final int beta : betaValues) {
+			sweep.add(new SweepExecutor.GridPoint() {
+				@Override
+				public void run(RunContext context) {
+					for (int i = 1; i <= sampleCount; i++) {
+						LanguageModelCalculator.predictSample(sampleName,
+								TRAIN_SIZE, TEST_SIZE, true, true, beta, context);
+					}
+					writeMetrics(sampleDir, sampleName, "mp_ur_" + beta, sampleCount,
+							10, null, context);
+				}
+			});
+		}
+		sweep.run();
 		// b, c, d
 	}
 
-	private static void startCfTagCalculator(String sampleDir,
-			String sampleName, int sampleCount, int neighbors,
+	private static void startCfTagCalculator(final String sampleDir,
+			final String sampleName, final int sampleCount, final int neighbors,
 			int betaUpperBound) {
 		getTrainTestSize(sampleName);
 		List<Integer> betaValues = getBetaValues(betaUpperBound);
-		for (int i = 1; i <= sampleCount; i++) {
-			BM25Calculator.predictTags(sampleName, TRAIN_SIZE,
-					TEST_SIZE, neighbors, true, false, 5);
-			BM25Calculator.predictTags(sampleName, TRAIN_SIZE,
-					TEST_SIZE, neighbors, false, true, 5);
-		}
-		writeMetrics(sampleDir, sampleName, "usercf_" + 5, sampleCount, 10,
-				null);
-		writeMetrics(sampleDir, sampleName, "rescf_" + 5, sampleCount, 10, null);
-		for (int beta : betaValues) {
-			for (int i = 1; i <= sampleCount; i++) {
-				BM25Calculator.predictTags(sampleName, TRAIN_SIZE,
-						TEST_SIZE, neighbors, true, true, beta);
-			}
-			writeMetrics(sampleDir, sampleName, "cf_" + beta, sampleCount, 10,
-					null);
+		SweepExecutor sweep = new SweepExecutor(SWEEP_THREADS);
+		for (final boolean userBased : new boolean[] {true, false}) {
+			sweep.add(new SweepExecutor.GridPoint() {
+				@Override
+				public void run(RunContext context) {
+					for (int i = 1; i <= sampleCount; i++) {
+						BM25Calculator.predictTags(sampleName, TRAIN_SIZE,
+								TEST_SIZE, neighbors, userBased, !userBased, 5, context);
+					}
+					writeMetrics(sampleDir, sampleName, (userBased ? "usercf_" : "rescf_") + 5, sampleCount, 10,
+							null, context);
+				}
+			});
 		}
+		for (final int beta : betaValues) {
+			sweep.add(new SweepExecutor.GridPoint() {
+				@Override
+				public void run(RunContext context) {
+					for (int i = 1; i <= sampleCount; i++) {
+						BM25Calculator.predictTags(sampleName, TRAIN_SIZE,
+								TEST_SIZE, neighbors, true, true, beta, context);
+					}
+					writeMetrics(sampleDir, sampleName, "cf_" + beta, sampleCount, 10,
+							null, context);
+				}
+			});
+		}
+		sweep.run();
 		// e, f, g
 	}
 
@@ -362,30 +424,43 @@ public class Pipeline {
 		}
 	}
 		
-	private static void start3LayersJavaCalculator(String sampleDir, String sampleName, String topicString, int size, int dUpperBound, int betaUpperBound, boolean resBased, boolean tagBLL, boolean topicBLL) {
+	private static void start3LayersJavaCalculator(final String sampleDir, final String sampleName, final String topicString, final int size, int dUpperBound, int betaUpperBound, boolean resBased, final boolean tagBLL, final boolean topicBLL) {
 		getTrainTestSize(sampleName);
 		List<Integer> dValues = getBetaValues(dUpperBound);
 		List<Integer> betaValues = getBetaValues(betaUpperBound);		
-		String suffix = "layers";
+		String layersSuffix = "layers";
 		if (tagBLL && topicBLL) {
-			suffix += "bll";
+			layersSuffix += "bll";
 		} else if (tagBLL) {
-			suffix += "tagbll";
+			layersSuffix += "tagbll";
 		} else if (topicBLL) {
-			suffix += "topicbll";
+			layersSuffix += "topicbll";
 		}
+		final String suffix = layersSuffix;
 		
+		SweepExecutor sweep = new SweepExecutor(SWEEP_THREADS);
 		for (int i = 1; i <= size; i++) {
-			for (int d : dValues) {
+			for (final int d : dValues) {
 				if (resBased) {
-					for (int b : betaValues) {
-						ThreeLayersCalculator.predictSample(sampleName + (!topicString.isEmpty() ? "_" + topicString : ""), TRAIN_SIZE, TEST_SIZE, d, b, true, true, tagBLL, topicBLL);
-						writeMetrics(sampleDir, sampleName, suffix + "_" + b + "_" + d, size, 10, !topicString.isEmpty() ? topicString : null);
+					for (final int b : betaValues) {
+						sweep.add(new SweepExecutor.GridPoint() {
+							@Override
+							public void run(RunContext context) {
+								ThreeLayersCalculator.predictSample(sampleName + (!topicString.isEmpty() ? "_" + topicString : ""), TRAIN_SIZE, TEST_SIZE, d, b, true, true, tagBLL, topicBLL, context);
+								writeMetrics(sampleDir, sampleName, suffix + "_" + b + "_" + d, size, 10, !topicString.isEmpty() ? topicString : null, context);
+							}
+						});
 					}
 				}
-				ThreeLayersCalculator.predictSample(sampleName + (!topicString.isEmpty() ? "_" + topicString : ""), TRAIN_SIZE, TEST_SIZE, d, 5, true, false, tagBLL, topicBLL);
-				writeMetrics(sampleDir, sampleName, "user" + suffix + "_" + 5 + "_" + d, size, 10, !topicString.isEmpty() ? topicString : null);
+				sweep.add(new SweepExecutor.GridPoint() {
+					@Override
+					public void run(RunContext context) {
+						ThreeLayersCalculator.predictSample(sampleName + (!topicString.isEmpty() ? "_" + topicString : ""), TRAIN_SIZE, TEST_SIZE, d, 5, true, false, tagBLL, topicBLL, context);
+						writeMetrics(sampleDir, sampleName, "user" + suffix + "_" + 5 + "_" + d, size, 10, !topicString.isEmpty() ? topicString : null, context);
+					}
+				});
 			}
+			sweep.run(); // the metrics of a sample are appended to the files before the next sample starts
 		}
 	}
 	
@@ -393,22 +468,27 @@ public class Pipeline {
 	// -----------------------------------------------------------------------------------------------------------------------------------------------------------
 	private static void writeMetrics(String sampleDir, String sampleName,
 			String prefix, int sampleCount, int k, String posfix) {
+		writeMetrics(sampleDir, sampleName, prefix, sampleCount, k, posfix, new RunContext());
+	}
+	
+	private static void writeMetrics(String sampleDir, String sampleName,
+			String prefix, int sampleCount, int k, String posfix, RunContext context) {
 		String topicString = ((posfix == null || posfix == "0") ? "" : "_"
 				+ posfix);
 		for (int i = 1; i <= k; i++) {
 			for (int j = 1; j <= sampleCount; j++) {
 				MetricsCalculator.calculateMetrics(sampleName
 						+ topicString + "_" + prefix, i, sampleDir + "/"
-						+ prefix + topicString + "_metrics", false, null, null, null, null, null, true);
+						+ prefix + topicString + "_metrics", false, null, null, null, null, null, true, context);
 			}
 			MetricsCalculator.writeAverageMetrics(sampleDir + "/" + prefix
-					+ topicString + "_metrics", i, (double) sampleCount, true, i == k);
+					+ topicString + "_metrics", i, (double) sampleCount, true, i == k, context);
 		}
-		MetricsCalculator.resetMetrics();
+		context.resetMetrics();
 	}
 
 	// e.g., -5 will be transformed to 0.5 and 2 will be transformed to 0.1 and 0.2
-	private static List<Integer> getBetaValues(int betaUpperBound) {
+	static List<Integer> getBetaValues(int betaUpperBound) {
 		List<Integer> betaValues = new ArrayList<Integer>();
 		if (betaUpperBound < 0) {
 			betaValues.add(betaUpperBound * (-1));
@@ -435,7 +515,26 @@ public class Pipeline {
 		System.out.println("Tag-Assignments: " + tagAssignments);
 	}
 
-	private static void getTrainTestSize(String sample) {
+	static void convertDataset(String sampleName) {
+		try {
+			long start = System.currentTimeMillis();
+			File file = BinaryDataset.convert(sampleName, false);
+			System.out.println("Wrote " + file + " (" + file.length() + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	static void getTrainTestSize(String sample) {
+		// the binary dataset knows the sizes, so the files do not have to be read
+		BinaryDataset header = BinaryDataset.getSplitHeader(sample);
+		if (header != null) {
+			TRAIN_SIZE = header.getTrainSize();
+			TEST_SIZE = header.getTestSize();
+			System.out.println("Train-size: " + TRAIN_SIZE);
+			System.out.println("Test-size: " + TEST_SIZE);
+			return;
+		}
 		BookmarkReader trainReader = new BookmarkReader(-1, false);
 		trainReader.readFile(sample + "_train");
 		TRAIN_SIZE = trainReader.getBookmarks().size();